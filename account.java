@@ -1,11 +1,22 @@
 package businessOffice;
 
+import java.util.Arrays;
+import java.util.HashMap;
+
+import businessOffice.PayrollMetrics.Operation;
+import businessOffice.PayrollMetrics.Rejection;
+import businessOffice.PayrollMetrics.Structure;
+import businessOffice.PayrollMetrics.Timer;
+
 /*
  * This is the main account class for the payroll management system. It contains
  * all of the required methods to effectively manage the payroll of any company.
- * To store employees, an object of the DatarrayList is used which functions 
- * almost identically to the Java arrayList. A new DatarrayList object is 
- * initialized and stores them in a employee object called empList. There are
+ * To store employees, an object of the EmployeeStore class is used which keeps
+ * the data of every employee in parallel primitive arrays, one row per
+ * employee, along with an index from employee name to row. Amounts of money
+ * are kept as whole cents (see the Money class) and only converted to and
+ * from doubles at the public methods of this class. A new EmployeeStore
+ * object is initialized and referenced by the field empStore. There are
  * also fields for the name of the account (the company using making the 
  * account, whether the account is limited (checked through seeing if empLimit 
  * is true), and if the account is limited, an int to keep track of the maximum 
@@ -13,16 +24,68 @@ package businessOffice;
  * The methods in this class range from methods to hire employees, add working 
  * hours, sales amounts, check how much they should earn, see the payroll of the
  * company as a whole and check if employees exist in an account. This class
- * also contains two private helper methods to prevent code repetition.
+ * also contains private helper methods to prevent code repetition. Looking an
+ * employee up is a single hash probe into the index of empStore, and the
+ * payroll and pay period methods are loops over its primitive columns.
+ *
+ * Employees are let go with terminate(), which only leaves a tombstone in the
+ * store (see EmployeeStore.remove()) so it takes the same time however many
+ * employees there are, and frees the place of the employee in a limited
+ * account at once. Once tombstones make up COMPACT_FRACTION of the rows (and
+ * there are at least COMPACT_MIN_TOMBSTONES), the store is compacted
+ * COMPACT_STEP rows at a time: by every further termination here, and on a
+ * background thread for a ConcurrentAccount. compact() finishes the job at
+ * once. Compaction moves employees to other rows, so Employee objects
+ * returned by getEmployee() should not be kept across terminations.
+ *
+ * Reports that go through every employee while the account keeps changing
+ * read it through an AccountView opened with openView(), which goes on
+ * showing the account as of the moment it was opened without holding up
+ * any change to it. Compaction waits while a view is open.
+ *
+ * Systems downstream that need every change as it happens subscribe to the
+ * ChangeStream turned on with enableChangeStream(), which hands each change
+ * to them on threads of their own, next to the AccountListener if any.
  */
 public class Account {
+	// Tombstones start being compacted once they are at least 1 in
+	// COMPACT_FRACTION rows and at least COMPACT_MIN_TOMBSTONES, and each
+	// step of compaction handles at most COMPACT_STEP rows.
+	static final int COMPACT_FRACTION = 8;
+	static final int COMPACT_MIN_TOMBSTONES = 64;
+	static final int COMPACT_STEP = 4096;
+
 	private String accName;
 	private boolean empLimit;
 	private int maxEmployees;
 
-	// Creating a new list for employees to be stored through the class
-	// DatarrayList.
-	DatarrayList empList = new DatarrayList();
+	// Creating a new store for employees to be stored through the class
+	// EmployeeStore.
+	EmployeeStore empStore = new EmployeeStore();
+
+	// Told about every change made to the account, or null: the listener
+	// set with setListener() (which may reject the change by throwing), the
+	// journal and the change stream, in that order.
+	private AccountListener listener;
+
+	// The journal attached by PayrollJournal.recover(), the listener set
+	// with setListener() and the change stream, or null.
+	private AccountListener journal;
+	private AccountListener userListener;
+	private ChangeStream changes;
+
+	// Archive of the closed pay periods, or null if history is not kept.
+	private PayrollHistory history;
+
+	// Secondary indexes over the employees, or null if they are not kept.
+	private EmployeeIndex index;
+
+	// Where operations, refusals and timings are reported (by default
+	// nowhere).
+	private PayrollMetrics metrics = PayrollMetrics.NONE;
+
+	// Number of views opened on the account so far.
+	private long viewVersion = 0;
 
 	// This is the constructor used for paid accounts, without assigning the
 	// true value for empLimit.
@@ -71,21 +134,30 @@ public class Account {
 	 * between 0 and 100 and whether a pre-existing employee with the same name
 	 * already previously exists. The method then checks if the account is
 	 * limited (free) and if so, is it within the alloted free number of
-	 * employees. Only after all of these checks does it get added to the object
-	 * referencing an array of employees (empList).
+	 * employees. Only after all of these checks does it get added to the
+	 * employee store (empStore).
 	 */
 	public boolean hireCommissionedWorker(String name, double commissionRate) {
+		return hireCommissionedWorker(name, commissionRate, 0.0);
+	}
+
+	/*
+	 * This method hires a commissioned employee who is also paid a yearly
+	 * base salary, as the base plus commission pay plans do (see PayPlan). The
+	 * base salary may be 0 but not negative (nor larger than
+	 * Money.MAX_AMOUNT); the other checks are those of the method above.
+	 */
+	public boolean hireCommissionedWorker(String name, double commissionRate,
+			double yearlyBase) {
 		boolean flag = false;
-		if (isEmployeeValid(name) && commissionRate > 0.0
-				&& commissionRate < 100.0 && !isEmployee(name)) {
-			// Checks whether the account is limited by confirming empLimit
-			// is false and if that is not the case, it is under the allotted
-			// limit for free accounts. If these conditions aren't met, no
-			// employee is added and the method returns false.
-			if (!empLimit || numEmployees() < maxEmployees) {
-				empList.add(new CommissionEmployee(name, commissionRate));
-				flag = true;
-			}
+		if (!isEmployeeValid(name)) {
+			metrics.rejected(Rejection.INVALID_NAME);
+		} else if (commissionRate > 0.0 && commissionRate < 100.0
+				&& yearlyBase >= 0.0 && Money.isValidAmount(yearlyBase)) {
+			flag = hire(name, EmployeeStore.COMMISSIONED,
+					Money.toCents(yearlyBase), commissionRate);
+		} else {
+			metrics.rejected(Rejection.INVALID_AMOUNT);
 		}
 		return flag;
 	}
@@ -93,23 +165,83 @@ public class Account {
 	/*
 	 * This method hires salaried employees. It takes in the parameters name of
 	 * employee and the yearly salary. The code then checks if the name of the
-	 * employee is valid, if the yearly salary is greater than 0 and whether a
-	 * pre-existing employee with the same name already previously exists. The
-	 * method then checks if the account is limited (free) and if so, is it
-	 * within the alloted free number of employees. Only after all of these
-	 * checks does it get added to the object referencing an array of employees
-	 * (empList).
+	 * employee is valid, if the yearly salary is greater than 0 (and no
+	 * larger than Money.MAX_AMOUNT) and whether a pre-existing employee with
+	 * the same name already previously exists. The method then checks if the
+	 * account is limited (free) and if so, is it within the alloted free
+	 * number of employees. Only after all of these checks does it get added
+	 * to the employee store (empStore).
 	 */
 	public boolean hireSalariedWorker(String name, double yearlySalary) {
 		boolean flag = false;
-		if (isEmployeeValid(name) && yearlySalary > 0.0 && !isEmployee(name)) {
+		if (!isEmployeeValid(name)) {
+			metrics.rejected(Rejection.INVALID_NAME);
+		} else if (yearlySalary > 0.0 && Money.isValidAmount(yearlySalary)) {
+			flag = hire(name, EmployeeStore.SALARIED,
+					Money.toCents(yearlySalary), 0.0);
+		} else {
+			metrics.rejected(Rejection.INVALID_AMOUNT);
+		}
+		return flag;
+	}
+
+	/*
+	 * This method hires hourly employees. It takes in the parameters name of
+	 * employee and the hourly wage, which has to be greater than 0 (and no
+	 * larger than Money.MAX_AMOUNT), and otherwise makes the same checks as
+	 * the other hire methods. Hourly employees are paid for every hour they
+	 * work, with overtime paid as the hourly PayPlan of the account says.
+	 */
+	public boolean hireHourlyWorker(String name, double hourlyWage) {
+		boolean flag = false;
+		if (!isEmployeeValid(name)) {
+			metrics.rejected(Rejection.INVALID_NAME);
+		} else if (hourlyWage > 0.0 && Money.isValidAmount(hourlyWage)) {
+			flag = hire(name, EmployeeStore.HOURLY, Money.toCents(hourlyWage),
+					0.0);
+		} else {
+			metrics.rejected(Rejection.INVALID_AMOUNT);
+		}
+		return flag;
+	}
+
+	/*
+	 * Helper used by the hire methods once the name and pay of the new
+	 * employee have been checked. It checks that no employee with the same
+	 * name already exists and that a limited (free) account is within its
+	 * allotted number of employees, and only then adds the employee to the
+	 * employee store. Returns true if the employee was added. It is
+	 * package-private so that ConcurrentAccount can make the checks and the
+	 * add a single atomic step.
+	 */
+	boolean hire(String name, byte type, long salaryCents, double rate) {
+		boolean flag = false;
+		if (isEmployee(name)) {
+			metrics.rejected(Rejection.DUPLICATE_NAME);
+		} else {
 			// Checks whether the account is limited by confirming empLimit
 			// is false and if that is not the case, it is under the allotted
 			// limit for free accounts. If these conditions aren't met, no
 			// employee is added and the method returns false.
 			if (!empLimit || numEmployees() < maxEmployees) {
-				empList.add(new SalariedEmployee(name, yearlySalary));
+				// the listener is told first so no change to the new
+				// employee can reach it before the hire
+				if (listener != null) {
+					listener.employeeHired(name, type, salaryCents, rate);
+				}
+				int capacity = empStore.capacity();
+				int row = empStore.add(name, type, salaryCents, rate);
+				if (index != null) {
+					index.rowChanged(row);
+				}
+				if (empStore.capacity() != capacity) {
+					metrics.resized(Structure.EMPLOYEE_STORE, capacity,
+							empStore.capacity());
+				}
+				metrics.operation(Operation.HIRE);
 				flag = true;
+			} else {
+				metrics.rejected(Rejection.EMPLOYEE_LIMIT);
 			}
 		}
 		return flag;
@@ -117,27 +249,177 @@ public class Account {
 
 	/*
 	 * This method checks whether a specified employee is already present in the
-	 * DatarrayList object i.e. stored in the employee list. It references
-	 * another method called empExistCheck which only checks whether a name
-	 * passed as an argument is equal to the name of the current object's name
+	 * EmployeeStore object i.e. stored in the employee store. It looks the name
+	 * up in the index of the store rather than iterating through every
+	 * employee.
 	 */
 	public boolean isEmployee(String name) {
 		boolean flag = false;
 
-		// Loop iterating through each employee stored
-		for (int i = 0; i < empList.getSize(); i++) {
-			// flag becomes true if the same employee is found
-			if (employeeFound(i, name)) {
-				flag = true;
-			}
+		// flag becomes true if the same employee is found
+		if (rowOf(name) >= 0) {
+			flag = true;
 		}
 		// returns true if same name found, false if not
 		return flag;
 	}
 
-	// Method to return an int of the number of employees stored in the account
+	/*
+	 * This method returns an Employee object (SalariedEmployee or
+	 * CommissionEmployee) which is a view over the stored data of the
+	 * specified employee, so changes made through it are seen by the account.
+	 * Returns null if the employee does not exist.
+	 */
+	public Employee getEmployee(String name) {
+		Employee emp = null;
+		int row = rowOf(name);
+		if (row >= 0) {
+			emp = empStore.view(row);
+		}
+		return emp;
+	}
+
+	// Method to return an int of the number of employees stored in the
+	// account, not counting terminated employees
 	public int numEmployees() {
-		return empList.getSize();
+		return empStore.numEmployees();
+	}
+
+	/*
+	 * This method terminates (fires) the specified employee. The employee is
+	 * taken out of the account at once: it is no longer found by name, is
+	 * not part of the payroll or the bill, and its place counts towards the
+	 * limit of a free account again, so a new employee can be hired in its
+	 * place. Returns true if the employee was terminated and false if there
+	 * is no such employee.
+	 */
+	public boolean terminate(String name) {
+		boolean flag = false;
+		if (!isEmployeeValid(name)) {
+			metrics.rejected(Rejection.INVALID_NAME);
+		} else if (remove(name)) {
+			metrics.operation(Operation.TERMINATE);
+			flag = true;
+		} else {
+			metrics.rejected(Rejection.UNKNOWN_EMPLOYEE);
+		}
+		return flag;
+	}
+
+	/*
+	 * Helper used by terminate() once the name has been checked. Looks the
+	 * employee up, tells the listener and the index, and leaves a tombstone
+	 * in its row; if tombstones have passed the threshold, compaction is
+	 * started with compactionDue(). Returns true if the employee was found.
+	 * It is package-private so that ConcurrentAccount can make it a single
+	 * step while holding every lock, and for replaying a PayrollJournal.
+	 */
+	boolean remove(String name) {
+		boolean flag = false;
+		int row = empStore.find(name);
+		if (row >= 0) {
+			if (listener != null) {
+				listener.employeeTerminated(name);
+			}
+			if (index != null) {
+				index.rowRemoved(row);
+			}
+			empStore.remove(row);
+			flag = true;
+			checkCompaction();
+		}
+		return flag;
+	}
+
+	/*
+	 * Helper calling compactionDue() if the tombstones have passed the
+	 * threshold and no AccountView is open.
+	 */
+	private void checkCompaction() {
+		int tombstones = empStore.numTerminated();
+		if (tombstones >= COMPACT_MIN_TOMBSTONES
+				&& (long) tombstones * COMPACT_FRACTION >= empStore.size()
+				&& empStore.newestView == null) {
+			compactionDue();
+		}
+	}
+
+	/*
+	 * Called by remove() while tombstones are over the threshold. A plain
+	 * Account does one step of compaction right away, so the work is spread
+	 * over the terminations; ConcurrentAccount overrides this to run the
+	 * steps on a background thread.
+	 */
+	void compactionDue() {
+		compactStep();
+	}
+
+	/*
+	 * Compacts away every tombstone left by terminated employees now, a step
+	 * at a time with no other thread changing the account during a step.
+	 * Nothing is compacted while an AccountView is open.
+	 */
+	public void compact() {
+		boolean done = false;
+		while (!done) {
+			done = compactStep();
+		}
+	}
+
+	/*
+	 * Helper doing one step of compaction (at most COMPACT_STEP rows) while
+	 * no other thread can change the account, moving the rows filed in the
+	 * index along. Returns true if no tombstones are left, or if an
+	 * AccountView is open and compaction has to wait for it to be closed.
+	 */
+	boolean compactStep() {
+		final boolean[] done = new boolean[1];
+		runExclusive(new Runnable() {
+			public void run() {
+				EmployeeStore.RowMoves moves = null;
+				final EmployeeIndex idx = index;
+				if (idx != null) {
+					moves = new EmployeeStore.RowMoves() {
+						public void rowMoved(int from, int to) {
+							idx.rowMoved(from, to);
+						}
+					};
+				}
+				done[0] = empStore.newestView != null
+						|| empStore.compact(COMPACT_STEP, moves);
+			}
+		});
+		return done[0];
+	}
+
+	/*
+	 * Opens a read-only view of the account as of this moment (see
+	 * AccountView), which goes on showing the employees, hours, sales and
+	 * pay of this moment while the account keeps changing. Opening a view
+	 * copies no employees. The view should be closed once it has been read.
+	 */
+	public AccountView openView() {
+		final Account acc = this;
+		final AccountView[] view = new AccountView[1];
+		runExclusive(new Runnable() {
+			public void run() {
+				view[0] = AccountView.open(acc, ++viewVersion);
+			}
+		});
+		return view[0];
+	}
+
+	/*
+	 * Closes a view for AccountView.close(), starting compaction if it was
+	 * held back by the open views.
+	 */
+	void closeView(final AccountView view) {
+		runExclusive(new Runnable() {
+			public void run() {
+				view.unlink();
+				checkCompaction();
+			}
+		});
 	}
 
 	/*
@@ -168,18 +450,22 @@ public class Account {
 	 */
 	public boolean workHours(String name, int numHours) {
 		boolean flag = false;
+		int row = rowOf(name);
 
 		// Checks number of hours being added is greater than 0 and if the
-		// employee is in employee list
-		if (numHours > 0 && isEmployee(name)) {
-			// iterates through each employee to find correct employee
-			for (int i = 0; i < empList.getSize(); i++) {
-				// if block to confirm correct employee
-				if (employeeFound(i, name)) {
-					// using addHours method from Employee class to add hours to
-					// associated employee.
-					flag = ((Employee) empList.get(i)).addHours(numHours);
-				}
+		// employee is in employee store
+		if (numHours <= 0) {
+			metrics.rejected(Rejection.INVALID_AMOUNT);
+		} else if (row < 0) {
+			metrics.rejected(Rejection.UNKNOWN_EMPLOYEE);
+		} else {
+			// using addHours method from EmployeeStore class to add hours to
+			// associated employee following the rules of its type.
+			flag = addHoursAt(name, row, numHours);
+			if (flag) {
+				metrics.operation(Operation.HOURS);
+			} else {
+				metrics.rejected(Rejection.HOURS_CAP);
 			}
 		}
 		return flag;
@@ -192,49 +478,168 @@ public class Account {
 	 */
 	public int numHours(String name) {
 		int retVal = -1;
+		int row = rowOf(name);
 
-		// Checks if employee name is valid and if the
-		// employee is in employee list
-		if (isEmployee(name)) {
-			// iterates through each employee to find correct employee
-			for (int i = 0; i < empList.getSize(); i++) {
-				// if block to confirm correct employee
-				if (employeeFound(i, name)) {
-					// assigns the number of hours to retVal by retrieving the
-					// data from the specified employee.
-					retVal = ((Employee) empList.get(i)).empHours;
-				}
-			}
+		// Checks if the employee is in employee store
+		if (row >= 0) {
+			// assigns the number of hours to retVal by retrieving the
+			// data from the specified employee.
+			retVal = hoursAt(name, row);
 		}
 		return retVal;
 	}
 
 	/*
-	 * This method adds a specified sale to a specified employee. It iterates
-	 * through employees in the employee list and upon finding the specified one
-	 * it adds the sale amount as a double to the total sale amount of an
-	 * employee.
+	 * This method adds a specified sale to a specified employee. It looks the
+	 * employee up in the employee index and upon finding the specified one it
+	 * adds the sale amount, rounded to whole cents, to the total sale amount
+	 * of an employee.
 	 */
 	public boolean makeSale(String name, double saleAmt) {
 		boolean flag = false;
+		int row = rowOf(name);
 
-		// makes sure sale amount is not less than 0 and employee exists
-		if (saleAmt > 0 && isEmployee(name)) {
-			// iterates through each employee to find correct employee
-			for (int i = 0; i < empList.getSize(); i++) {
-				// if block to confirm correct employee
-				if (employeeFound(i, name)) {
-					// Uses addSaleAmt method from Employee Class to add the
-					// sale amount to the specified Employee.
-					((Employee) empList.get(i)).addSaleAmt(saleAmt);
-					flag = true;
-				}
-			}
+		// makes sure sale amount is greater than 0 (and no larger than
+		// Money.MAX_AMOUNT) and employee exists
+		if (!(saleAmt > 0) || !Money.isValidAmount(saleAmt)) {
+			metrics.rejected(Rejection.INVALID_AMOUNT);
+		} else if (row < 0 || !addSaleAt(name, row, Money.toCents(saleAmt))) {
+			// addSaleAt (addSaleCents from EmployeeStore) adds the sale
+			// amount unless the employee was terminated in the meantime
+			metrics.rejected(Rejection.UNKNOWN_EMPLOYEE);
+		} else {
+			metrics.operation(Operation.SALE);
+			flag = true;
 		}
 		// returns true if sale amount is added, false if not
 		return flag;
 	}
 
+	/*
+	 * This method is the batch version of makeSale, used when sales come in
+	 * large chunks (e.g. from a point of sale export). names[i] and saleAmts[i]
+	 * make up one event. Each distinct name is looked up once and the sale
+	 * amounts are summed in cents per employee before being added with a
+	 * single addSaleCents call. The returned array holds, for every event,
+	 * the same true/false that makeSale would have returned for it. Returns
+	 * null if either array is null or their lengths differ.
+	 */
+	public boolean[] makeSale(String[] names, double[] saleAmts) {
+		boolean[] results = null;
+
+		if (names != null && saleAmts != null
+				&& names.length == saleAmts.length) {
+			results = new boolean[names.length];
+			makeSale(names, saleAmts, results);
+		}
+		return results;
+	}
+
+	/*
+	 * Does the work of the batch makeSale, storing the result of every event
+	 * in results. If the account throws part way (e.g. its listener rejects
+	 * a sale), results still shows which sales were applied before.
+	 */
+	void makeSale(String[] names, double[] saleAmts, boolean[] results) {
+		int[] groupOf = new int[names.length];
+		int[] groupRow = new int[names.length];
+		int numGroups = groupEvents(names, groupOf, groupRow);
+
+		long[] delta = new long[numGroups];
+		String[] groupName = new String[numGroups];
+		for (int i = 0; i < names.length; i++) {
+			int g = groupOf[i];
+			if (g >= 0 && isSale(saleAmts[i])) {
+				delta[g] += Money.toCents(saleAmts[i]);
+				groupName[g] = names[i];
+			}
+		}
+		// applies the summed sale amount once per employee. Sales that
+		// round to 0 cents are accepted as makeSale accepts them, as long
+		// as the employee is still there, but nothing is written.
+		boolean[] applied = new boolean[numGroups];
+		try {
+			for (int g = 0; g < numGroups; g++) {
+				if (delta[g] != 0) {
+					applied[g] = addSaleAt(groupName[g], groupRow[g],
+							delta[g]);
+				} else if (groupName[g] != null) {
+					applied[g] = saleCentsAt(groupName[g], groupRow[g]) >= 0;
+				}
+			}
+		} finally {
+			for (int i = 0; i < names.length; i++) {
+				int g = groupOf[i];
+				results[i] = g >= 0 && isSale(saleAmts[i]) && applied[g];
+			}
+		}
+		reportBatch(groupOf, results, Operation.SALE,
+				Rejection.INVALID_AMOUNT);
+	}
+
+	// Private helper returning true if makeSale takes the sale amount.
+	private static boolean isSale(double saleAmt) {
+		return saleAmt > 0 && Money.isValidAmount(saleAmt);
+	}
+
+	/*
+	 * This method is the batch version of workHours, used when hours come in
+	 * large chunks (e.g. from a time-clock export). names[i] and hours[i] make
+	 * up one event. Each distinct name is looked up once, the accepted hours
+	 * are summed per employee and then added to that employee in a single
+	 * call. The returned array holds, for every event, the same true/false
+	 * that calling workHours for the events one at a time in order would have
+	 * returned, including a SalariedEmployee refusing hours once it has reached
+	 * 80. Returns null if either array is null or their lengths differ.
+	 */
+	public boolean[] workHours(String[] names, int[] hours) {
+		boolean[] results = null;
+
+		if (names != null && hours != null && names.length == hours.length) {
+			results = new boolean[names.length];
+			workHours(names, hours, results);
+		}
+		return results;
+	}
+
+	/*
+	 * Does the work of the batch workHours, storing the result of every event
+	 * in results. If the account throws part way (e.g. its listener rejects
+	 * the hours of an employee), results still shows which hours were
+	 * applied before.
+	 */
+	void workHours(String[] names, int[] hours, boolean[] results) {
+		int[] groupOf = new int[names.length];
+		int[] groupRow = new int[names.length];
+		int numGroups = groupEvents(names, groupOf, groupRow);
+
+		// Chains the events of each employee together in their original
+		// order: first[g] is the first event of group g and next[i] the
+		// event after event i in the same group (-1 at the end).
+		int[] first = new int[numGroups];
+		int[] next = new int[names.length];
+		Arrays.fill(first, -1);
+		for (int i = names.length - 1; i >= 0; i--) {
+			int g = groupOf[i];
+			if (g >= 0) {
+				next[i] = first[g];
+				first[g] = i;
+			}
+		}
+		for (int g = 0; g < numGroups; g++) {
+			applyHourEvents(names[first[g]], groupRow[g], hours, first[g],
+					next, results);
+		}
+		for (int i = 0; i < names.length; i++) {
+			if (groupOf[i] >= 0 && hours[i] <= 0) {
+				// refused for the amount, not for the 80 hour cap
+				groupOf[i] = -2;
+			}
+		}
+		reportBatch(groupOf, results, Operation.HOURS,
+				Rejection.HOURS_CAP);
+	}
+
 	/*
 	 * This method returns -1.0 if the name specified is invalid or the employee
 	 * does not exist. Otherwise, the retValue is set to the total amount of
@@ -242,101 +647,477 @@ public class Account {
 	 */
 	public double amtSalesMade(String name) {
 		double retVal = -1.0;
+		int row = rowOf(name);
 
 		// makes sure that the employee name exists.
-		if (isEmployee(name)) {
-			// iterates through each employee to find correct employee
-			for (int i = 0; i < empList.getSize(); i++) {
-				// if block to confirm correct employee
-				if (employeeFound(i, name)) {
-					retVal = ((Employee) empList.get(i)).empSaleAmt;
-				}
-			}
+		long cents = row >= 0 ? saleCentsAt(name, row) : -1;
+		if (cents >= 0) {
+			retVal = Money.toDouble(cents);
 		}
 		return retVal;
 	}
 
 	/*
 	 * This method returns the pay that an employee is entitled to on the basis
-	 * of whether they are salaried or commissioned. The totalPay method is
-	 * called from the Employee class. -1.0 is returned if an invalid name is
-	 * passed as an argument.
+	 * of whether they are salaried, hourly or commissioned, following the pay
+	 * plan of the account for that type. The totalPayCents method
+	 * is called from the EmployeeStore class. -1.0 is returned if an invalid
+	 * name is passed as an argument.
 	 */
 	public double getPayAmount(String name) {
 		double retVal = -1.0;
+		int row = rowOf(name);
 
 		// makes sure that the employee name exists.
-		if (isEmployee(name)) {
-			// iterates through each employee to find correct employee
-			for (int i = 0; i < empList.getSize(); i++) {
-				// if block to confirm correct employee
-				if (employeeFound(i, name)) {
-					retVal = ((Employee) empList.get(i)).totalPay();
-				}
-			}
+		long cents = row >= 0 ? payCentsAt(name, row) : -1;
+		if (cents >= 0) {
+			retVal = Money.toDouble(cents);
 		}
 		return retVal;
 	}
 
 	/*
 	 * This method returns the total amount to be paid by the company to all of
-	 * its employees. The totalPay method from the Employee class is called and
-	 * incremented to a totalAmt double which is returned at the end.
+	 * its employees. The EmployeeStore keeps this as a running total that is
+	 * updated on every hire, sale and new pay period, so no loop over the
+	 * employees is needed.
 	 */
 	public double getPayroll() {
-		double totalAmt = 0.0;
-		// iterates through each employee
-		for (int i = 0; i < empList.getSize(); i++) {
-			// totalAmt incrementing by each Employee's amount to be paid.
-			totalAmt += ((Employee) empList.get(i)).totalPay();
-		}
+		return Money.toDouble(getPayrollCents());
+	}
+
+	/*
+	 * This method returns the same total as getPayroll as an exact number of
+	 * cents.
+	 */
+	public long getPayrollCents() {
+		long start = metrics.startTimer();
+		long totalAmt = empStore.payrollCents();
+		metrics.timed(Timer.GET_PAYROLL, start);
 		return totalAmt;
 	}
 
+	/*
+	 * This method is the verification mode for the running payroll total. It
+	 * recomputes the payroll by going through every employee (in parallel for
+	 * large accounts, see PayrollEngine) and returns the drift, i.e. the
+	 * running total minus the recomputed total. As both are exact sums of
+	 * cents, any result other than 0.0 means the running total is wrong.
+	 */
+	public double verifyPayroll() {
+		long start = metrics.startTimer();
+		long drift = empStore.payrollCents()
+				- empStore.recomputePayrollCents();
+		metrics.timed(Timer.VERIFY_PAYROLL, start);
+		return Money.toDouble(drift);
+	}
+
 	/*
 	 * This method resets the Pay period i.e it resets the employee hours and
-	 * employee sale amounts to 0.
+	 * employee sale amounts to 0. If history is enabled, the period being
+	 * closed is archived first.
 	 */
 	public void newPayPeriod() {
-		// iterates through each employee
-		for (int i = 0; i < empList.getSize(); i++) {
-			((Employee) empList.get(i)).empHours = 0;
-			((Employee) empList.get(i)).empSaleAmt = 0;
+		long start = metrics.startTimer();
+		if (listener != null) {
+			listener.payPeriodStarted();
+		}
+		if (history != null) {
+			history.closePeriod(empStore);
 		}
+		empStore.resetPayPeriod();
+		if (index != null) {
+			index.invalidate();
+		}
+		metrics.operation(Operation.NEW_PAY_PERIOD);
+		metrics.timed(Timer.NEW_PAY_PERIOD, start);
 	}
 
 	/*
 	 * This method returns the amount owed by a company for the usage of this
 	 * payroll software. If a company has a free account the method returns 0.0
 	 * otherwise the method returns 10* number of employees the company has
-	 * registered in the system.
+	 * registered in the system (terminated employees are not billed).
 	 */
 	public double billAmount() {
 		double amtDue = 0.0;
 
 		if (!empLimit) {
-			for (int i = 0; i < empList.getSize(); i++) {
-				amtDue += 10.0;
-			}
+			amtDue = 10.0 * numEmployees();
 		}
 		return amtDue;
 	}
 
 	/*
-	 * Private method to check if the current element in a for loop iterating
-	 * through each element in the Employee array is the right one as in the
-	 * method's parameter. Used as a helper method for many classes using a for
-	 * loop to iterate through the employees. Prevents code repetition
+	 * Sets the listener told about every change made to the account from now
+	 * on, replacing any previous one. null removes the listener. It should be
+	 * set before the account is shared between threads. A PayrollJournal is
+	 * not a listener set here: it is attached by PayrollJournal.recover()
+	 * and keeps being told about every change whatever listener is set.
 	 */
-	private boolean employeeFound(int i, String name) {
-		boolean flag = false;
+	public void setListener(AccountListener listener) {
+		userListener = listener;
+		updateListener();
+	}
 
-		// Checking if current element (using i from for loop) is same as
-		// name returned from empExistCheck method in Employee class.
-		// Returns true if yes, else false.
-		if (((Employee) empList.get(i)).empExistCheck(name)) {
-			flag = true;
+	/*
+	 * Attaches the journal told about every change once the listener set
+	 * with setListener() has accepted it, and before the change stream is
+	 * (null detaches it), so that a change rejected by the listener is not
+	 * journaled. Used by PayrollJournal.recover().
+	 */
+	void setJournal(AccountListener journal) {
+		this.journal = journal;
+		updateListener();
+	}
+
+	// Returns the journal attached to the account, or null.
+	AccountListener getJournal() {
+		return journal;
+	}
+
+	// Returns the listener of the account, or null if it has none.
+	public AccountListener getListener() {
+		return userListener;
+	}
+
+	/*
+	 * Turns on the change stream of the account (see ChangeStream), which
+	 * from now on passes every change made to the account on to the
+	 * handlers subscribed to it, and returns it. capacity is the number of
+	 * changes the stream holds (a power of 2), overflow what is done when
+	 * the slowest handler is that far behind, and waitStrategy how threads
+	 * wait for changes or room. Calling it again returns the stream already
+	 * on, whatever the arguments.
+	 */
+	public ChangeStream enableChangeStream() {
+		return enableChangeStream(ChangeStream.DEFAULT_CAPACITY,
+				ChangeStream.Overflow.BLOCK, ChangeStream.WaitStrategy.YIELD);
+	}
+
+	public ChangeStream enableChangeStream(int capacity,
+			ChangeStream.Overflow overflow,
+			ChangeStream.WaitStrategy waitStrategy) {
+		final ChangeStream stream = new ChangeStream(capacity, overflow,
+				waitStrategy);
+		runExclusive(new Runnable() {
+			public void run() {
+				if (changes == null) {
+					changes = stream;
+					updateListener();
+				}
+			}
+		});
+		return changes;
+	}
+
+	// Returns the change stream of the account, or null if it is off.
+	public ChangeStream getChangeStream() {
+		return changes;
+	}
+
+	// Private helper recomputing listener from the listener set with
+	// setListener(), the journal and the change stream.
+	private void updateListener() {
+		listener = both(userListener, both(journal, changes));
+	}
+
+	/*
+	 * Private helper returning a listener passing every change on to first
+	 * and then to second, either of which may be null.
+	 */
+	private static AccountListener both(final AccountListener first,
+			final AccountListener second) {
+		AccountListener retVal;
+		if (first == null) {
+			retVal = second;
+		} else if (second == null) {
+			retVal = first;
+		} else {
+			retVal = new AccountListener() {
+				public void employeeHired(String name, byte type,
+						long salaryCents, double rate) {
+					first.employeeHired(name, type, salaryCents, rate);
+					second.employeeHired(name, type, salaryCents, rate);
+				}
+
+				public void hoursWorked(String name, int hours) {
+					first.hoursWorked(name, hours);
+					second.hoursWorked(name, hours);
+				}
+
+				public void saleMade(String name, long saleCents) {
+					first.saleMade(name, saleCents);
+					second.saleMade(name, saleCents);
+				}
+
+				public void employeeTerminated(String name) {
+					first.employeeTerminated(name);
+					second.employeeTerminated(name);
+				}
+
+				public void payPeriodStarted() {
+					first.payPeriodStarted();
+					second.payPeriodStarted();
+				}
+			};
+		}
+		return retVal;
+	}
+
+	/*
+	 * Turns on the pay period history of the account (see PayrollHistory),
+	 * so that from now on newPayPeriod() archives the period it closes, and
+	 * returns it. Calling it again returns the same history.
+	 */
+	public PayrollHistory enableHistory() {
+		final Account acc = this;
+		runExclusive(new Runnable() {
+			public void run() {
+				if (history == null) {
+					history = new PayrollHistory(acc);
+				}
+			}
+		});
+		return history;
+	}
+
+	/*
+	 * Sets where the account reports its operations, refusals and timings
+	 * (e.g. a RecordingMetrics); null goes back to PayrollMetrics.NONE, which
+	 * records nothing. It should be set before the account is shared between
+	 * threads.
+	 */
+	public void setMetrics(PayrollMetrics metrics) {
+		if (metrics == null) {
+			metrics = PayrollMetrics.NONE;
+		}
+		this.metrics = metrics;
+	}
+
+	// Returns where the account reports its metrics.
+	public PayrollMetrics getMetrics() {
+		return metrics;
+	}
+
+	/*
+	 * Sets how the employees of one type are paid from now on, replacing the
+	 * account's plan for the type the plan is for (see PayPlan). The plan is
+	 * compiled once here and the payroll of the current period is worked out
+	 * again under the new plan, while no other thread can change the account.
+	 * Pay plans are settings of the account like its listener and metrics:
+	 * snapshots and the journal do not record them, so they are set again
+	 * after an account is loaded.
+	 */
+	public void setPayPlan(final PayPlan plan) {
+		if (plan == null) {
+			throw new IllegalArgumentException("no pay plan");
+		}
+		runExclusive(new Runnable() {
+			public void run() {
+				empStore.setPayPlan(plan);
+				if (index != null) {
+					index.invalidate();
+				}
+			}
+		});
+	}
+
+	// Returns the pay plan of the given employee type (an EmployeeStore type
+	// tag), or null if there is no such type.
+	public PayPlan getPayPlan(byte type) {
+		return empStore.getPayPlan(type);
+	}
+
+	/*
+	 * Turns on the secondary indexes of the account (see EmployeeIndex), so
+	 * that top earner, range and hour cap queries no longer go through every
+	 * employee, and returns them. The index is built from the current
+	 * employees by the first query and kept up to date from then on. Calling
+	 * it again returns the same index.
+	 */
+	public EmployeeIndex enableIndex() {
+		final Account acc = this;
+		runExclusive(new Runnable() {
+			public void run() {
+				if (index == null) {
+					index = new EmployeeIndex(acc);
+				}
+			}
+		});
+		return index;
+	}
+
+	// Returns the secondary indexes of the account, or null if they are off.
+	public EmployeeIndex getIndex() {
+		return index;
+	}
+
+	// Returns the pay period history of the account, or null if it is off.
+	public PayrollHistory getHistory() {
+		return history;
+	}
+
+	/*
+	 * Returns true if this is a limited (free) account.
+	 */
+	boolean isLimited() {
+		return empLimit;
+	}
+
+	/*
+	 * Runs the given action while no other thread can change the account, so
+	 * it sees every employee as of one point in time. A plain Account is not
+	 * used by several threads, so the action is simply run; ConcurrentAccount
+	 * overrides this to hold all of its locks. Used by AccountSnapshot.
+	 */
+	void runExclusive(Runnable action) {
+		action.run();
+	}
+
+	/*
+	 * Helper for the batch workHours method, applying the chain of events
+	 * (starting at event first and following next) that belong to the
+	 * employee in the given row. running holds the hours the employee would
+	 * have after the events accepted so far, so the 80 hour check sees the
+	 * same value it would have seen with one call per event. The accepted
+	 * hours are then added in one call and results is filled in for each
+	 * event of the chain.
+	 */
+	void applyHourEvents(String name, int row, int[] hours, int first,
+			int[] next, boolean[] results) {
+		int before = empStore.getHours(row);
+		int running = before;
+		for (int i = first; i >= 0; i = next[i]) {
+			if (hours[i] > 0 && empStore.canAddHours(row, running)) {
+				running += hours[i];
+			}
+		}
+		// applies the summed hours once for the employee
+		int delta = running - before;
+		if (delta > 0) {
+			if (listener != null) {
+				listener.hoursWorked(name, delta);
+			}
+			empStore.addHours(row, delta);
+			if (index != null) {
+				index.rowChanged(row);
+			}
+		}
+		// the events are marked once their hours are applied, going over
+		// them again as above
+		running = before;
+		for (int i = first; i >= 0; i = next[i]) {
+			if (hours[i] > 0 && empStore.canAddHours(row, running)) {
+				running += hours[i];
+				results[i] = true;
+			}
+		}
+	}
+
+	/*
+	 * Row level helpers through which every method of this class reads or
+	 * changes a single employee (name, found in row) in the employee store.
+	 * They only pass the call on to empStore (and tell the index and the
+	 * listener about changes); ConcurrentAccount overrides them to hold the
+	 * lock for the row while doing so. As in hire() and remove(), the
+	 * listener is told before the store is changed, so a listener that
+	 * throws (e.g. a closed PayrollJournal) rejects the change rather than
+	 * leaving it made but not journaled. addSaleAt() returns false, and the
+	 * readers -1, if the employee has been terminated since it was looked
+	 * up, which only ConcurrentAccount can see.
+	 */
+	boolean addHoursAt(String name, int row, int numHours) {
+		boolean flag = empStore.canAddHours(row, empStore.getHours(row));
+		if (flag) {
+			if (listener != null) {
+				listener.hoursWorked(name, numHours);
+			}
+			empStore.addHours(row, numHours);
+			if (index != null) {
+				index.rowChanged(row);
+			}
 		}
 		return flag;
 	}
+
+	boolean addSaleAt(String name, int row, long saleCents) {
+		if (listener != null) {
+			listener.saleMade(name, saleCents);
+		}
+		empStore.addSaleCents(row, saleCents);
+		if (index != null) {
+			index.rowChanged(row);
+		}
+		return true;
+	}
+
+	int hoursAt(String name, int row) {
+		return empStore.getHours(row);
+	}
+
+	long saleCentsAt(String name, int row) {
+		return empStore.getSaleCents(row);
+	}
+
+	long payCentsAt(String name, int row) {
+		return empStore.totalPayCents(row);
+	}
+
+	/*
+	 * Private helper looking an employee up in empStore, counting the lookup.
+	 */
+	private int rowOf(String name) {
+		metrics.operation(Operation.LOOKUP);
+		return empStore.find(name);
+	}
+
+	/*
+	 * Private helper reporting the events of a batch to the metrics: events
+	 * whose group is -1 (no such employee) or -2 (not a positive amount) were
+	 * refused for that reason, and of the others the accepted ones count as
+	 * the operation and the refused ones as refused for the given reason.
+	 */
+	private void reportBatch(int[] groupOf, boolean[] results,
+			Operation operation, Rejection refused) {
+		for (int i = 0; i < results.length; i++) {
+			if (results[i]) {
+				metrics.operation(operation);
+			} else if (groupOf[i] == -1) {
+				metrics.rejected(Rejection.UNKNOWN_EMPLOYEE);
+			} else if (groupOf[i] == -2) {
+				metrics.rejected(Rejection.INVALID_AMOUNT);
+			} else {
+				metrics.rejected(refused);
+			}
+		}
+	}
+
+	/*
+	 * Private helper for the batch methods. Gives every distinct employee name
+	 * in names a group number (in order of first appearance), stores it in
+	 * groupOf for each event and stores the matching store row in groupRow.
+	 * Each distinct name is only looked up in empStore once. Events for names
+	 * that are not employees get the group -1. Returns the number of groups.
+	 */
+	private int groupEvents(String[] names, int[] groupOf, int[] groupRow) {
+		HashMap<String, Integer> groups = new HashMap<String, Integer>();
+		int numGroups = 0;
+
+		for (int i = 0; i < names.length; i++) {
+			Integer group = groups.get(names[i]);
+			if (group == null) {
+				int row = rowOf(names[i]);
+				if (row >= 0) {
+					groupRow[numGroups] = row;
+					group = numGroups++;
+				} else {
+					group = -1;
+				}
+				groups.put(names[i], group);
+			}
+			groupOf[i] = group;
+		}
+		return numGroups;
+	}
 }
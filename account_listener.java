@@ -0,0 +1,48 @@
+package businessOffice;
+
+/*
+ * The AccountListener interface is told about every change made to an
+ * Account: an employee being hired or terminated, hours or a sale being
+ * added and a new pay period being started. Only changes the account has
+ * accepted are passed on, with the amounts it applies (in cents for money),
+ * so calling the same changes on another account in the same order gives
+ * the same state. A listener is told just before the change is applied, so
+ * a listener that throws rejects the change. The listener of an account is
+ * set with Account.setListener().
+ *
+ * The methods are called while the account holds the locks guarding the
+ * change (see ConcurrentAccount), so the order in which a listener sees the
+ * changes of one employee, and a new pay period against every other change,
+ * is the order in which they were applied. Listeners should therefore be
+ * quick and must not call back into the account.
+ */
+public interface AccountListener {
+	/*
+	 * Called when an employee is hired, with the type tag (see EmployeeStore),
+	 * the yearly salary in cents of a salaried employee and the commission
+	 * rate of a commissioned employee.
+	 */
+	void employeeHired(String name, byte type, long salaryCents, double rate);
+
+	/*
+	 * Called when hours are added to an employee. A batch of hours for one
+	 * employee may be passed on as a single call with their sum.
+	 */
+	void hoursWorked(String name, int hours);
+
+	/*
+	 * Called when a sale (in cents) is made by an employee. A batch of sales
+	 * for one employee may be passed on as a single call with their sum.
+	 */
+	void saleMade(String name, long saleCents);
+
+	/*
+	 * Called when an employee is terminated.
+	 */
+	void employeeTerminated(String name);
+
+	/*
+	 * Called when a new pay period is started.
+	 */
+	void payPeriodStarted();
+}
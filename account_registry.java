@@ -0,0 +1,199 @@
+package businessOffice;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*
+ * The AccountRegistry class keeps track of every account (tenant) by its
+ * name. The accounts are spread over a fixed number of shards, each a
+ * ConcurrentHashMap, using the hash of the account name. Threads working on
+ * different shards never touch the same map, so the registry can be used by
+ * many threads without a global lock, and work over all tenants can be split
+ * by shard: each worker thread takes whole shards. Names are unique over the
+ * whole registry, since a name always maps to the same shard. The cross-tenant
+ * operations (totalBillAmount and newPayPeriodForAll) run one task per shard
+ * on a ForkJoinPool, so accounts that other threads use at the same time
+ * should be ConcurrentAccount objects.
+ */
+public class AccountRegistry {
+	private final ConcurrentHashMap<String, Account>[] shards;
+	private final ForkJoinPool pool;
+
+	/*
+	 * If the registry is constructed without any argument, it gets 4 shards
+	 * per available processor (rounded up to a power of 2) and uses the
+	 * common ForkJoinPool.
+	 */
+	public AccountRegistry() {
+		this(4 * Runtime.getRuntime().availableProcessors(),
+				ForkJoinPool.commonPool());
+	}
+
+	/*
+	 * Creates a registry with at least the given number of shards (rounded up
+	 * to a power of 2, and at least 1) that runs cross-tenant operations on
+	 * the given pool.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public AccountRegistry(int numShards, ForkJoinPool pool) {
+		int count = 1;
+		while (count < numShards && count < (1 << 16)) {
+			count <<= 1;
+		}
+		shards = new ConcurrentHashMap[count];
+		for (int i = 0; i < count; i++) {
+			shards[i] = new ConcurrentHashMap<String, Account>();
+		}
+		this.pool = pool;
+	}
+
+	/*
+	 * Adds an account to the registry under its account name. Returns false
+	 * (and leaves the registry unchanged) if the account is null or an
+	 * account with the same name is already registered.
+	 */
+	public boolean register(Account account) {
+		boolean flag = false;
+		if (account != null) {
+			String name = account.getAccountName();
+			flag = shards[shardOf(name)].putIfAbsent(name, account) == null;
+		}
+		return flag;
+	}
+
+	/*
+	 * Returns the account registered under the given name, or null if there
+	 * is none.
+	 */
+	public Account find(String name) {
+		Account account = null;
+		if (name != null) {
+			account = shards[shardOf(name)].get(name);
+		}
+		return account;
+	}
+
+	/*
+	 * Removes the account registered under the given name and returns it, or
+	 * returns null if there is none.
+	 */
+	public Account remove(String name) {
+		Account account = null;
+		if (name != null) {
+			account = shards[shardOf(name)].remove(name);
+		}
+		return account;
+	}
+
+	/*
+	 * Returns the number of accounts registered.
+	 */
+	public int size() {
+		int count = 0;
+		for (ConcurrentHashMap<String, Account> shard : shards) {
+			count += shard.size();
+		}
+		return count;
+	}
+
+	/*
+	 * Returns the number of shards.
+	 */
+	public int numShards() {
+		return shards.length;
+	}
+
+	/*
+	 * Returns the shard an account name belongs to. The hash is spread so
+	 * that names differing only in their last characters still end up in
+	 * different shards.
+	 */
+	public int shardOf(String name) {
+		int h = name.hashCode();
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h & (shards.length - 1);
+	}
+
+	/*
+	 * Returns a read-only live view of the accounts of one shard, used to
+	 * iterate over a shard (e.g. by the worker thread that owns it).
+	 */
+	public Collection<Account> shard(int shard) {
+		return Collections.unmodifiableCollection(shards[shard].values());
+	}
+
+	/*
+	 * Returns the total amount owed by all accounts for the usage of the
+	 * software. Free accounts owe 0.0, so this is the total over the paid
+	 * accounts. Each shard is added up by its own task.
+	 */
+	public double totalBillAmount() {
+		List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+		for (final ConcurrentHashMap<String, Account> shard : shards) {
+			tasks.add(new Callable<Double>() {
+				public Double call() {
+					double amtDue = 0.0;
+					for (Account account : shard.values()) {
+						amtDue += account.billAmount();
+					}
+					return amtDue;
+				}
+			});
+		}
+
+		double totalAmt = 0.0;
+		for (Future<Double> result : pool.invokeAll(tasks)) {
+			totalAmt += join(result);
+		}
+		return totalAmt;
+	}
+
+	/*
+	 * Starts a new pay period for every registered account, one task per
+	 * shard.
+	 */
+	public void newPayPeriodForAll() {
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final ConcurrentHashMap<String, Account> shard : shards) {
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					for (Account account : shard.values()) {
+						account.newPayPeriod();
+					}
+					return null;
+				}
+			});
+		}
+		for (Future<Void> result : pool.invokeAll(tasks)) {
+			join(result);
+		}
+	}
+
+	/*
+	 * Private helper waiting for a task and returning its result. An exception
+	 * thrown by the task is thrown again here.
+	 */
+	private static <T> T join(Future<T> result) {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+}
@@ -0,0 +1,333 @@
+package businessOffice;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * The AccountSnapshot class saves the state of an Account (its name, whether
+ * it is limited, and every employee with its type, hours, sales, salary and
+ * commission rate) to a compact binary file and loads it back. The file is
+ * laid out the same way as the columns of EmployeeStore, so both writing and
+ * reading are bulk copies between the columns and a MappedByteBuffer with no
+ * parsing of single fields. All numbers are little-endian.
+ *
+ * Layout of version 1 (every section starts at a multiple of 8 bytes):
+ *
+ *   header    int magic ("PAYS"), int version, int flags (bit 0: limited,
+ *             bit 1: concurrent, bit 2: off-heap store), int employee
+ *             limit, int number of rows,
+ *             int length of the account name, the account name in UTF-8
+ *   names     int offsets[rows + 1] into the name bytes, then the UTF-8
+ *             bytes of every employee name one after the other
+ *   types     byte per row (EmployeeStore type tags)
+ *   hours     int per row
+ *   sales     long per row (cents)
+ *   salaries  long per row (cents)
+ *   rates     double per row
+ *
+ * A snapshot is first written to a temporary file in the same directory,
+ * forced to disk and then renamed over the target in one step, so the target
+ * always holds either the old or the new snapshot and never half of one.
+ * The directory is forced to disk after the rename, so the new snapshot
+ * has replaced the old one for good once write() returns. A snapshot
+ * cannot be larger than 2GB (the largest MappedByteBuffer). The class
+ * cannot be instantiated.
+ */
+public final class AccountSnapshot {
+	// "PAYS" in ASCII.
+	public static final int MAGIC = 0x50415953;
+	public static final int VERSION = 1;
+
+	private static final int LIMITED = 1;
+	private static final int CONCURRENT = 2;
+	private static final int OFF_HEAP = 4;
+
+	// Size in bytes of the fixed part of the header.
+	private static final int HEADER_SIZE = 24;
+
+	private AccountSnapshot() {
+	}
+
+	/*
+	 * Writes a snapshot of the account to the given file, replacing it if it
+	 * exists. The columns are copied while the account is held still (see
+	 * Account.runExclusive()), so the snapshot shows every employee as of one
+	 * point in time even for a ConcurrentAccount in use by other threads.
+	 * Terminated employees are left out.
+	 */
+	public static void write(Account account, Path file) throws IOException {
+		write(account, file, null);
+	}
+
+	/*
+	 * Writes a snapshot as above, also running atCopy (if not null) while the
+	 * account is held still, right after the columns are copied. Used by
+	 * PayrollJournal to start a new journal segment at the exact point the
+	 * snapshot shows.
+	 */
+	static void write(Account account, Path file, final Runnable atCopy)
+			throws IOException {
+		final Account acc = account;
+		final Object[] columns = new Object[6];
+		acc.runExclusive(new Runnable() {
+			public void run() {
+				EmployeeStore store = acc.empStore;
+				int size = store.size();
+				columns[0] = Arrays.copyOf(store.namesColumn(), size);
+				columns[1] = Arrays.copyOf(store.typesColumn(), size);
+				columns[2] = store.hoursColumn();
+				columns[3] = store.salesColumn();
+				columns[4] = Arrays.copyOf(store.salariesColumn(), size);
+				columns[5] = Arrays.copyOf(store.ratesColumn(), size);
+				if (atCopy != null) {
+					atCopy.run();
+				}
+			}
+		});
+		String[] names = (String[]) columns[0];
+		byte[] types = (byte[]) columns[1];
+		int[] hours = (int[]) columns[2];
+		long[] sales = (long[]) columns[3];
+		long[] salaries = (long[]) columns[4];
+		double[] rates = (double[]) columns[5];
+
+		// tombstones of terminated employees (rows with no name) are left
+		// out, moving the rows after them down
+		int count = 0;
+		for (int i = 0; i < names.length; i++) {
+			if (names[i] != null) {
+				names[count] = names[i];
+				types[count] = types[i];
+				hours[count] = hours[i];
+				sales[count] = sales[i];
+				salaries[count] = salaries[i];
+				rates[count] = rates[i];
+				count++;
+			}
+		}
+
+		// the names are encoded first as their total length is needed for the
+		// size of the file
+		byte[] accName = account.getAccountName()
+				.getBytes(StandardCharsets.UTF_8);
+		byte[][] encoded = new byte[count][];
+		int[] offsets = new int[count + 1];
+		long nameBytes = 0;
+		for (int i = 0; i < count; i++) {
+			encoded[i] = names[i].getBytes(StandardCharsets.UTF_8);
+			nameBytes += encoded[i].length;
+			if (nameBytes > Integer.MAX_VALUE) {
+				throw new IOException("snapshot larger than 2GB");
+			}
+			offsets[i + 1] = (int) nameBytes;
+		}
+
+		long fileSize = align(HEADER_SIZE + accName.length)
+				+ align(4L * (count + 1)) + align(nameBytes) + align(count)
+				+ align(4L * count) + 3 * 8L * count;
+		if (fileSize > Integer.MAX_VALUE) {
+			throw new IOException("snapshot larger than 2GB");
+		}
+
+		int flags = 0;
+		int maxEmployees = 0;
+		if (account.isLimited()) {
+			flags |= LIMITED;
+			maxEmployees = account.employeeLimit();
+		}
+		if (account instanceof ConcurrentAccount) {
+			flags |= CONCURRENT;
+		}
+		if (account.empStore instanceof OffHeapEmployeeStore) {
+			flags |= OFF_HEAP;
+		}
+
+		Path target = file.toAbsolutePath();
+		Path temp = Files.createTempFile(target.getParent(),
+				target.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp,
+					StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				MappedByteBuffer buf = channel
+						.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+				buf.order(ByteOrder.LITTLE_ENDIAN);
+				buf.putInt(MAGIC).putInt(VERSION).putInt(flags)
+						.putInt(maxEmployees).putInt(count)
+						.putInt(accName.length).put(accName);
+				pad(buf);
+				buf.asIntBuffer().put(offsets);
+				buf.position(buf.position() + 4 * (count + 1));
+				pad(buf);
+				for (byte[] name : encoded) {
+					buf.put(name);
+				}
+				pad(buf);
+				buf.put(types, 0, count);
+				pad(buf);
+				buf.asIntBuffer().put(hours, 0, count);
+				buf.position(buf.position() + 4 * count);
+				pad(buf);
+				buf.asLongBuffer().put(sales, 0, count);
+				buf.position(buf.position() + 8 * count);
+				buf.asLongBuffer().put(salaries, 0, count);
+				buf.position(buf.position() + 8 * count);
+				buf.asDoubleBuffer().put(rates, 0, count);
+				buf.force();
+			}
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			forceDirectory(target.getParent());
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/*
+	 * Reads a snapshot written by write() and returns a new account holding
+	 * the same employees, a ConcurrentAccount if the snapshot was taken of
+	 * one and with an OffHeapEmployeeStore if the account had one. Throws an
+	 * IOException if the file is not a snapshot, was written by an
+	 * unsupported version or is cut short.
+	 */
+	public static Account read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			if (fileSize < HEADER_SIZE || fileSize > Integer.MAX_VALUE) {
+				throw new IOException("not an account snapshot: " + file);
+			}
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, fileSize);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			return read(buf, file);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException
+				| IllegalArgumentException e) {
+			throw new IOException("truncated account snapshot: " + file, e);
+		}
+	}
+
+	/*
+	 * Private helper reading the sections of a snapshot from the buffer.
+	 */
+	private static Account read(MappedByteBuffer buf, Path file)
+			throws IOException {
+		if (buf.getInt() != MAGIC) {
+			throw new IOException("not an account snapshot: " + file);
+		}
+		int version = buf.getInt();
+		if (version != VERSION) {
+			throw new IOException("unsupported account snapshot version "
+					+ version + ": " + file);
+		}
+		int flags = buf.getInt();
+		int maxEmployees = buf.getInt();
+		int count = buf.getInt();
+		int nameLength = buf.getInt();
+		// every row takes at least 24 bytes, which stops a corrupt count from
+		// allocating huge columns
+		if (count < 0 || count > buf.remaining() / 24 || nameLength < 0) {
+			throw new IOException("corrupt account snapshot: " + file);
+		}
+		byte[] accName = new byte[nameLength];
+		buf.get(accName);
+		skipPad(buf);
+
+		int[] offsets = new int[count + 1];
+		buf.asIntBuffer().get(offsets);
+		buf.position(buf.position() + 4 * (count + 1));
+		skipPad(buf);
+		byte[] nameBytes = new byte[offsets[count]];
+		buf.get(nameBytes);
+		skipPad(buf);
+
+		// the columns get room for at least one row, as a new store would
+		int capacity = Math.max(count, 1);
+		String[] names = new String[capacity];
+		for (int i = 0; i < count; i++) {
+			names[i] = new String(nameBytes, offsets[i],
+					offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+		}
+		byte[] types = new byte[capacity];
+		buf.get(types, 0, count);
+		for (int i = 0; i < count; i++) {
+			if (!EmployeeStore.isType(types[i])) {
+				throw new IOException("corrupt account snapshot: " + file);
+			}
+		}
+		skipPad(buf);
+		int[] hours = new int[capacity];
+		buf.asIntBuffer().get(hours, 0, count);
+		buf.position(buf.position() + 4 * count);
+		skipPad(buf);
+		long[] sales = new long[capacity];
+		buf.asLongBuffer().get(sales, 0, count);
+		buf.position(buf.position() + 8 * count);
+		long[] salaries = new long[capacity];
+		buf.asLongBuffer().get(salaries, 0, count);
+		buf.position(buf.position() + 8 * count);
+		double[] rates = new double[capacity];
+		buf.asDoubleBuffer().get(rates, 0, count);
+
+		String name = new String(accName, StandardCharsets.UTF_8);
+		boolean limited = (flags & LIMITED) != 0;
+		boolean concurrent = (flags & CONCURRENT) != 0;
+		Account account;
+		if (concurrent && limited) {
+			account = new ConcurrentAccount(name, true, maxEmployees);
+		} else if (concurrent) {
+			account = new ConcurrentAccount(name);
+		} else if (limited) {
+			account = new Account(name, true, maxEmployees);
+		} else {
+			account = new Account(name);
+		}
+		if ((flags & OFF_HEAP) != 0) {
+			account.empStore = new OffHeapEmployeeStore(names, types, hours,
+					sales, salaries, rates, count);
+		} else {
+			account.empStore = new EmployeeStore(names, types, hours, sales,
+					salaries, rates, count, concurrent);
+		}
+		return account;
+	}
+
+	/*
+	 * Forces the entries of a directory (files created, renamed or deleted
+	 * in it) to disk, as forcing the files themselves does not. Also used
+	 * by PayrollJournal.
+	 */
+	static void forceDirectory(Path dir) throws IOException {
+		try (FileChannel channel = FileChannel.open(dir,
+				StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+	}
+
+	/*
+	 * Private helpers rounding a size up to a multiple of 8 and moving the
+	 * position of a buffer to the next multiple of 8, writing zeros or
+	 * skipping them.
+	 */
+	private static long align(long size) {
+		return (size + 7) & ~7L;
+	}
+
+	private static void pad(MappedByteBuffer buf) {
+		while ((buf.position() & 7) != 0) {
+			buf.put((byte) 0);
+		}
+	}
+
+	private static void skipPad(MappedByteBuffer buf) {
+		buf.position((int) align(buf.position()));
+	}
+}
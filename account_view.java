@@ -0,0 +1,458 @@
+package businessOffice;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * The AccountView class is a read-only view of an account as of the moment it
+ * was opened (with Account.openView()). Every read through a view shows the
+ * employees, hours, sales and pay of that moment, however the account has
+ * changed since, so a long report sees one consistent payroll while hires,
+ * sales and hours keep going into the account. Views are numbered in the
+ * order they are opened (getVersion()).
+ *
+ * Opening a view copies nothing: the view keeps the size of the store, the
+ * pay period, the payroll total, the number of employees and the pay
+ * formulas of the moment, and reads the rows from the store itself. Before a
+ * row is changed in place or terminated, the store hands it to the newest
+ * open view (see EmployeeStore.beforeWrite()), which then copies the chunk of
+ * CHUNK_ROWS rows holding it, unless it already has. The rows of a chunk are
+ * therefore copied at most once per view, by the first change to any of them
+ * after the view was opened, and only the chunks that do change are ever
+ * copied. Rows hired after the view was opened lie past its size and are
+ * not part of it.
+ *
+ * An older view reads a chunk from its own copies, else from the copies of
+ * the views opened after it (a chunk not copied by a view did not change
+ * between that view and the next one), else from the store. The copy and the
+ * read of a chunk that no view has copied are done while holding the lock of
+ * the chunk, which every view of the store shares, so a row is never read
+ * halfway through being changed. Writers only ever wait for the copy of one
+ * chunk, never for a reader going through the whole account. The hours and
+ * sales are copied with the pay period they were written in, as views of
+ * different pay periods may share a copy; see EmployeeStore.hoursIn().
+ * Employees terminated after the view was opened are kept by name in the
+ * view their row was copied by, so the view still finds them.
+ *
+ * A view should be closed once it is read, with close() (e.g. in a try with
+ * resources statement). Closing a view hands the copies the view before it
+ * lacks over to it and lets the garbage collector have the rest, so only
+ * the views still open hold on to old versions of the rows. Compaction of
+ * the tombstones of terminated employees waits until no view is open, as it
+ * moves rows. A view is read by several threads as safely as by one.
+ */
+public final class AccountView implements AutoCloseable {
+	// Rows are copied a chunk of CHUNK_ROWS at a time.
+	static final int CHUNK_SHIFT = 6;
+	static final int CHUNK_ROWS = 1 << CHUNK_SHIFT;
+
+	private final Account account;
+	private final EmployeeStore store;
+	private final long version;
+
+	// The account as of the moment the view was opened.
+	private final int size;
+	private final int period;
+	private final int numEmployees;
+	private final long payrollCents;
+	private final PayPlan[] plans = new PayPlan[EmployeeStore.TYPE_SLOTS];
+	private final PayPlan.Formula[] formulas =
+			new PayPlan.Formula[EmployeeStore.TYPE_SLOTS];
+
+	// Chunks this view copied as the newest view, indexed by chunk, and the
+	// employees terminated meanwhile, from name to row.
+	private final AtomicReferenceArray<Chunk> chunks;
+	private final Map<String, Integer> removed =
+			new ConcurrentHashMap<String, Integer>();
+
+	// Locks of the chunks, shared by every view of the store (newer views may
+	// have more of them).
+	private final Object[] locks;
+
+	// The views opened before and after this one that are still open, and
+	// the last chunk read through this view.
+	private AccountView older;
+	private volatile AccountView newer;
+	private volatile Chunk lastRead;
+	private volatile boolean closed = false;
+
+	/*
+	 * Private constructor used by open(), which is called while no other
+	 * thread can change the account.
+	 */
+	private AccountView(Account account, long version, Object[] locks) {
+		this.account = account;
+		this.store = account.empStore;
+		this.version = version;
+		this.size = store.size();
+		this.period = store.period;
+		this.numEmployees = store.numEmployees();
+		this.payrollCents = store.payrollCents();
+		for (byte type = EmployeeStore.SALARIED;
+				type < EmployeeStore.TYPE_SLOTS; type++) {
+			plans[type] = store.getPayPlan(type);
+			formulas[type] = store.formulaOf(type);
+		}
+		this.chunks = new AtomicReferenceArray<Chunk>(numChunks(size));
+		this.locks = locks;
+	}
+
+	/*
+	 * Opens a new view of the account as the newest view of its store. Called
+	 * by Account.openView() while no other thread can change the account.
+	 */
+	static AccountView open(Account account, long version) {
+		EmployeeStore store = account.empStore;
+		AccountView newest = store.newestView;
+		Object[] locks = newest != null ? newest.locks : new Object[0];
+		int needed = numChunks(store.size());
+		if (locks.length < needed) {
+			int have = locks.length;
+			locks = Arrays.copyOf(locks, needed);
+			for (int c = have; c < needed; c++) {
+				locks[c] = new Object();
+			}
+		}
+		AccountView view = new AccountView(account, version, locks);
+		view.older = newest;
+		if (newest != null) {
+			newest.newer = view;
+		}
+		store.newestView = view;
+		return view;
+	}
+
+	/*
+	 * Returns the number of the view: views of an account are numbered from 1
+	 * in the order they are opened.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/*
+	 * These return what the methods of the same name of Account returned at
+	 * the moment the view was opened.
+	 */
+	public int numEmployees() {
+		checkOpen();
+		return numEmployees;
+	}
+
+	public boolean isEmployee(String name) {
+		return rowOf(name) >= 0;
+	}
+
+	public int numHours(String name) {
+		int row = rowOf(name);
+		return row >= 0 ? getHours(row) : -1;
+	}
+
+	public double amtSalesMade(String name) {
+		int row = rowOf(name);
+		return row >= 0 ? Money.toDouble(getSaleCents(row)) : -1.0;
+	}
+
+	public double getPayAmount(String name) {
+		int row = rowOf(name);
+		return row >= 0 ? Money.toDouble(getPayCents(row)) : -1.0;
+	}
+
+	public double getPayroll() {
+		return Money.toDouble(getPayrollCents());
+	}
+
+	public long getPayrollCents() {
+		checkOpen();
+		return payrollCents;
+	}
+
+	public double billAmount() {
+		checkOpen();
+		return account.isLimited() ? 0.0 : 10.0 * numEmployees;
+	}
+
+	public PayPlan getPayPlan(byte type) {
+		checkOpen();
+		return EmployeeStore.isType(type) ? plans[type] : null;
+	}
+
+	/*
+	 * Returns the number of rows of the view, terminated ones included, for
+	 * going through every employee. Rows are numbered 0 to size() - 1 and
+	 * read with the getters below, which are cheapest in row order.
+	 */
+	public int size() {
+		checkOpen();
+		return size;
+	}
+
+	/*
+	 * Return the name (null for a terminated employee), type tag, hours,
+	 * sales in cents and pay in cents of a row of the view.
+	 */
+	public String getName(int row) {
+		return chunkOf(row).names[row & (CHUNK_ROWS - 1)];
+	}
+
+	public byte getType(int row) {
+		return chunkOf(row).types[row & (CHUNK_ROWS - 1)];
+	}
+
+	public int getHours(int row) {
+		Chunk chunk = chunkOf(row);
+		int i = row & (CHUNK_ROWS - 1);
+		return chunk.periods[i] == period ? chunk.hours[i] : 0;
+	}
+
+	public long getSaleCents(int row) {
+		Chunk chunk = chunkOf(row);
+		int i = row & (CHUNK_ROWS - 1);
+		return chunk.periods[i] == period ? chunk.sales[i] : 0;
+	}
+
+	public long getPayCents(int row) {
+		Chunk chunk = chunkOf(row);
+		int i = row & (CHUNK_ROWS - 1);
+		boolean current = chunk.periods[i] == period;
+		return formulas[chunk.types[i]].payCents(chunk.salaries[i],
+				chunk.rates[i], current ? chunk.hours[i] : 0,
+				current ? chunk.sales[i] : 0);
+	}
+
+	/*
+	 * Reads the employees of chunk c of the view (rows c * CHUNK_ROWS on)
+	 * into the given arrays, leaving out terminated ones, and returns how
+	 * many there are. Hours and sales are those of the pay period of the
+	 * view. Used by PayrollSimulation to go through the rows a chunk at a
+	 * time; a chunk no view has copied is read from the store while holding
+	 * its lock, without copying it.
+	 */
+	int readChunk(int c, byte[] types, long[] salaries, double[] rates,
+			int[] hours, long[] sales) {
+		checkOpen();
+		int count = 0;
+		Chunk chunk = copied(c);
+		if (chunk != null) {
+			for (int i = 0; i < chunk.names.length
+					&& (c << CHUNK_SHIFT) + i < size; i++) {
+				if (chunk.names[i] != null) {
+					boolean current = chunk.periods[i] == period;
+					types[count] = chunk.types[i];
+					salaries[count] = chunk.salaries[i];
+					rates[count] = chunk.rates[i];
+					hours[count] = current ? chunk.hours[i] : 0;
+					sales[count] = current ? chunk.sales[i] : 0;
+					count++;
+				}
+			}
+		} else {
+			synchronized (locks[c]) {
+				if (copied(c) != null) {
+					count = readChunk(c, types, salaries, rates, hours, sales);
+				} else {
+					int end = Math.min(size, (c + 1) << CHUNK_SHIFT);
+					for (int row = c << CHUNK_SHIFT; row < end; row++) {
+						if (store.isLive(row)) {
+							types[count] = store.getType(row);
+							salaries[count] = store.getSalaryCents(row);
+							rates[count] = store.getRate(row);
+							hours[count] = store.hoursIn(row, period);
+							sales[count] = store.saleCentsIn(row, period);
+							count++;
+						}
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	// Returns the number of chunks of the view.
+	int numChunks() {
+		return chunks.length();
+	}
+
+	/*
+	 * Closes the view, letting go of the rows it copied. The view cannot be
+	 * read any more; closing it again does nothing.
+	 */
+	public void close() {
+		if (!closed) {
+			account.closeView(this);
+		}
+	}
+
+	/*
+	 * Called by the store before a row is changed in place while this is the
+	 * newest view, and before a row is terminated: copies the chunk of the
+	 * row unless it already has, and keeps the name of a terminated employee.
+	 */
+	void rowWritten(int row) {
+		if (row < size) {
+			int c = row >> CHUNK_SHIFT;
+			if (chunks.get(c) == null) {
+				synchronized (locks[c]) {
+					if (chunks.get(c) == null) {
+						chunks.set(c, new Chunk(store, c, size));
+					}
+				}
+			}
+		}
+	}
+
+	void rowRemoved(int row, String name) {
+		rowWritten(row);
+		if (row < size) {
+			removed.putIfAbsent(name, row);
+		}
+	}
+
+	/*
+	 * Takes the view out of the list of open views of the store, handing the
+	 * chunks and terminated employees the view before it lacks over to it.
+	 * Called by Account.closeView() while no other thread can change the
+	 * account.
+	 */
+	void unlink() {
+		if (!closed) {
+			closed = true;
+			if (older != null) {
+				int shared = older.chunks.length();
+				for (int c = 0; c < shared; c++) {
+					Chunk chunk = chunks.get(c);
+					if (chunk != null && older.chunks.get(c) == null) {
+						older.chunks.set(c, chunk);
+					}
+				}
+				for (Map.Entry<String, Integer> e : removed.entrySet()) {
+					older.removed.putIfAbsent(e.getKey(), e.getValue());
+				}
+				older.newer = newer;
+			}
+			if (newer != null) {
+				newer.older = older;
+			} else {
+				store.newestView = older;
+			}
+		}
+	}
+
+	/*
+	 * Private helper returning the row of an employee of the view, or -1. The
+	 * row of the name in the store is used if it is a row of the view holding
+	 * that name; otherwise the employee may have been terminated (and even
+	 * hired again) after the view was opened.
+	 */
+	private int rowOf(String name) {
+		checkOpen();
+		int retVal = -1;
+		if (name != null) {
+			int row = store.find(name);
+			if (row >= 0 && row < size && name.equals(getName(row))) {
+				retVal = row;
+			}
+			for (AccountView v = this; retVal < 0 && v != null;
+					v = v.newer) {
+				Integer gone = v.removed.get(name);
+				if (gone != null && gone < size
+						&& name.equals(getName(gone))) {
+					retVal = gone;
+				}
+			}
+		}
+		return retVal;
+	}
+
+	/*
+	 * Private helper returning the chunk holding a row as of this view: the
+	 * last chunk read, the copy of this view or of a newer one, or else a
+	 * copy of the rows in the store made while holding the lock of the chunk
+	 * (see above).
+	 */
+	private Chunk chunkOf(int row) {
+		checkOpen();
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("row " + row + " of "
+					+ size);
+		}
+		int c = row >> CHUNK_SHIFT;
+		Chunk chunk = lastRead;
+		if (chunk == null || chunk.index != c) {
+			chunk = copied(c);
+			if (chunk == null) {
+				synchronized (locks[c]) {
+					chunk = copied(c);
+					if (chunk == null) {
+						chunk = new Chunk(store, c, size);
+					}
+				}
+			}
+			lastRead = chunk;
+		}
+		return chunk;
+	}
+
+	// Private helper finding a copy of a chunk made by this view or a newer
+	// one, or null.
+	private Chunk copied(int c) {
+		Chunk chunk = null;
+		for (AccountView v = this; chunk == null && v != null; v = v.newer) {
+			chunk = v.chunks.get(c);
+		}
+		return chunk;
+	}
+
+	// Private helper refusing reads once the view is closed.
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("view is closed");
+		}
+	}
+
+	// Private helper giving the number of chunks for a number of rows.
+	private static int numChunks(int rows) {
+		return (rows + CHUNK_ROWS - 1) >> CHUNK_SHIFT;
+	}
+
+	/*
+	 * A copy of the rows of one chunk (those below the size of the view that
+	 * made it), with the pay period the hours and sales of each row were
+	 * written in.
+	 */
+	private static final class Chunk {
+		final int index;
+		final String[] names;
+		final byte[] types;
+		final int[] hours;
+		final long[] sales;
+		final long[] salaries;
+		final double[] rates;
+		final int[] periods;
+
+		Chunk(EmployeeStore store, int index, int size) {
+			int first = index << CHUNK_SHIFT;
+			int rows = Math.min(CHUNK_ROWS, size - first);
+			this.index = index;
+			names = new String[rows];
+			types = new byte[rows];
+			hours = new int[rows];
+			sales = new long[rows];
+			salaries = new long[rows];
+			rates = new double[rows];
+			periods = new int[rows];
+			for (int i = 0; i < rows; i++) {
+				int row = first + i;
+				names[i] = store.getName(row);
+				types[i] = store.getType(row);
+				periods[i] = store.periodOf(row);
+				hours[i] = store.hoursIn(row, periods[i]);
+				sales[i] = store.saleCentsIn(row, periods[i]);
+				salaries[i] = store.getSalaryCents(row);
+				rates[i] = store.getRate(row);
+			}
+		}
+	}
+}
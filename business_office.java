@@ -3,15 +3,25 @@ package businessOffice;
 /*
  * This class creates the accounts for all companies wishing to use the payroll
  * software. Contains two overloaded static methods to create and return objects
- * of type account. Companies that create accounts with this class may have
- * free or paid accounts, demonstrated by the two separate methods to create an
- * account. This class also contains a private method called isNameValid that
- * checks and returns a boolean true or false depending on whether a valid
- * account name is entered an argument. This private method is used by both 
- * other classes to confirm the validity of the name used. It is private as the
- * required scope of that method is only this class.
+ * of type account. Companies that create accounts with this class may have free
+ * or paid accounts, demonstrated by the two separate methods to create an
+ * account. Both kinds can also be created as accounts that are safe to use from
+ * several threads at once (createConcurrentAccount), and paid accounts for very
+ * large companies can keep their employees outside the Java heap
+ * (createOffHeapAccount, see OffHeapEmployeeStore). The class also owns a
+ * sharded registry (an AccountRegistry) of the accounts in use: openAccount
+ * creates a concurrent account and registers it, refusing names already in use,
+ * and the registry can then be used to look accounts up by name, to iterate
+ * over them shard by shard and to run operations over every tenant in parallel.
+ * This class also contains a private method called isNameValid that checks and
+ * returns a boolean true or false depending on whether a valid account name is
+ * entered an argument. This private method is used by both other classes to
+ * confirm the validity of the name used. It is private as the required scope of
+ * that method is only this class.
  */
 public class BusinessOffice {
+	// Registry of every account opened through this class.
+	private static final AccountRegistry registry = new AccountRegistry();
 
 	/*
 	 * This method creates an account for PAID users; companies PAYING for the
@@ -50,6 +60,133 @@ public class BusinessOffice {
 		}
 	}
 
+	/*
+	 * These two methods create the same paid and free accounts as the
+	 * createAccount methods, but as ConcurrentAccount objects which can be
+	 * used by several threads at once.
+	 */
+	public static Account createConcurrentAccount(String name) {
+		if (isNameValid(name)) {
+			Account account = new ConcurrentAccount(name);
+			return account;
+		} else {
+			return null;
+		}
+	}
+
+	public static Account createConcurrentAccount(String name,
+			int maxEmployees) {
+		if (isNameValid(name) && maxEmployees > 0) {
+			Account account = new ConcurrentAccount(name, true, maxEmployees);
+			return account;
+		} else {
+			return null;
+		}
+	}
+
+	/*
+	 * These two methods create paid accounts like createAccount and
+	 * createConcurrentAccount whose employees are kept outside the Java heap
+	 * in an OffHeapEmployeeStore, for companies with millions of employees.
+	 * The choice is made here, when the account is created.
+	 */
+	public static Account createOffHeapAccount(String name) {
+		if (isNameValid(name)) {
+			Account account = new Account(name);
+			account.empStore = new OffHeapEmployeeStore();
+			return account;
+		} else {
+			return null;
+		}
+	}
+
+	public static Account createConcurrentOffHeapAccount(String name) {
+		if (isNameValid(name)) {
+			Account account = new ConcurrentAccount(name);
+			account.empStore = new OffHeapEmployeeStore();
+			return account;
+		} else {
+			return null;
+		}
+	}
+
+	/*
+	 * These two methods create a paid or free account like
+	 * createConcurrentAccount and register it in the registry. Registered
+	 * accounts are ConcurrentAccount objects since the registry works on
+	 * them from several threads at once (see AccountRegistry). null is
+	 * returned if the account could not be created or an account with the
+	 * same name is already registered.
+	 */
+	public static Account openAccount(String name) {
+		return registered(createConcurrentAccount(name));
+	}
+
+	public static Account openAccount(String name, int maxEmployees) {
+		return registered(createConcurrentAccount(name, maxEmployees));
+	}
+
+	/*
+	 * Registers an account created elsewhere, which should be a
+	 * ConcurrentAccount (e.g. created with createConcurrentAccount or
+	 * createConcurrentOffHeapAccount). Returns false if the account is null
+	 * or its name is already registered.
+	 */
+	public static boolean registerAccount(Account account) {
+		return registry.register(account);
+	}
+
+	/*
+	 * Returns the registered account with the given name, or null if there is
+	 * none.
+	 */
+	public static Account findAccount(String name) {
+		return registry.find(name);
+	}
+
+	/*
+	 * Removes the account with the given name from the registry and returns
+	 * it, or null if there is none.
+	 */
+	public static Account closeAccount(String name) {
+		return registry.remove(name);
+	}
+
+	/*
+	 * Returns the registry itself, for per-shard iteration.
+	 */
+	public static AccountRegistry getRegistry() {
+		return registry;
+	}
+
+	/*
+	 * Returns the total amount owed by every registered account, computed in
+	 * parallel over the shards of the registry.
+	 */
+	public static double totalBillAmount() {
+		return registry.totalBillAmount();
+	}
+
+	/*
+	 * Starts a new pay period for every registered account, in parallel over
+	 * the shards of the registry.
+	 */
+	public static void newPayPeriodForAll() {
+		registry.newPayPeriodForAll();
+	}
+
+	/*
+	 * Private helper registering a newly created account. Returns the account,
+	 * or null if it is null or its name is already registered.
+	 */
+	private static Account registered(Account account) {
+		Account retVal = null;
+		if (registry.register(account)) {
+			retVal = account;
+		}
+		return retVal;
+	}
+
 	/*
 	 * Manual method used to check validity of name of Account held by company
 	 */
@@ -0,0 +1,87 @@
+package businessOffice;
+
+/*
+ * The ChangeEvent class is one change made to an Account as delivered by a
+ * ChangeStream: its kind, the sequence number the stream gave it, the name of
+ * the employee and the figures of the change (as passed to AccountListener).
+ * Figures that do not belong to the kind of change are 0, and the name of a
+ * NEW_PAY_PERIOD is null.
+ *
+ * Events are not created per change: the stream keeps a fixed ring of them
+ * and writes every change into the next one, so an event only holds its
+ * change while the handler it is given to runs. A handler that needs the
+ * change afterwards must copy what it needs out of the event.
+ */
+public final class ChangeEvent {
+	// Kinds of change.
+	public enum Kind {
+		HIRE, HOURS, SALE, TERMINATE, NEW_PAY_PERIOD
+	}
+
+	private long sequence;
+	private Kind kind;
+	private String name;
+	private byte type;
+	private long salaryCents;
+	private double rate;
+	private int hours;
+	private long saleCents;
+
+	// Events are only created by ChangeStream.
+	ChangeEvent() {
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	// Returns the EmployeeStore type tag of a hired employee.
+	public byte getType() {
+		return type;
+	}
+
+	public long getSalaryCents() {
+		return salaryCents;
+	}
+
+	public double getRate() {
+		return rate;
+	}
+
+	public int getHours() {
+		return hours;
+	}
+
+	public long getSaleCents() {
+		return saleCents;
+	}
+
+	/*
+	 * Overwrites the event with a new change. Called by ChangeStream on the
+	 * thread making the change, before the event is published.
+	 */
+	void set(long sequence, Kind kind, String name, byte type,
+			long salaryCents, double rate, int hours, long saleCents) {
+		this.sequence = sequence;
+		this.kind = kind;
+		this.name = name;
+		this.type = type;
+		this.salaryCents = salaryCents;
+		this.rate = rate;
+		this.hours = hours;
+		this.saleCents = saleCents;
+	}
+
+	@Override
+	public String toString() {
+		return sequence + " " + kind + " " + name;
+	}
+}
@@ -0,0 +1,354 @@
+package businessOffice;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * The ChangeStream class passes every change made to an Account on to any
+ * number of handlers running on threads of their own, the way the LMAX
+ * Disruptor does, so that systems downstream (ledger postings, tax,
+ * dashboards) see each hire, hours, sale, termination and new pay period as
+ * it happens without the thread making the change waiting for them. A stream
+ * is turned on with Account.enableChangeStream(), after which the account
+ * tells it about every change it applies, as it tells its AccountListener.
+ *
+ * The changes go into a ring of ChangeEvents created up front (capacity of
+ * them, a power of 2), each change taking the next sequence number and
+ * overwriting the event at that number modulo capacity. A thread making a
+ * change claims the next number with a compare and set on the cursor, fills
+ * the event in and publishes it by setting the slot's entry in published to
+ * the number; no lock is taken and nothing is allocated. As a ConcurrentAccount
+ * changes different employees at the same time, several threads may be
+ * claiming numbers at once. Changes are numbered in the order the account
+ * applied them (see AccountListener), since the number is claimed while the
+ * account holds the locks guarding the change.
+ *
+ * Every handler subscribed with subscribe() gets every change from then on,
+ * in sequence order, on a daemon thread of its own. The thread keeps the
+ * number of the last event its handler is done with, and hands the handler
+ * every event published since in one go (a batch, the last one flagged
+ * endOfBatch) before moving its number on past all of them. A slot can only
+ * be overwritten once every handler is done with the event in it, so if the
+ * slowest handler is capacity events behind, the ring is full. The Overflow
+ * of the stream decides what the account does then: BLOCK waits for the
+ * handler to catch up (holding up the change and the account locks it
+ * holds), DROP leaves the change out of the stream and counts it in
+ * dropped(). How threads wait, for events or for room, is set by the
+ * WaitStrategy of the stream.
+ *
+ * A handler that throws (an Error as well as an exception) is unsubscribed,
+ * what it threw being kept in its Subscription, so that a failing handler
+ * never blocks the account.
+ */
+public final class ChangeStream implements AccountListener {
+	// What the account does when the ring is full.
+	public enum Overflow {
+		BLOCK, DROP
+	}
+
+	/*
+	 * How a thread waits for an event to be published or a slot to be freed:
+	 * BUSY_SPIN spins (lowest latency, a whole core per waiting thread),
+	 * YIELD spins a little then yields the processor, and PARK spins and
+	 * yields a little then sleeps for PARK_NANOS at a time (least CPU, most
+	 * latency). idle() is called with the number of times in a row the
+	 * thread has found nothing to do.
+	 */
+	public enum WaitStrategy {
+		BUSY_SPIN, YIELD, PARK;
+
+		void idle(int count) {
+			if (this == BUSY_SPIN || count < SPINS) {
+				Thread.onSpinWait();
+			} else if (this == YIELD || count < SPINS + YIELDS) {
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+		}
+	}
+
+	/*
+	 * Told about the events of a stream. onChange() is called for every
+	 * event in sequence order on the thread of the subscription; endOfBatch
+	 * is true for the last event published when the batch was taken (e.g. to
+	 * flush whatever the handler buffers).
+	 */
+	public interface Handler {
+		void onChange(ChangeEvent event, boolean endOfBatch);
+	}
+
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	// Times a waiting thread spins, then yields, before it parks.
+	private static final int SPINS = 100;
+	private static final int YIELDS = 100;
+	private static final long PARK_NANOS = 50000;
+
+	private final ChangeEvent[] ring;
+	private final int mask;
+	private final Overflow overflow;
+	private final WaitStrategy waitStrategy;
+
+	// Number of the last event claimed (-1 before the first), and the number
+	// last published in each slot.
+	private final AtomicLong cursor = new AtomicLong(-1);
+	private final AtomicLongArray published;
+
+	// Changes left out because the ring was full (DROP only).
+	private final AtomicLong dropped = new AtomicLong();
+
+	// The subscriptions whose handlers slots wait for, replaced as a whole
+	// (under the stream's monitor) when one is added or removed.
+	private volatile Subscription[] subscriptions = new Subscription[0];
+
+	/*
+	 * Creates a stream with a ring of the given capacity (a power of 2).
+	 * Streams are created by Account.enableChangeStream().
+	 */
+	ChangeStream(int capacity, Overflow overflow, WaitStrategy waitStrategy) {
+		if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("capacity " + capacity
+					+ " is not a power of 2");
+		}
+		if (overflow == null || waitStrategy == null) {
+			throw new IllegalArgumentException("no overflow or wait strategy");
+		}
+		ring = new ChangeEvent[capacity];
+		for (int i = 0; i < capacity; i++) {
+			ring[i] = new ChangeEvent();
+		}
+		mask = capacity - 1;
+		published = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			published.set(i, -1);
+		}
+		this.overflow = overflow;
+		this.waitStrategy = waitStrategy;
+	}
+
+	public int capacity() {
+		return ring.length;
+	}
+
+	// Returns the number of the last change put into the stream, or -1.
+	public long cursor() {
+		return cursor.get();
+	}
+
+	// Returns the number of changes left out because the ring was full.
+	public long dropped() {
+		return dropped.get();
+	}
+
+	/*
+	 * Starts a daemon thread with the given name handing the handler every
+	 * change put into the stream from now on, and returns the subscription,
+	 * which stops it when closed.
+	 */
+	public Subscription subscribe(String threadName, Handler handler) {
+		final Subscription sub;
+		synchronized (this) {
+			sub = new Subscription(handler, cursor.get());
+			Subscription[] subs = Arrays.copyOf(subscriptions,
+					subscriptions.length + 1);
+			subs[subs.length - 1] = sub;
+			subscriptions = subs;
+		}
+		sub.thread = new Thread(new Runnable() {
+			public void run() {
+				sub.handleEvents();
+			}
+		}, threadName);
+		sub.thread.setDaemon(true);
+		sub.thread.start();
+		return sub;
+	}
+
+	/*
+	 * A handler subscribed to the stream and the thread running it.
+	 */
+	public final class Subscription implements AutoCloseable {
+		private final Handler handler;
+		// Number of the last event the handler is done with.
+		private final AtomicLong sequence;
+		private volatile boolean running = true;
+		private volatile Throwable failure;
+		private Thread thread;
+
+		private Subscription(Handler handler, long start) {
+			this.handler = handler;
+			this.sequence = new AtomicLong(start);
+		}
+
+		// Returns the number of the last event the handler is done with.
+		public long sequence() {
+			return sequence.get();
+		}
+
+		// Returns what the handler threw, or null.
+		public Throwable getFailure() {
+			return failure;
+		}
+
+		/*
+		 * Waits until the handler is done with every change put into the
+		 * stream so far, or has failed or been closed.
+		 */
+		public void awaitCaughtUp() {
+			long target = cursor.get();
+			int idle = 0;
+			while (running && sequence.get() < target) {
+				waitStrategy.idle(idle++);
+			}
+		}
+
+		/*
+		 * Stops handing events to the handler and lets slots be overwritten
+		 * without waiting for it. The thread ends after its current batch.
+		 */
+		public void close() {
+			running = false;
+			unsubscribe(this);
+			LockSupport.unpark(thread);
+		}
+
+		/*
+		 * Loop of the thread: waits for events after the last one handled
+		 * and hands over every one published, as a batch.
+		 */
+		private void handleEvents() {
+			long next = sequence.get() + 1;
+			int idle = 0;
+			try {
+				while (running) {
+					long last = lastPublished(next);
+					if (last >= next) {
+						for (long seq = next; seq <= last; seq++) {
+							handler.onChange(ring[(int) seq & mask],
+									seq == last);
+						}
+						sequence.set(last);
+						next = last + 1;
+						idle = 0;
+					} else {
+						waitStrategy.idle(idle++);
+					}
+				}
+			} catch (Throwable e) {
+				// errors too: a thread gone without unsubscribing would
+				// block every writer once the ring is full
+				failure = e;
+				close();
+			}
+		}
+	}
+
+	public void employeeHired(String name, byte type, long salaryCents,
+			double rate) {
+		publish(ChangeEvent.Kind.HIRE, name, type, salaryCents, rate, 0, 0);
+	}
+
+	public void hoursWorked(String name, int hours) {
+		publish(ChangeEvent.Kind.HOURS, name, (byte) 0, 0, 0.0, hours, 0);
+	}
+
+	public void saleMade(String name, long saleCents) {
+		publish(ChangeEvent.Kind.SALE, name, (byte) 0, 0, 0.0, 0, saleCents);
+	}
+
+	public void employeeTerminated(String name) {
+		publish(ChangeEvent.Kind.TERMINATE, name, (byte) 0, 0, 0.0, 0, 0);
+	}
+
+	public void payPeriodStarted() {
+		publish(ChangeEvent.Kind.NEW_PAY_PERIOD, null, (byte) 0, 0, 0.0, 0,
+				0);
+	}
+
+	/*
+	 * Private helper claiming the next number, filling in its event and
+	 * publishing it, or counting the change as dropped.
+	 */
+	private void publish(ChangeEvent.Kind kind, String name, byte type,
+			long salaryCents, double rate, int hours, long saleCents) {
+		long seq = claim();
+		if (seq >= 0) {
+			int slot = (int) seq & mask;
+			ring[slot].set(seq, kind, name, type, salaryCents, rate, hours,
+					saleCents);
+			published.lazySet(slot, seq);
+		}
+	}
+
+	/*
+	 * Private helper claiming the next number once its slot is free, or
+	 * returning -1 if the ring is full and changes are dropped.
+	 */
+	private long claim() {
+		long retVal = -1;
+		int idle = 0;
+		boolean done = false;
+		while (!done) {
+			long current = cursor.get();
+			long next = current + 1;
+			if (next - ring.length > slowest(current)) {
+				if (overflow == Overflow.DROP) {
+					dropped.incrementAndGet();
+					done = true;
+				} else {
+					waitStrategy.idle(idle++);
+				}
+			} else if (cursor.compareAndSet(current, next)) {
+				retVal = next;
+				done = true;
+			}
+		}
+		return retVal;
+	}
+
+	/*
+	 * Private helper returning the number of the last event every handler is
+	 * done with (current if there are no handlers).
+	 */
+	private long slowest(long current) {
+		long min = current;
+		for (Subscription sub : subscriptions) {
+			min = Math.min(min, sub.sequence.get());
+		}
+		return min;
+	}
+
+	/*
+	 * Private helper returning the number of the last event of the unbroken
+	 * run of published events starting at next, or next - 1 if next is not
+	 * published yet. Events are claimed in order but may be published out of
+	 * order by different threads.
+	 */
+	private long lastPublished(long next) {
+		long last = next - 1;
+		long claimed = cursor.get();
+		while (last < claimed && published.get((int) (last + 1) & mask)
+				== last + 1) {
+			last++;
+		}
+		return last;
+	}
+
+	// Private helper taking a subscription out of the ones slots wait for.
+	private synchronized void unsubscribe(Subscription sub) {
+		Subscription[] subs = subscriptions;
+		int i = 0;
+		while (i < subs.length && subs[i] != sub) {
+			i++;
+		}
+		if (i < subs.length) {
+			Subscription[] left = new Subscription[subs.length - 1];
+			System.arraycopy(subs, 0, left, 0, i);
+			System.arraycopy(subs, i + 1, left, i, left.length - i);
+			subscriptions = left;
+		}
+	}
+}
@@ -4,19 +4,24 @@ package businessOffice;
  * The CommissionedEmployee class is used to create objects of the Employee
  * class which are SPECIFICALLY commissioned i.e. paid a salary as a percentage
  * of the amount of sales they make, as decided by their commission rate.
- * Apart from the fields extended to it by the Employee class such as
- * empName and empSaleAmt, it has its own field, namely a double representing
- * the employee's commission rate (empCommRate). This class also includes three
- * methods that it uses to override the parent class's methods of the same name.
+ * Like every Employee it is a view over a row of an EmployeeStore, where the
+ * employee's commission rate is kept in the rate column. This class also
+ * includes three methods that it uses to override the parent class's methods
+ * of the same name. How the commission is worked out (flat or in tiers, with
+ * or without a base salary kept in the salary column) is decided by the
+ * commissioned PayPlan of the store.
  */
-public class CommissionEmployee extends Employee {
-	private double empCommRate;
+public final class CommissionEmployee extends Employee {
 
 	// This constructor overrides the default constructor from the Employee
 	// class it extends, using the parameters employee name and commissionRate.
 	public CommissionEmployee(String name, double commissionRate) {
-		super(name);
-		empCommRate = commissionRate;
+		super(name, EmployeeStore.COMMISSIONED, 0, commissionRate);
+	}
+
+	// Constructor used by EmployeeStore.view() for an existing row.
+	CommissionEmployee(EmployeeStore store, int row) {
+		super(store, row);
 	}
 
 	/*
@@ -48,12 +53,13 @@ public class CommissionEmployee extends Employee {
 	 * overriding the method of the same name in the Employee class however it
 	 * is specific to the Salaried class as it multiplies the commission rate a
 	 * Commissioned Employee has (empCommRate) as fraction of 100 with the
-	 * amount of sales they have done to calculate their final pay. A double of
-	 * this value is returned.
+	 * amount of sales they have done to calculate their final pay (unless the
+	 * commissioned PayPlan of the store says otherwise). A double of this
+	 * value is returned.
 	 */
 	@Override
 	public double totalPay() {
-		return empCommRate / 100 * empSaleAmt;
+		return Money.toDouble(store.totalPayCents(row));
 	}
 
 }
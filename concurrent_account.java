@@ -0,0 +1,312 @@
+package businessOffice;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * The ConcurrentAccount class is a version of Account that can be used by many
+ * threads at once, e.g. by several workers feeding in hours and sales. It has
+ * the same public methods as Account and only adds locking around the row
+ * level helpers of Account, so the rules of the system are not repeated here.
+ *
+ * Employees are guarded by striped locks: the lock for an employee is
+ * stripes[row % STRIPES], so updates to different employees rarely wait for
+ * each other while the read-modify-write of hours and sales for a single
+ * employee is atomic. Hiring is done while holding hireLock, which makes the
+ * duplicate name check, the free account limit check and the add a single
+ * step; the name index itself is a ConcurrentHashMap so looking employees up
+ * never waits for a hire. When the store has to grow, every stripe is locked
+ * while the columns are copied so no update is lost. The running payroll
+ * total of the store is an AtomicLong to which each update adds its change in
+ * one step, so getPayroll() always returns the payroll as of some point in
+ * the order of updates without locking anything. newPayPeriod(),
+ * verifyPayroll(), terminate() and runExclusive() hold hireLock and every
+ * stripe while they run.
+ *
+ * As employees are looked up without a lock, an employee may be terminated,
+ * or moved to another row by compaction, between being looked up and its
+ * stripe being locked. Both happen with every stripe locked, so once the
+ * stripe is locked the row is checked to still hold the employee, and the
+ * employee is looked up again if not. Compaction runs on a single background
+ * thread shared by every ConcurrentAccount, one step of Account.COMPACT_STEP
+ * rows at a time with every lock held, so other threads go on between the
+ * steps.
+ *
+ * Employee objects returned by getEmployee() are not covered by the locks and
+ * should not be changed while other threads use the account.
+ */
+public class ConcurrentAccount extends Account {
+	// Number of striped locks, a power of 2 so the stripe is a bit mask.
+	private static final int STRIPES = 64;
+
+	// Thread compacting the tombstones of every ConcurrentAccount.
+	private static final ExecutorService COMPACTOR = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable task) {
+					Thread thread = new Thread(task, "account-compactor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+	private final Object hireLock = new Object();
+
+	// Whether compaction of this account is queued or running.
+	private final AtomicBoolean compacting = new AtomicBoolean();
+
+	// This is the constructor used for paid accounts.
+	public ConcurrentAccount(String name) {
+		super(name);
+		initLocks();
+	}
+
+	// This is the constructor used for free accounts, limited to maxEmp
+	// employees at a time.
+	public ConcurrentAccount(String name, boolean empLim, int maxEmp) {
+		super(name, empLim, maxEmp);
+		initLocks();
+	}
+
+	/*
+	 * Hires an employee as a single atomic step. If the store is full, its
+	 * columns are grown first while every stripe is locked.
+	 */
+	@Override
+	boolean hire(String name, byte type, long salaryCents, double rate) {
+		synchronized (hireLock) {
+			if (empStore.size() == empStore.capacity()) {
+				int capacity = empStore.capacity();
+				lockAll();
+				try {
+					empStore.ensureCapacity(empStore.size() + 1);
+				} finally {
+					unlockAll();
+				}
+				getMetrics().resized(PayrollMetrics.Structure.EMPLOYEE_STORE,
+						capacity, empStore.capacity());
+			}
+			return super.hire(name, type, salaryCents, rate);
+		}
+	}
+
+	@Override
+	public int numEmployees() {
+		synchronized (hireLock) {
+			return super.numEmployees();
+		}
+	}
+
+	/*
+	 * Terminates an employee as a single step while holding hireLock and
+	 * every stripe.
+	 */
+	@Override
+	boolean remove(String name) {
+		synchronized (hireLock) {
+			lockAll();
+			try {
+				return super.remove(name);
+			} finally {
+				unlockAll();
+			}
+		}
+	}
+
+	/*
+	 * Queues the compaction of the account on the compactor thread, unless
+	 * it is already queued or running.
+	 */
+	@Override
+	void compactionDue() {
+		if (compacting.compareAndSet(false, true)) {
+			COMPACTOR.execute(new Runnable() {
+				public void run() {
+					try {
+						compact();
+					} finally {
+						compacting.set(false);
+					}
+				}
+			});
+		}
+	}
+
+	@Override
+	boolean addHoursAt(String name, int row, int numHours) {
+		boolean flag = false;
+		row = lockRow(name, row);
+		if (row >= 0) {
+			try {
+				flag = super.addHoursAt(name, row, numHours);
+			} finally {
+				stripeOf(row).unlock();
+			}
+		}
+		return flag;
+	}
+
+	@Override
+	boolean addSaleAt(String name, int row, long saleCents) {
+		boolean flag = false;
+		row = lockRow(name, row);
+		if (row >= 0) {
+			try {
+				flag = super.addSaleAt(name, row, saleCents);
+			} finally {
+				stripeOf(row).unlock();
+			}
+		}
+		return flag;
+	}
+
+	@Override
+	int hoursAt(String name, int row) {
+		int retVal = -1;
+		row = lockRow(name, row);
+		if (row >= 0) {
+			try {
+				retVal = super.hoursAt(name, row);
+			} finally {
+				stripeOf(row).unlock();
+			}
+		}
+		return retVal;
+	}
+
+	@Override
+	long saleCentsAt(String name, int row) {
+		long retVal = -1;
+		row = lockRow(name, row);
+		if (row >= 0) {
+			try {
+				retVal = super.saleCentsAt(name, row);
+			} finally {
+				stripeOf(row).unlock();
+			}
+		}
+		return retVal;
+	}
+
+	@Override
+	long payCentsAt(String name, int row) {
+		long retVal = -1;
+		row = lockRow(name, row);
+		if (row >= 0) {
+			try {
+				retVal = super.payCentsAt(name, row);
+			} finally {
+				stripeOf(row).unlock();
+			}
+		}
+		return retVal;
+	}
+
+	/*
+	 * The events of one employee in a batch are checked and applied while
+	 * holding that employee's lock, so the 80 hour check sees exactly the
+	 * hours the events will be added to.
+	 */
+	@Override
+	void applyHourEvents(String name, int row, int[] hours, int first,
+			int[] next, boolean[] results) {
+		row = lockRow(name, row);
+		if (row >= 0) {
+			try {
+				super.applyHourEvents(name, row, hours, first, next,
+						results);
+			} finally {
+				stripeOf(row).unlock();
+			}
+		}
+	}
+
+	@Override
+	public void newPayPeriod() {
+		synchronized (hireLock) {
+			lockAll();
+			try {
+				super.newPayPeriod();
+			} finally {
+				unlockAll();
+			}
+		}
+	}
+
+	@Override
+	public double verifyPayroll() {
+		synchronized (hireLock) {
+			lockAll();
+			try {
+				return super.verifyPayroll();
+			} finally {
+				unlockAll();
+			}
+		}
+	}
+
+	@Override
+	void runExclusive(Runnable action) {
+		synchronized (hireLock) {
+			lockAll();
+			try {
+				action.run();
+			} finally {
+				unlockAll();
+			}
+		}
+	}
+
+	/*
+	 * Private helpers to create the locks, to find the lock of a row and to
+	 * lock and unlock every stripe (always in the same order).
+	 */
+	private void initLocks() {
+		empStore = new EmployeeStore(16, true);
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+	}
+
+	private ReentrantLock stripeOf(int row) {
+		return stripes[row & (STRIPES - 1)];
+	}
+
+	/*
+	 * Private helper locking the stripe of the row of an employee looked up
+	 * without a lock, looking the employee up again for as long as the row
+	 * no longer holds it once locked (see above). Returns the row, with its
+	 * stripe locked, or -1 with nothing locked if the employee has been
+	 * terminated.
+	 */
+	private int lockRow(String name, int row) {
+		int retVal = row;
+		boolean locked = false;
+		while (retVal >= 0 && !locked) {
+			ReentrantLock lock = stripeOf(retVal);
+			lock.lock();
+			if (empStore.isRowOf(retVal, name)) {
+				locked = true;
+			} else {
+				lock.unlock();
+				retVal = empStore.find(name);
+			}
+		}
+		return retVal;
+	}
+
+	private void lockAll() {
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i].lock();
+		}
+	}
+
+	private void unlockAll() {
+		for (int i = STRIPES - 1; i >= 0; i--) {
+			stripes[i].unlock();
+		}
+	}
+}
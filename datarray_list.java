@@ -1,26 +1,32 @@
 package businessOffice;
 
+import java.util.Arrays;
+
 /*
  * DatarrayList class to create arrayList-like objects to store employee data.
- * Works in the same way as arrayLists work in the sense that it also has a 
+ * Works in the same way as arrayLists work in the sense that it also has a
  * get() and add() but also has some added functionality. An object of this
  * class, whenever created, creates a new java array which is used to store
- * objects. This array is created of increment size and can be expanded using
- * the private addSpace() method, which copies each element in the current array
- * to a larger sized tempArray and then assigns the reference of the larger
- * array to the default array. This class also has 4 fields, namely the main
- * array to be created, the current element (used in the add() method), the
- * current increment (used in the addSpace() method) and a temp int (used in the
- * addSpace()).
+ * objects. When the array is full it is grown geometrically (by half of its
+ * current length each time) using Arrays.copyOf, so adding N elements only
+ * copies O(N) elements in total. The array can also be pre-sized with
+ * ensureCapacity() when the number of elements is known up front and shrunk
+ * to the number of elements with trimToSize(). The growth rule itself is the
+ * static newCapacity() method, which EmployeeStore uses for its columns too.
+ * Every time the array grows it is reported to the PayrollMetrics set with
+ * setMetrics() (by default PayrollMetrics.NONE, which records nothing).
+ * This class has 2 fields, namely the main array and the current element
+ * (the number of elements stored, used in the add() method).
  */
 public class DatarrayList {
+	// Largest array length that can safely be asked of the JVM.
+	static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
 	// Main array arrData which is used to store Employee objects
 	private Object[] arrData;
 	private int currElement = 0;
-	private int currIncrement = 0;
-	// temp is only used to store a temporary variable used outside of
-	// the addSpace method (for intended functionality)
-	private int temp = 2;
+
+	private PayrollMetrics metrics = PayrollMetrics.NONE;
 
 	/*
 	 * If the object for the DatarrayList class is constructed without any
@@ -28,7 +34,6 @@ public class DatarrayList {
 	 */
 	public DatarrayList() {
 		arrData = new Object[1];
-		currIncrement = 1;
 	}
 
 	/*
@@ -43,25 +48,23 @@ public class DatarrayList {
 		} else {
 			arrData = new Object[1];
 		}
-		currIncrement = arrData.length;
 	}
 
 	/*
 	 * Method to add an element to array. Checks two things- whether element
-	 * being added is null or not, and checks if specified position to add
-	 * exceeds current length of array. If element is null (case 1), false is
-	 * returned with no effect to the array and if no more space is left to add
-	 * (case 2), the array is expanded in length using the addSpace method. If
-	 * element is successfully added, true is returned.
+	 * being added is null or not, and checks if the array is already full. If
+	 * element is null (case 1), false is returned with no effect to the array
+	 * and if no more space is left to add (case 2), the array is grown using
+	 * the ensureCapacity method. If element is successfully added, true is
+	 * returned.
 	 */
 	public boolean add(Object newElement) {
 		boolean flag = false;
 
-		if (currElement >= arrData.length) {
-			addSpace();
-		}
-
 		if (newElement != null) {
+			if (currElement == arrData.length) {
+				ensureCapacity(currElement + 1);
+			}
 			arrData[currElement++] = newElement;
 			flag = true;
 		}
@@ -84,29 +87,69 @@ public class DatarrayList {
 
 	/*
 	 * Retrieves object from array at a specified int position. Returns null if
-	 * object does not exist at specified position.
+	 * object does not exist at specified position, i.e. the position is
+	 * negative or not below the number of elements.
 	 */
 	public Object get(int pos) {
 		Object retVal = null;
-		if (pos <= arrData.length) {
+		if (pos >= 0 && pos < currElement) {
 			retVal = arrData[pos];
 		}
 		return retVal;
 	}
 
 	/*
-	 * Manually created method to add space to a pre-existing array. This is
-	 * done by creating a temporary duplicate of the array, having the intended
-	 * greater size. This temporary array is then assigned to the main array
-	 * (arrData) to change the object it refers to to the larger length array.
+	 * Makes sure the array has room for at least minCapacity elements without
+	 * growing again. Used to pre-size the list when the number of elements to
+	 * be added is known, e.g. the headcount of a company being onboarded.
+	 */
+	public void ensureCapacity(int minCapacity) {
+		if (minCapacity > arrData.length) {
+			int oldCapacity = arrData.length;
+			arrData = Arrays.copyOf(arrData,
+					newCapacity(oldCapacity, minCapacity));
+			metrics.resized(PayrollMetrics.Structure.DATARRAY_LIST,
+					oldCapacity, arrData.length);
+		}
+	}
+
+	/*
+	 * Sets where the growth of the array is reported; null goes back to
+	 * PayrollMetrics.NONE.
 	 */
-	private void addSpace() {
-		int counter = 0;
+	public void setMetrics(PayrollMetrics metrics) {
+		if (metrics == null) {
+			metrics = PayrollMetrics.NONE;
+		}
+		this.metrics = metrics;
+	}
+
+	/*
+	 * Shrinks the array to the number of elements stored (or 1 if the list is
+	 * empty) so no unused space is kept.
+	 */
+	public void trimToSize() {
+		int newLength = Math.max(currElement, 1);
+		if (newLength < arrData.length) {
+			arrData = Arrays.copyOf(arrData, newLength);
+		}
+	}
 
-		Object[] arrTemp = new Object[currIncrement * temp++];
-		for (Object element : arrData) {
-			arrTemp[counter++] = element;
+	/*
+	 * Returns the length an array of oldCapacity elements should be grown to
+	 * so that it holds at least minCapacity elements. The array grows by half
+	 * of its length (at least by 1), which keeps adding an element amortized
+	 * constant time. Returns minCapacity itself if that is larger, and never
+	 * more than MAX_CAPACITY unless minCapacity asks for it.
+	 */
+	static int newCapacity(int oldCapacity, int minCapacity) {
+		int newCapacity = oldCapacity + Math.max(oldCapacity >> 1, 1);
+		if (newCapacity < 0 || newCapacity > MAX_CAPACITY) {
+			newCapacity = MAX_CAPACITY;
+		}
+		if (newCapacity < minCapacity) {
+			newCapacity = minCapacity;
 		}
-		arrData = arrTemp;
+		return newCapacity;
 	}
 }
@@ -1,34 +1,44 @@
 package businessOffice;
 
 /*
- * The Employee class is used to create employee objects with fields for the 
- * name of the employee as empName, how many hours they work as empHours and
- * the amount of sales they have done as empSaleAmt. This class is 
- * meant to have methods that are overridden by methods from the 
- * SlariedEmployee and CommissionedEmployee classes to provide 
- * class-specific functionality. Two of the fields empHours and empSaleAmt used
- * here are protected as they need to be accessed by the subclasses as well as
- * the Account class for methods newPayPeriod(), amtSalesMade() and numHours().
- * This is done to prevent the use of getter and setters, as this information is
- * heavily accessed throughout the system.
+ * The Employee class is the base of the employee objects, which have a name,
+ * the number of hours they work and the amount of sales they have done. It is
+ * a sealed abstract class: every employee is a SalariedEmployee, an
+ * HourlyEmployee or a CommissionEmployee (a new kind of employee has to be
+ * added to the permits list and given a type tag in EmployeeStore), so code
+ * can switch on the type knowing it has seen every case, and there is no
+ * plain Employee whose pay is undefined. The subclasses are final, so calls
+ * on them need no virtual dispatch. The payroll loops themselves do not call
+ * these methods at all; they work on the type tags of EmployeeStore.
+ *
+ * An Employee object does not hold this data in fields of its own; it is a
+ * view over one row of an EmployeeStore, which keeps the data of every
+ * employee of an account in primitive arrays. The store and the row are
+ * package-private fields so that EmployeeStore and the subclasses can reach
+ * the data directly. An employee created with one of the public constructors
+ * of a subclass gets a store of its own holding just that one row. Sale
+ * amounts are kept in whole cents (see the Money class); the double based
+ * methods convert to and from cents.
  */
-public class Employee {
-	private String empName;
+public abstract sealed class Employee
+		permits SalariedEmployee, HourlyEmployee, CommissionEmployee {
+	// The store holding this employee's data and the row it occupies in it.
+	final EmployeeStore store;
+	final int row;
 
-	// Protected fields are used here as they allow subclasses to access these
-	// fields without the use of getters and setters. As a lot of the
-	// functionality of the subclasses relies on these fields, they are
-	// protected instead of private.
-	protected int empHours;
-	protected double empSaleAmt;
-
-	// Default constructor
-	public Employee() {
+	// Constructor used by the subclasses to create an employee with its own
+	// single-row store, tagged with the subclass's type, salary (or wage) in
+	// cents and commission rate.
+	protected Employee(String name, byte type, long salaryCents, double rate) {
+		store = new EmployeeStore(1);
+		row = store.add(name, type, salaryCents, rate);
 	}
 
-	// Overloaded Constructor with name parameter to assign name to employee
-	public Employee(String name) {
-		empName = name;
+	// Constructor used by EmployeeStore.view() to create an employee reading
+	// and writing an existing row of a store.
+	Employee(EmployeeStore store, int row) {
+		this.store = store;
+		this.row = row;
 	}
 
 	/*
@@ -39,12 +49,32 @@ public class Employee {
 	public boolean empExistCheck(String name) {
 		boolean flag = false;
 
-		if (empName.equals(name)) {
+		if (store.getName(row).equals(name)) {
 			flag = true;
 		}
 		return flag;
 	}
 
+	// Returns the name of the employee.
+	public String getName() {
+		return store.getName(row);
+	}
+
+	// Returns the hours the employee has worked in this pay period.
+	public int getHours() {
+		return store.getHours(row);
+	}
+
+	// Returns the sale amount of the employee in this pay period.
+	public double getSaleAmt() {
+		return Money.toDouble(store.getSaleCents(row));
+	}
+
+	// Returns the sale amount of the employee in this pay period in cents.
+	public long getSaleCents() {
+		return store.getSaleCents(row);
+	}
+
 	/*
 	 * This method adds hours to the employee's total hours worked and returns
 	 * true on a successful addition. This method lacks in functionality as it
@@ -52,7 +82,7 @@ public class Employee {
 	 * CommissionedEmployee classes.
 	 */
 	public boolean addHours(int hours) {
-		empHours += hours;
+		store.setHours(row, store.getHours(row) + hours);
 		return true;
 	}
 
@@ -63,16 +93,14 @@ public class Employee {
 	 * CommissionedEmployee classes.
 	 */
 	public void addSaleAmt(double saleAmt) {
-		empSaleAmt += saleAmt;
+		store.setSaleCents(row,
+				store.getSaleCents(row) + Money.toCents(saleAmt));
 	}
 
 	/*
-	 * This method calculates the total pay an employee is entitled to however
-	 * lacks in functionality as it is meant to be overridden by methods from
-	 * the SlariedEmployee and CommissionedEmployee classes. Returns a double
-	 * for the pay amount.
+	 * This method calculates the total pay an employee is entitled to in this
+	 * pay period, following the pay plan of its type in its store. Returns a
+	 * double for the pay amount.
 	 */
-	public double totalPay() {
-		return -1.0;
-	}
+	public abstract double totalPay();
 }
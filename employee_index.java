@@ -0,0 +1,493 @@
+package businessOffice;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * The EmployeeIndex class answers questions about the employees of an Account
+ * such as "the top 100 commissioned earners this period", "everyone with no
+ * sales" or "which salaried employees are at the 80 hour cap" without going
+ * through every employee. It is turned on with Account.enableIndex(), after
+ * which the account tells it about every employee hired and every change to
+ * the hours and sales of an employee.
+ *
+ * For every employee type the index keeps the rows of that type in a TreeSet
+ * ordered by pay (and by row for equal pay), the commissioned rows also in a
+ * TreeSet ordered by sales, and a BitSet of the salaried rows whose hours have
+ * reached SalariedEmployee.MAX_HOURS. Top-K queries walk a set from its top
+ * end and range queries take the part of a set between two values, so both
+ * take O(log N + K) for K employees returned. The value a row is filed under
+ * is kept in the index itself (payKeys and saleKeys), so a row can always be
+ * found again to be moved.
+ *
+ * Hours and sales change far more often than the index is queried, so a
+ * change only marks its row in the dirty bitmap; the first query after it
+ * files every marked row again under its new values, O(log N) per row
+ * however many times the row changed in between. Marking a row is an atomic
+ * operation on the bitmap that does not take the monitor of the index, so
+ * the threads changing a ConcurrentAccount (holding the lock of the row)
+ * neither wait for each other nor for a query filing rows meanwhile.
+ * Starting a new pay period or changing a pay plan changes the pay of most
+ * employees at once, so it marks the whole index stale instead, and the next
+ * query builds it again.
+ *
+ * A terminated employee is taken out of the index at once, and a row moved
+ * by compaction (see EmployeeStore.compact()) is taken out under its old row
+ * and filed under its new one by the next query.
+ *
+ * Changes made through the Employee objects returned by Account.getEmployee()
+ * are not seen by the index. The queries and the methods following
+ * terminations, compaction and new pay periods are synchronized. A row is
+ * marked after it has been changed and is cleared before its values are
+ * read, so a change made by another thread while a query runs is filed by
+ * the next query at the latest. Names are returned ordered by the value
+ * queried for.
+ */
+public class EmployeeIndex {
+	// Rows standing in for the two ends of a range of values; see
+	// RowOrder.
+	private static final int LOW = Integer.MIN_VALUE;
+	private static final int HIGH = Integer.MAX_VALUE;
+
+	private final Account account;
+
+	// Pay and sales in cents each row is filed under.
+	private long[] payKeys = new long[16];
+	private long[] saleKeys = new long[16];
+
+	// Rows of each type by pay (indexed by type tag), commissioned rows by
+	// sales, and salaried rows at the hour cap.
+	private final TreeSet<Integer>[] byPay;
+	private final TreeSet<Integer> bySales;
+	private final BitSet atHourCap = new BitSet();
+
+	// Rows filed in the orders so far, and whether every row has to be
+	// filed again.
+	private final BitSet filed = new BitSet();
+	private boolean stale = true;
+
+	// Rows changed since they were filed, a bit per row, 64 rows a word. A
+	// larger array replaces it (under the monitor) as rows are added; a
+	// thread that marked a row in an array being replaced marks it again in
+	// the new one, so no mark is lost.
+	private volatile AtomicLongArray dirty = new AtomicLongArray(1);
+
+	// The values LOW and HIGH stand for in the pay and sales orders.
+	private long low;
+	private long high;
+
+	/*
+	 * Orders rows by the value they are filed under (their sales or their
+	 * pay), then by row. The rows LOW and HIGH take the values low and high,
+	 * and as they come before and after every real row, subSet(LOW, HIGH)
+	 * holds exactly the rows filed under a value from low to high.
+	 */
+	private final class RowOrder implements Comparator<Integer> {
+		private final boolean sales;
+
+		RowOrder(boolean sales) {
+			this.sales = sales;
+		}
+
+		public int compare(Integer a, Integer b) {
+			int retVal = Long.compare(key(a), key(b));
+			if (retVal == 0) {
+				retVal = Integer.compare(a, b);
+			}
+			return retVal;
+		}
+
+		private long key(int row) {
+			long key;
+			if (row == LOW) {
+				key = low;
+			} else if (row == HIGH) {
+				key = high;
+			} else if (sales) {
+				key = saleKeys[row];
+			} else {
+				key = payKeys[row];
+			}
+			return key;
+		}
+	}
+
+	// Created by Account.enableIndex().
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	EmployeeIndex(Account account) {
+		this.account = account;
+		RowOrder payOrder = new RowOrder(false);
+		byPay = new TreeSet[EmployeeStore.TYPE_SLOTS];
+		for (byte type = EmployeeStore.SALARIED; type < byPay.length; type++) {
+			byPay[type] = new TreeSet<Integer>(payOrder);
+		}
+		bySales = new TreeSet<Integer>(new RowOrder(true));
+	}
+
+	/*
+	 * Marks a row to be filed again by the next query. Called by Account
+	 * whenever an employee is hired or their hours or sales change. Only
+	 * takes the monitor when the bitmap has to grow for a new row.
+	 */
+	void rowChanged(int row) {
+		AtomicLongArray words = dirty;
+		if ((row >>> 6) >= words.length()) {
+			words = grow(row >>> 6);
+		}
+		mark(words, row, true);
+		if (dirty != words) {
+			mark(dirty, row, true);
+		}
+	}
+
+	/*
+	 * Takes a row out of the index. Called by Account when the employee in
+	 * the row is terminated, before the row becomes a tombstone.
+	 */
+	synchronized void rowRemoved(int row) {
+		if (!stale) {
+			unfile(account.empStore.getType(row), row);
+		}
+		mark(dirty, row, false);
+	}
+
+	/*
+	 * Follows an employee moved from one row to another by compaction: the
+	 * old row is taken out and the new one is filed by the next query.
+	 */
+	synchronized void rowMoved(int from, int to) {
+		if (!stale) {
+			unfile(account.empStore.getType(to), from);
+		}
+		mark(dirty, from, false);
+		rowChanged(to);
+	}
+
+	/*
+	 * Marks every row to be filed again by the next query. Called by Account
+	 * on a new pay period and when a pay plan changes.
+	 */
+	synchronized void invalidate() {
+		stale = true;
+	}
+
+	/*
+	 * Private helper run by every query first, filing the rows changed since
+	 * the last query (or every row if the index is stale).
+	 */
+	private void update() {
+		EmployeeStore store = account.empStore;
+		AtomicLongArray words = dirty;
+		if (stale) {
+			stale = false;
+			for (int w = 0; w < words.length(); w++) {
+				words.set(w, 0);
+			}
+			rebuild(store);
+		} else {
+			for (int w = 0; w < words.length(); w++) {
+				if (words.get(w) != 0) {
+					long bits = words.getAndSet(w, 0);
+					while (bits != 0) {
+						int row = (w << 6) + Long.numberOfTrailingZeros(bits);
+						file(store, row);
+						bits &= bits - 1;
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * Private helper replacing the bitmap with one holding at least word + 1
+	 * words, unless another thread already did, and returning the new one.
+	 * The marks are copied after the new bitmap is published, so a mark made
+	 * in the old one is either copied or made again by its thread.
+	 */
+	private synchronized AtomicLongArray grow(int word) {
+		AtomicLongArray old = dirty;
+		if (word >= old.length()) {
+			AtomicLongArray grown = new AtomicLongArray(
+					DatarrayList.newCapacity(old.length(), word + 1));
+			dirty = grown;
+			for (int w = 0; w < old.length(); w++) {
+				long bits = old.get(w);
+				while (bits != 0) {
+					mark(grown, (w << 6) + Long.numberOfTrailingZeros(bits),
+							true);
+					bits &= bits - 1;
+				}
+			}
+		}
+		return dirty;
+	}
+
+	/*
+	 * Private helper setting (or clearing) the bit of a row in a bitmap. A
+	 * row already marked costs a single read, and a row beyond the bitmap
+	 * (never marked) is left alone.
+	 */
+	private static void mark(AtomicLongArray words, int row, boolean set) {
+		int word = row >>> 6;
+		long bit = 1L << row;
+		if (word < words.length()) {
+			long old = words.get(word);
+			while (((old & bit) == 0) == set && !words.compareAndSet(word,
+					old, set ? old | bit : old & ~bit)) {
+				old = words.get(word);
+			}
+		}
+	}
+
+	/*
+	 * Private helper filing a row under its current pay, sales and hours,
+	 * moving it if it was filed before.
+	 */
+	private void file(EmployeeStore store, int row) {
+		if (row >= payKeys.length) {
+			int capacity = DatarrayList.newCapacity(payKeys.length, row + 1);
+			payKeys = Arrays.copyOf(payKeys, capacity);
+			saleKeys = Arrays.copyOf(saleKeys, capacity);
+		}
+		byte type = store.getType(row);
+		Integer boxed = row;
+		boolean isFiled = filed.get(row);
+		long pay = store.totalPayCents(row);
+		TreeSet<Integer> payOrder = byPay[type];
+		if (pay != payKeys[row] || !isFiled) {
+			payOrder.remove(boxed);
+			payKeys[row] = pay;
+			payOrder.add(boxed);
+		}
+		if (type == EmployeeStore.COMMISSIONED) {
+			long sales = store.getSaleCents(row);
+			if (sales != saleKeys[row] || !isFiled) {
+				bySales.remove(boxed);
+				saleKeys[row] = sales;
+				bySales.add(boxed);
+			}
+		} else if (type == EmployeeStore.SALARIED) {
+			atHourCap.set(row,
+					!SalariedEmployee.hoursAccepted(store.getHours(row)));
+		}
+		filed.set(row);
+	}
+
+	/*
+	 * Private helper taking a row of the given type out of the orders it was
+	 * filed in.
+	 */
+	private void unfile(byte type, int row) {
+		if (filed.get(row)) {
+			Integer boxed = row;
+			byPay[type].remove(boxed);
+			if (type == EmployeeStore.COMMISSIONED) {
+				bySales.remove(boxed);
+			}
+			atHourCap.clear(row);
+			filed.clear(row);
+		}
+	}
+
+	/*
+	 * Private helper filing every row of the store again, skipping
+	 * tombstones.
+	 */
+	private void rebuild(EmployeeStore store) {
+		for (TreeSet<Integer> payOrder : byPay) {
+			if (payOrder != null) {
+				payOrder.clear();
+			}
+		}
+		bySales.clear();
+		atHourCap.clear();
+		filed.clear();
+		int size = store.size();
+		for (int row = 0; row < size; row++) {
+			if (store.isLive(row)) {
+				file(store, row);
+			}
+		}
+	}
+
+	/*
+	 * Returns the names of the k best paid employees of the account this
+	 * period, best paid first.
+	 */
+	public synchronized String[] topEarners(int k) {
+		update();
+		// merges the pay orders of the types, taking the best paid of the
+		// rows at the top of each until k rows are taken
+		Iterator<Integer>[] tops = descendingIterators();
+		int[] heads = new int[tops.length];
+		for (int t = 0; t < tops.length; t++) {
+			heads[t] = tops[t].hasNext() ? tops[t].next() : -1;
+		}
+		String[] retVal = new String[Math.min(Math.max(k, 0), size())];
+		for (int i = 0; i < retVal.length; i++) {
+			int best = -1;
+			for (int t = 0; t < heads.length; t++) {
+				if (heads[t] >= 0 && (best < 0
+						|| payKeys[heads[t]] > payKeys[heads[best]])) {
+					best = t;
+				}
+			}
+			retVal[i] = nameOf(heads[best]);
+			heads[best] = tops[best].hasNext() ? tops[best].next() : -1;
+		}
+		return retVal;
+	}
+
+	/*
+	 * Returns the names of the k best paid employees of the given type (an
+	 * EmployeeStore type tag) this period, best paid first, or null if there
+	 * is no such type.
+	 */
+	public synchronized String[] topEarners(byte type, int k) {
+		String[] retVal = null;
+		update();
+		if (EmployeeStore.isType(type)) {
+			retVal = first(byPay[type].descendingSet(), k);
+		}
+		return retVal;
+	}
+
+	/*
+	 * Returns the names of the commissioned employees with the k largest
+	 * sales this period, largest first.
+	 */
+	public synchronized String[] topSellers(int k) {
+		update();
+		return first(bySales.descendingSet(), k);
+	}
+
+	/*
+	 * Returns the names of the employees of the given type whose pay this
+	 * period is from minPay to maxPay (both included), lowest paid first, or
+	 * null if there is no such type.
+	 */
+	public synchronized String[] payBetween(byte type, double minPay,
+			double maxPay) {
+		String[] retVal = null;
+		update();
+		if (EmployeeStore.isType(type)) {
+			retVal = range(byPay[type], boundCents(minPay),
+					boundCents(maxPay));
+		}
+		return retVal;
+	}
+
+	/*
+	 * Returns the names of the commissioned employees whose sales this period
+	 * are from minSales to maxSales (both included), lowest first. Passing 0
+	 * for both gives every commissioned employee with no sales.
+	 */
+	public synchronized String[] salesBetween(double minSales,
+			double maxSales) {
+		update();
+		return range(bySales, boundCents(minSales), boundCents(maxSales));
+	}
+
+	/*
+	 * Private helper turning a bound of a range query into cents. Bounds
+	 * beyond Money.MAX_AMOUNT (up to infinity) leave that end of the range
+	 * open.
+	 */
+	private static long boundCents(double amount) {
+		long retVal;
+		if (amount > Money.MAX_AMOUNT) {
+			retVal = Long.MAX_VALUE;
+		} else if (amount < -Money.MAX_AMOUNT) {
+			retVal = Long.MIN_VALUE;
+		} else {
+			retVal = Money.toCents(amount);
+		}
+		return retVal;
+	}
+
+	/*
+	 * Returns the names of the salaried employees whose hours this period
+	 * have reached SalariedEmployee.MAX_HOURS, so that further hours are
+	 * refused, in the order they were hired.
+	 */
+	public synchronized String[] atHourCap() {
+		update();
+		String[] retVal = new String[atHourCap.cardinality()];
+		int row = atHourCap.nextSetBit(0);
+		for (int i = 0; i < retVal.length; i++) {
+			retVal[i] = nameOf(row);
+			row = atHourCap.nextSetBit(row + 1);
+		}
+		return retVal;
+	}
+
+	/*
+	 * Returns the names of every employee of the given type, lowest paid
+	 * first, or null if there is no such type.
+	 */
+	public synchronized String[] ofType(byte type) {
+		String[] retVal = null;
+		update();
+		if (EmployeeStore.isType(type)) {
+			retVal = first(byPay[type], Integer.MAX_VALUE);
+		}
+		return retVal;
+	}
+
+	/*
+	 * Private helpers returning the names of the first k rows of an order,
+	 * and of the rows of an order filed under a value from low to high.
+	 */
+	private String[] first(NavigableSet<Integer> order, int k) {
+		String[] retVal = new String[Math.min(Math.max(k, 0), order.size())];
+		Iterator<Integer> rows = order.iterator();
+		for (int i = 0; i < retVal.length; i++) {
+			retVal[i] = nameOf(rows.next());
+		}
+		return retVal;
+	}
+
+	private String[] range(TreeSet<Integer> order, long from, long to) {
+		String[] retVal = new String[0];
+		if (from <= to) {
+			low = from;
+			high = to;
+			retVal = first(order.subSet(LOW, true, HIGH, true),
+					Integer.MAX_VALUE);
+		}
+		return retVal;
+	}
+
+	/*
+	 * Private helpers for topEarners: an iterator from the best paid row of
+	 * each type, and the number of rows filed.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Iterator<Integer>[] descendingIterators() {
+		Iterator<Integer>[] retVal = new Iterator[byPay.length - 1];
+		for (int t = 0; t < retVal.length; t++) {
+			retVal[t] = byPay[t + 1].descendingIterator();
+		}
+		return retVal;
+	}
+
+	private int size() {
+		int size = 0;
+		for (TreeSet<Integer> payOrder : byPay) {
+			if (payOrder != null) {
+				size += payOrder.size();
+			}
+		}
+		return size;
+	}
+
+	// Private helper returning the name of the employee in a row.
+	private String nameOf(int row) {
+		return account.empStore.getName(row);
+	}
+}
@@ -0,0 +1,826 @@
+package businessOffice;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * The EmployeeStore class stores the data of every employee in an account as
+ * a set of parallel primitive arrays (columns) instead of one object per
+ * employee. Every employee occupies one row: names[row] holds its name,
+ * types[row] a tag saying whether it is salaried, hourly or commissioned,
+ * hours[row] and sales[row] the hours and sale amount (in cents) of the
+ * current pay period, salaries[row] the yearly salary, hourly wage or yearly
+ * base salary in cents and rates[row] the commission rate of a commissioned
+ * employee. periods[row] holds the pay period the hours and sales of the row
+ * were last written in; see below. Keeping the
+ * numbers in primitive arrays means the payroll loops below run
+ * straight over int and long arrays with no casting or pointer chasing. The
+ * class also keeps a HashMap from employee name to row so employees can be
+ * found with a single hash probe. The pay rules themselves are not written
+ * here: the store holds a PayPlan for each type, compiled into a
+ * PayPlan.Formula, and the pay of a row is the formula of its type applied
+ * to the row. Employee objects are created as views over one row using the
+ * view() method. All amounts of money are whole cents, see the Money class.
+ *
+ * Besides the columns, the store keeps the rows of each type in a list of its
+ * own (in the order they were added, see below for terminated rows). The pay
+ * of a single row is found by picking the formula of its type tag, but the
+ * full payroll is summed one type at a time (salariedPayrollCents,
+ * hourlyPayrollCents and commissionedPayrollCents): each loop only ever calls
+ * the one formula of its type, with no type test inside the loop, so the call
+ * can be inlined.
+ *
+ * The store also keeps a running total of the pay of every row, updated
+ * whenever a row is added, its sales change or the hours of an hourly
+ * employee change, and worked out again when a plan is set, so the payroll
+ * can be read
+ * without a loop. As the total is a sum of longs it is always exact. A second
+ * running total holds what the payroll is at the start of a pay period (the
+ * pay of every row with no sales), which is what the total is reset to on a
+ * new pay period. recomputePayrollCents() still sums every row (in parallel
+ * for large stores, see PayrollEngine) so the two can be compared.
+ *
+ * A store does no locking of its own. A store created for a ConcurrentAccount
+ * uses a ConcurrentHashMap as its index so names can be looked up while
+ * employees are being hired, and the running payroll total is an AtomicLong
+ * in every store so changes to different rows can be added to it at the same
+ * time. Everything else is guarded by the locks of ConcurrentAccount.
+ *
+ * A new pay period does not go through the rows. The store counts pay
+ * periods, and hours and sales written in an earlier period than the current
+ * one count as 0: the getters return 0 for them, the payroll loops skip them,
+ * and the setters clear both before writing to a row of an earlier period.
+ * resetPayPeriod() then only has to move on to the next period and reset the
+ * running total, which takes the same time however many employees there are.
+ *
+ * Terminating an employee (remove()) leaves its row in place as a tombstone:
+ * the name is cleared, the employee is taken out of the name index and the
+ * list of its type, and the salary, rate, hours and sales of the row are set
+ * to 0 so that every pay plan pays it nothing. The payroll loops therefore go
+ * on without a test for terminated rows. Each row keeps its position in the
+ * list of its type, so a row is taken out of the list by moving the last row
+ * of the list into its place. compact() later moves the last live rows into
+ * the tombstones a few at a time and shrinks the store, telling a RowMoves
+ * about every row it moves. Every row also has an employee number that never
+ * changes, given out in the order employees are added (see getId()).
+ *
+ * While an AccountView is open over the store, every row is handed to the
+ * newest view (beforeWrite() and beforeRemove()) before it is changed in
+ * place or terminated, so the view can keep a copy of it as it was. Rows
+ * added meanwhile are not part of any open view and are not handed over.
+ *
+ * OffHeapEmployeeStore keeps the same columns outside the Java heap for very
+ * large accounts. It overrides every method of this class that touches the
+ * columns, and shares the pay plans and running totals kept here.
+ */
+public class EmployeeStore {
+	// Type tags stored in the types column, one for each subclass of the
+	// sealed Employee class.
+	public static final byte SALARIED = 1;
+	public static final byte COMMISSIONED = 2;
+	public static final byte HOURLY = 3;
+
+	// Number of entries of the arrays indexed by type tag (tags start at 1).
+	static final int TYPE_SLOTS = 4;
+
+	private String[] names;
+	private byte[] types;
+	private int[] hours;
+	private long[] sales;
+	private long[] salaries;
+	private double[] rates;
+	private int[] periods;
+	private int[] ids;
+	private int size = 0;
+
+	// Number of tombstones among the rows, the lowest row that may be one
+	// (Integer.MAX_VALUE if there are none), and the employee number the
+	// next row gets.
+	private int dead = 0;
+	private int firstHole = Integer.MAX_VALUE;
+	private int nextId = 0;
+
+	// The current pay period (package-private for OffHeapEmployeeStore).
+	int period = 0;
+
+	// Rows of each type, indexed by type tag: typeRows[type][0] to
+	// typeRows[type][typeCounts[type] - 1], and where each row is in the
+	// list of its type.
+	private final int[][] typeRows = new int[TYPE_SLOTS][];
+	private final int[] typeCounts = new int[TYPE_SLOTS];
+	private int[] typePos;
+
+	// The pay plan of each type and the formula it was compiled into,
+	// indexed by type tag.
+	private final PayPlan[] plans = new PayPlan[TYPE_SLOTS];
+	private final PayPlan.Formula[] formulas =
+			new PayPlan.Formula[TYPE_SLOTS];
+
+	// Running payroll total in cents, and the payroll at the start of a pay
+	// period (package-private for OffHeapEmployeeStore).
+	final AtomicLong payTotal = new AtomicLong();
+	long baseTotal = 0;
+
+	// Index from employee name to the row the employee occupies.
+	private final Map<String, Integer> rowIndex;
+
+	// The newest AccountView open over the store, or null if there is none
+	// (see beforeWrite()).
+	AccountView newestView;
+
+	/*
+	 * If the store is constructed without any argument, the columns are
+	 * created with room for 16 employees.
+	 */
+	public EmployeeStore() {
+		this(16);
+	}
+
+	/*
+	 * This constructor creates the columns with room for the given number of
+	 * employees. In case of the capacity being negative or 0, room for a
+	 * single employee is made.
+	 */
+	public EmployeeStore(int capacity) {
+		this(capacity, false);
+	}
+
+	/*
+	 * This constructor also chooses whether the name index can be used by
+	 * several threads at once (a ConcurrentHashMap) or not (a HashMap).
+	 */
+	public EmployeeStore(int capacity, boolean concurrentIndex) {
+		if (concurrentIndex) {
+			rowIndex = new ConcurrentHashMap<String, Integer>();
+		} else {
+			rowIndex = new HashMap<String, Integer>();
+		}
+		if (capacity < 1) {
+			capacity = 1;
+		}
+		initTypes();
+		names = new String[capacity];
+		types = new byte[capacity];
+		hours = new int[capacity];
+		sales = new long[capacity];
+		salaries = new long[capacity];
+		rates = new double[capacity];
+		periods = new int[capacity];
+		ids = new int[capacity];
+		typePos = new int[capacity];
+	}
+
+	/*
+	 * Constructor used by AccountSnapshot to create a store from columns read
+	 * from a snapshot. The arrays are used as they are (not copied) and hold
+	 * size rows. The name index and the running payroll totals are rebuilt
+	 * from the columns.
+	 */
+	EmployeeStore(String[] names, byte[] types, int[] hours, long[] sales,
+			long[] salaries, double[] rates, int size,
+			boolean concurrentIndex) {
+		if (concurrentIndex) {
+			rowIndex = new ConcurrentHashMap<String, Integer>(size);
+		} else {
+			rowIndex = new HashMap<String, Integer>(size * 4 / 3 + 1);
+		}
+		this.names = names;
+		this.types = types;
+		this.hours = hours;
+		this.sales = sales;
+		this.salaries = salaries;
+		this.rates = rates;
+		this.periods = new int[names.length];
+		this.ids = new int[names.length];
+		this.typePos = new int[names.length];
+		this.size = size;
+		initTypes();
+
+		for (int i = 0; i < size; i++) {
+			rowIndex.put(names[i], i);
+			addTypeRow(types[i], i);
+			ids[i] = nextId++;
+		}
+		recomputeTotals();
+	}
+
+	/*
+	 * Returns the number of rows in the store, terminated ones included.
+	 * Rows are numbered 0 to size() - 1.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/*
+	 * Returns the number of employees in the store, i.e. the rows that are
+	 * not tombstones, and the number of tombstones.
+	 */
+	public int numEmployees() {
+		return size - dead;
+	}
+
+	public int numTerminated() {
+		return dead;
+	}
+
+	/*
+	 * Returns the number of rows the columns have room for.
+	 */
+	public int capacity() {
+		return names.length;
+	}
+
+	/*
+	 * Returns the row the employee with the given name occupies, or -1 if
+	 * there is no such employee (or the name is null).
+	 */
+	public int find(String name) {
+		int retVal = -1;
+		if (name != null) {
+			Integer row = rowIndex.get(name);
+			if (row != null) {
+				retVal = row;
+			}
+		}
+		return retVal;
+	}
+
+	/*
+	 * Adds a new row for an employee with the given name, type tag, yearly
+	 * salary in cents (salaried) and commission rate (commissioned) and
+	 * returns the row number. Hours and sales of the new row start at 0. The
+	 * caller is responsible for making sure the name is not already in the
+	 * store. Throws an IllegalArgumentException if the type is not SALARIED,
+	 * HOURLY or COMMISSIONED.
+	 */
+	public int add(String name, byte type, long salaryCents, double rate) {
+		if (!isType(type)) {
+			throw new IllegalArgumentException("unknown employee type "
+					+ type);
+		}
+		if (size == names.length) {
+			ensureCapacity(size + 1);
+		}
+		int row = size++;
+		names[row] = name;
+		types[row] = type;
+		salaries[row] = salaryCents;
+		rates[row] = rate;
+		hours[row] = 0;
+		sales[row] = 0;
+		periods[row] = period;
+		ids[row] = nextId++;
+		rowIndex.put(name, row);
+		addTypeRow(type, row);
+
+		long pay = formulas[type].payCents(salaryCents, rate, 0, 0);
+		payTotal.addAndGet(pay);
+		baseTotal += pay;
+		return row;
+	}
+
+	/*
+	 * Returns the name of the employee in the given row, or null if the row
+	 * is a tombstone.
+	 */
+	public String getName(int row) {
+		return names[row];
+	}
+
+	/*
+	 * Returns true if the given row holds an employee and false if it is a
+	 * tombstone.
+	 */
+	public boolean isLive(int row) {
+		return names[row] != null;
+	}
+
+	/*
+	 * Returns true if the given row holds the employee with the given name.
+	 * Used by ConcurrentAccount to check that a row looked up without a lock
+	 * is still the employee's.
+	 */
+	boolean isRowOf(int row, String name) {
+		return row < size && name.equals(names[row]);
+	}
+
+	/*
+	 * Returns the employee number of the row. Numbers are given out from 0
+	 * in the order employees are added and stay with the employee when
+	 * compact() moves it to another row; a snapshot numbers its employees
+	 * again from 0.
+	 */
+	public int getId(int row) {
+		return ids[row];
+	}
+
+	public byte getType(int row) {
+		return types[row];
+	}
+
+	public int getHours(int row) {
+		return periods[row] == period ? hours[row] : 0;
+	}
+
+	public long getSaleCents(int row) {
+		return periods[row] == period ? sales[row] : 0;
+	}
+
+	public long getSalaryCents(int row) {
+		return salaries[row];
+	}
+
+	public double getRate(int row) {
+		return rates[row];
+	}
+
+	/*
+	 * Returns the pay period the hours and sales of the row were last
+	 * written in, and the hours and sales of the row as of the given pay
+	 * period (0 if they were written in another one). Used by AccountView,
+	 * which reads rows as of the pay period it was opened in.
+	 */
+	int periodOf(int row) {
+		return periods[row];
+	}
+
+	int hoursIn(int row, int period) {
+		return periods[row] == period ? hours[row] : 0;
+	}
+
+	long saleCentsIn(int row, int period) {
+		return periods[row] == period ? sales[row] : 0;
+	}
+
+	/*
+	 * Raw setters used by the Employee views. They do not apply any of the
+	 * hour or sale rules, but a change of pay (the sales of any employee or
+	 * the hours of an hourly one) is still added to the running payroll
+	 * total.
+	 */
+	void setHours(int row, int value) {
+		beforeWrite(row);
+		catchUp(row);
+		if (types[row] == HOURLY) {
+			long before = totalPayCents(row);
+			hours[row] = value;
+			payTotal.addAndGet(totalPayCents(row) - before);
+		} else {
+			hours[row] = value;
+		}
+	}
+
+	void setSaleCents(int row, long value) {
+		beforeWrite(row);
+		catchUp(row);
+		long before = totalPayCents(row);
+		sales[row] = value;
+		payTotal.addAndGet(totalPayCents(row) - before);
+	}
+
+	/*
+	 * This method checks whether the employee in the given row may log more
+	 * hours if it has already worked currentHours in this pay period. Only
+	 * salaried employees are limited, using SalariedEmployee.hoursAccepted().
+	 */
+	public boolean canAddHours(int row, int currentHours) {
+		boolean flag = true;
+		if (types[row] == SALARIED) {
+			flag = SalariedEmployee.hoursAccepted(currentHours);
+		}
+		return flag;
+	}
+
+	/*
+	 * Adds hours to the employee in the given row following the rules of its
+	 * type. Returns true if the hours were added and false otherwise.
+	 */
+	public boolean addHours(int row, int numHours) {
+		boolean flag = false;
+		int current = getHours(row);
+		if (canAddHours(row, current)) {
+			setHours(row, current + numHours);
+			flag = true;
+		}
+		return flag;
+	}
+
+	/*
+	 * Adds a sale amount in cents to the employee in the given row. Only
+	 * commissioned employees keep track of their sales, so nothing is added
+	 * for the others.
+	 */
+	public void addSaleCents(int row, long saleCents) {
+		if (types[row] == COMMISSIONED) {
+			setSaleCents(row, getSaleCents(row) + saleCents);
+		}
+	}
+
+	/*
+	 * Returns the pay in cents of the employee in the given row for the
+	 * current pay period, using the pay plan of its type.
+	 */
+	public long totalPayCents(int row) {
+		return formulas[types[row]].payCents(salaries[row], rates[row],
+				getHours(row), getSaleCents(row));
+	}
+
+	/*
+	 * Returns the total pay in cents of every employee in the store from the
+	 * running total, without looping over the rows.
+	 */
+	public long payrollCents() {
+		return payTotal.get();
+	}
+
+	/*
+	 * Returns the total pay in cents of every employee in the store by summing
+	 * every row with the PayrollEngine, one type at a time and split over
+	 * several threads for large stores. Used to check the running total.
+	 */
+	public long recomputePayrollCents() {
+		return PayrollEngine.payrollCents(this);
+	}
+
+	/*
+	 * Returns the total pay in cents of the rows from (inclusive) to to
+	 * (exclusive). This is a single loop over the columns, picking the
+	 * formula of each row by its type tag.
+	 */
+	public long payrollCents(int from, int to) {
+		long totalAmt = 0;
+		for (int i = from; i < to; i++) {
+			totalAmt += formulas[types[i]].payCents(salaries[i], rates[i],
+					getHours(i), getSaleCents(i));
+		}
+		return totalAmt;
+	}
+
+	/*
+	 * Returns the number of rows of the given type.
+	 */
+	public int numOfType(byte type) {
+		return isType(type) ? typeCounts[type] : 0;
+	}
+
+	/*
+	 * Returns the total pay in cents of the rows of the given type from
+	 * (inclusive) to to (exclusive), counted among the rows of that type only
+	 * (0 to numOfType(type)), using the loop for that type below.
+	 */
+	public long payrollCentsOfType(byte type, int from, int to) {
+		long totalAmt;
+		if (type == SALARIED) {
+			totalAmt = salariedPayrollCents(from, to);
+		} else if (type == HOURLY) {
+			totalAmt = hourlyPayrollCents(from, to);
+		} else {
+			totalAmt = commissionedPayrollCents(from, to);
+		}
+		return totalAmt;
+	}
+
+	/*
+	 * These return the total pay in cents of the salaried, hourly and
+	 * commissioned rows from (inclusive) to to (exclusive), counted among the
+	 * rows of that type only. Each is a separate loop so that its call to
+	 * the formula of the type only ever sees one kind of formula, and reads
+	 * only the columns the plans of its type use. Hours and sales of an
+	 * earlier pay period are read as 0.
+	 */
+	public long salariedPayrollCents(int from, int to) {
+		int[] rows = typeRows[SALARIED];
+		PayPlan.Formula formula = formulas[SALARIED];
+		long totalAmt = 0;
+		for (int i = from; i < to; i++) {
+			int row = rows[i];
+			totalAmt += formula.payCents(salaries[row], 0.0, 0, 0);
+		}
+		return totalAmt;
+	}
+
+	public long hourlyPayrollCents(int from, int to) {
+		int[] rows = typeRows[HOURLY];
+		PayPlan.Formula formula = formulas[HOURLY];
+		int current = period;
+		long totalAmt = 0;
+		for (int i = from; i < to; i++) {
+			int row = rows[i];
+			int worked = periods[row] == current ? hours[row] : 0;
+			totalAmt += formula.payCents(salaries[row], 0.0, worked, 0);
+		}
+		return totalAmt;
+	}
+
+	public long commissionedPayrollCents(int from, int to) {
+		int[] rows = typeRows[COMMISSIONED];
+		PayPlan.Formula formula = formulas[COMMISSIONED];
+		int current = period;
+		long totalAmt = 0;
+		for (int i = from; i < to; i++) {
+			int row = rows[i];
+			long sold = periods[row] == current ? sales[row] : 0;
+			totalAmt += formula.payCents(salaries[row], rates[row], 0, sold);
+		}
+		return totalAmt;
+	}
+
+	/*
+	 * Returns the pay plan of the given type, or null if it is not a type
+	 * tag.
+	 */
+	public PayPlan getPayPlan(byte type) {
+		return isType(type) ? plans[type] : null;
+	}
+
+	/*
+	 * Replaces the pay plan of the plan's type and works the running payroll
+	 * totals out again for the new plan. Called by Account.setPayPlan(),
+	 * which makes sure no other thread uses the store meanwhile.
+	 */
+	void setPayPlan(PayPlan plan) {
+		plans[plan.getType()] = plan;
+		formulas[plan.getType()] = plan.compile();
+		recomputeTotals();
+	}
+
+	/*
+	 * Returns true if the type tag is one of the tags above.
+	 */
+	public static boolean isType(byte type) {
+		return type == SALARIED || type == COMMISSIONED || type == HOURLY;
+	}
+
+	/*
+	 * Resets the hours and sales of every employee to 0 for a new pay period
+	 * by moving on to the next period, without going through the rows. The
+	 * running payroll total goes back to the payroll of a period with no
+	 * hours and no sales.
+	 */
+	public void resetPayPeriod() {
+		period++;
+		payTotal.set(baseTotal);
+	}
+
+	/*
+	 * Terminates the employee in the given row, leaving a tombstone (see
+	 * above). The running payroll totals lose the pay of the row. The caller
+	 * makes sure no other thread uses the store meanwhile.
+	 */
+	void remove(int row) {
+		beforeRemove(row);
+		byte type = types[row];
+		payTotal.addAndGet(-totalPayCents(row));
+		baseTotal -= formulas[type].payCents(salaries[row], rates[row], 0, 0);
+		rowIndex.remove(names[row]);
+		removeTypeRow(type, row);
+		names[row] = null;
+		hours[row] = 0;
+		sales[row] = 0;
+		salaries[row] = 0;
+		rates[row] = 0.0;
+		dead++;
+		firstHole = Math.min(firstHole, row);
+	}
+
+	/*
+	 * Told about every row compact() moves, so that whatever keeps rows by
+	 * number (e.g. EmployeeIndex) can follow the employee.
+	 */
+	interface RowMoves {
+		void rowMoved(int from, int to);
+	}
+
+	/*
+	 * Does at most maxRows rows of compaction: tombstones at the end of the
+	 * store are dropped, and the last employee is moved into the lowest
+	 * tombstone, until none is left. moves (if not null) is told about every
+	 * move. Returns true if the store has no tombstones left. The caller
+	 * makes sure no other thread uses the store meanwhile.
+	 */
+	boolean compact(int maxRows, RowMoves moves) {
+		for (int work = 0; dead > 0 && work < maxRows; work++) {
+			if (names[size - 1] == null) {
+				size--;
+				dead--;
+			} else {
+				while (names[firstHole] != null) {
+					firstHole++;
+				}
+				int from = size - 1;
+				moveRow(from, firstHole);
+				if (moves != null) {
+					moves.rowMoved(from, firstHole);
+				}
+				size--;
+				dead--;
+			}
+		}
+		if (dead == 0) {
+			firstHole = Integer.MAX_VALUE;
+		}
+		return dead == 0;
+	}
+
+	/*
+	 * Returns an Employee object of the right subclass which reads and writes
+	 * the given row of this store.
+	 */
+	public Employee view(int row) {
+		Employee emp;
+		if (types[row] == SALARIED) {
+			emp = new SalariedEmployee(this, row);
+		} else if (types[row] == HOURLY) {
+			emp = new HourlyEmployee(this, row);
+		} else {
+			emp = new CommissionEmployee(this, row);
+		}
+		return emp;
+	}
+
+	/*
+	 * Makes sure every column has room for at least minCapacity employees so
+	 * that a known headcount can be hired without the columns growing again.
+	 * Columns grow following DatarrayList.newCapacity(), copying the existing
+	 * rows over with Arrays.copyOf.
+	 */
+	public void ensureCapacity(int minCapacity) {
+		if (minCapacity > names.length) {
+			resize(DatarrayList.newCapacity(names.length, minCapacity));
+		}
+	}
+
+	/*
+	 * Shrinks every column to the number of employees stored.
+	 */
+	public void trimToSize() {
+		int newCapacity = Math.max(size, 1);
+		if (newCapacity < names.length) {
+			resize(newCapacity);
+		}
+	}
+
+	/*
+	 * Package-private access to the columns themselves, used by
+	 * AccountSnapshot to copy them in bulk. Only the first size() entries of
+	 * each array are rows, and tombstones have no name. The hours and sales
+	 * are copies of the first size() rows holding what the getters return,
+	 * as the rows of an earlier pay period are not cleared in place (an open
+	 * AccountView may still read them).
+	 */
+	String[] namesColumn() {
+		return names;
+	}
+
+	byte[] typesColumn() {
+		return types;
+	}
+
+	int[] hoursColumn() {
+		int[] column = new int[size()];
+		for (int i = 0; i < column.length; i++) {
+			column[i] = getHours(i);
+		}
+		return column;
+	}
+
+	long[] salesColumn() {
+		long[] column = new long[size()];
+		for (int i = 0; i < column.length; i++) {
+			column[i] = getSaleCents(i);
+		}
+		return column;
+	}
+
+	long[] salariesColumn() {
+		return salaries;
+	}
+
+	double[] ratesColumn() {
+		return rates;
+	}
+
+	/*
+	 * Private helper giving every type an empty list of rows and its default
+	 * pay plan.
+	 */
+	private void initTypes() {
+		for (byte type = SALARIED; type < TYPE_SLOTS; type++) {
+			typeRows[type] = new int[16];
+			plans[type] = PayPlan.defaultPlan(type);
+			formulas[type] = plans[type].compile();
+		}
+	}
+
+	/*
+	 * Private helper adding a row to the list of rows of its type.
+	 */
+	private void addTypeRow(byte type, int row) {
+		int count = typeCounts[type];
+		if (count == typeRows[type].length) {
+			typeRows[type] = Arrays.copyOf(typeRows[type],
+					DatarrayList.newCapacity(count, count + 1));
+		}
+		typeRows[type][count] = row;
+		typePos[row] = count;
+		typeCounts[type] = count + 1;
+	}
+
+	/*
+	 * Private helpers taking a row out of the list of its type, moving the
+	 * last row of the list into its place, and moving a row into a tombstone
+	 * (see compact()).
+	 */
+	private void removeTypeRow(byte type, int row) {
+		int count = --typeCounts[type];
+		int last = typeRows[type][count];
+		typeRows[type][typePos[row]] = last;
+		typePos[last] = typePos[row];
+	}
+
+	private void moveRow(int from, int to) {
+		names[to] = names[from];
+		types[to] = types[from];
+		hours[to] = hours[from];
+		sales[to] = sales[from];
+		salaries[to] = salaries[from];
+		rates[to] = rates[from];
+		periods[to] = periods[from];
+		ids[to] = ids[from];
+		typePos[to] = typePos[from];
+		typeRows[types[to]][typePos[to]] = to;
+		rowIndex.put(names[to], to);
+		names[from] = null;
+	}
+
+	/*
+	 * Private helper clearing the hours and sales of a row written in an
+	 * earlier pay period and marking them as of the current one.
+	 */
+	private void catchUp(int row) {
+		if (periods[row] != period) {
+			hours[row] = 0;
+			sales[row] = 0;
+			periods[row] = period;
+		}
+	}
+
+	/*
+	 * Hand a row about to be changed in place, or terminated, to the newest
+	 * open AccountView, if any, so that it can copy the row first. Called by
+	 * the setters and remove() of this class and of OffHeapEmployeeStore.
+	 */
+	final void beforeWrite(int row) {
+		AccountView view = newestView;
+		if (view != null) {
+			view.rowWritten(row);
+		}
+	}
+
+	final void beforeRemove(int row) {
+		AccountView view = newestView;
+		if (view != null) {
+			view.rowRemoved(row, getName(row));
+		}
+	}
+
+	/*
+	 * Returns the compiled pay plan of a type tag, for OffHeapEmployeeStore.
+	 */
+	PayPlan.Formula formulaOf(byte type) {
+		return formulas[type];
+	}
+
+	/*
+	 * Works both running payroll totals out from the rows. Overridden by
+	 * OffHeapEmployeeStore, whose rows are not in the columns of this class.
+	 */
+	void recomputeTotals() {
+		long base = 0;
+		for (int i = 0; i < size; i++) {
+			base += formulas[types[i]].payCents(salaries[i], rates[i], 0, 0);
+		}
+		baseTotal = base;
+		payTotal.set(payrollCents(0, size));
+	}
+
+	/*
+	 * Private method to give every column the given length, copying the
+	 * existing rows over.
+	 */
+	private void resize(int newCapacity) {
+		names = Arrays.copyOf(names, newCapacity);
+		types = Arrays.copyOf(types, newCapacity);
+		hours = Arrays.copyOf(hours, newCapacity);
+		sales = Arrays.copyOf(sales, newCapacity);
+		salaries = Arrays.copyOf(salaries, newCapacity);
+		rates = Arrays.copyOf(rates, newCapacity);
+		periods = Arrays.copyOf(periods, newCapacity);
+		ids = Arrays.copyOf(ids, newCapacity);
+		typePos = Arrays.copyOf(typePos, newCapacity);
+	}
+}
@@ -0,0 +1,59 @@
+package businessOffice;
+
+/*
+ * The HourlyEmployee class is used to create objects of the Employee class
+ * which are SPECIFICALLY hourly i.e. paid a wage for every hour they work,
+ * with overtime paid at a higher rate. Like every Employee it is a view over
+ * a row of an EmployeeStore, where the employee's hourly wage is kept in
+ * cents in the salary column. How the hours are paid (after how many hours
+ * overtime starts and at what multiple of the wage) is decided by the hourly
+ * PayPlan of the store. This class includes three methods that it uses to
+ * override the parent class's methods of the same name.
+ */
+public final class HourlyEmployee extends Employee {
+
+	// This constructor overrides the default constructor from the Employee
+	// class it extends, using the parameters employee name and hourlyWage.
+	public HourlyEmployee(String name, double hourlyWage) {
+		super(name, EmployeeStore.HOURLY, Money.toCents(hourlyWage), 0.0);
+	}
+
+	// Constructor used by EmployeeStore.view() for an existing row.
+	HourlyEmployee(EmployeeStore store, int row) {
+		super(store, row);
+	}
+
+	/*
+	 * This method adds hours to the total number of hours an HourlyEmployee
+	 * has worked, overriding the method of the same name in the Employee
+	 * class. Every hour is paid (hours past the overtime threshold at the
+	 * overtime rate), so the hours are simply added and true is returned.
+	 */
+	@Override
+	public boolean addHours(int hours) {
+		super.addHours(hours);
+		return true;
+	}
+
+	/*
+	 * This method adds sales to the total number of sales an HourlyEmployee
+	 * has, overriding the method of the same name in the Employee class. As
+	 * the pay of an hourly employee only depends on their hours, the sales
+	 * are not stored, just as for a SalariedEmployee.
+	 */
+	@Override
+	public void addSaleAmt(double saleAmt) {
+		super.addSaleAmt(0.0);
+	}
+
+	/*
+	 * This method calculates the total pay of an HourlyEmployee, overriding
+	 * the method of the same name in the Employee class. It multiplies the
+	 * hours worked in the pay period by the hourly wage, paying the hours
+	 * over the overtime threshold of the hourly PayPlan at the overtime rate.
+	 */
+	@Override
+	public double totalPay() {
+		return Money.toDouble(store.totalPayCents(row));
+	}
+}
@@ -0,0 +1,129 @@
+package businessOffice;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * The LatencyHistogram class records durations (in nanoseconds) the way
+ * HdrHistogram does: values below 2^SUB_BITS each have their own bucket, and
+ * every power of 2 above that is split into 2^(SUB_BITS - 1) buckets of equal
+ * width, so any value is kept to within 1/64 (under 2%) of itself whatever its
+ * size, using a fixed array of a few thousand counts. Recording a value is a
+ * few shifts and an atomic increment, allocates nothing and may be done by
+ * many threads at once. Percentiles are read from the counts and are
+ * reported as the highest value of the bucket they fall in.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BITS = 7;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int HALF_COUNT = SUB_COUNT >> 1;
+
+	// Largest shift is for values using all 63 bits.
+	private static final int BUCKETS = SUB_COUNT
+			+ (63 - SUB_BITS + 1) * HALF_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/*
+	 * Records a value. Negative values are recorded as 0.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(bucketOf(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	// Returns the number of values recorded.
+	public long count() {
+		return count.sum();
+	}
+
+	// Returns the largest value recorded (exactly), or 0 if there is none.
+	public long max() {
+		return max.get();
+	}
+
+	// Returns the mean of the values recorded, or 0.0 if there is none.
+	public double mean() {
+		long n = count.sum();
+		return n == 0 ? 0.0 : (double) sum.sum() / n;
+	}
+
+	/*
+	 * Returns the value below or at which the given percentage (0 to 100) of
+	 * the recorded values fall, or 0 if nothing was recorded.
+	 */
+	public long percentile(double percent) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		long retVal = 0;
+		if (total > 0) {
+			long rank = (long) Math.ceil(total * Math.min(percent, 100.0)
+					/ 100.0);
+			rank = Math.max(rank, 1);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts.get(i);
+				if (seen >= rank) {
+					retVal = Math.min(highestValueOf(i), max());
+					break;
+				}
+			}
+		}
+		return retVal;
+	}
+
+	/*
+	 * Throws away every recorded value.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.reset();
+		sum.reset();
+		max.reset();
+	}
+
+	/*
+	 * Private helpers mapping a value to its bucket and a bucket to the
+	 * highest value it holds.
+	 */
+	private static int bucketOf(long value) {
+		int bucket;
+		if (value < SUB_COUNT) {
+			bucket = (int) value;
+		} else {
+			int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS + 1;
+			bucket = SUB_COUNT + (shift - 1) * HALF_COUNT
+					+ (int) (value >>> shift) - HALF_COUNT;
+		}
+		return bucket;
+	}
+
+	private static long highestValueOf(int bucket) {
+		long value;
+		if (bucket < SUB_COUNT) {
+			value = bucket;
+		} else {
+			int shift = (bucket - SUB_COUNT) / HALF_COUNT + 1;
+			long sub = (bucket - SUB_COUNT) % HALF_COUNT + HALF_COUNT;
+			value = ((sub + 1) << shift) - 1;
+			if (value < 0) {
+				// the last bucket ends at the largest long
+				value = Long.MAX_VALUE;
+			}
+		}
+		return value;
+	}
+}
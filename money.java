@@ -0,0 +1,231 @@
+package businessOffice;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/*
+ * The Money class holds the static methods used for all payroll arithmetic.
+ * Amounts of money are kept as a long number of cents (minor units) instead of
+ * a double, so that adding up millions of sales or pay amounts is exact and
+ * does not drift by a cent here and there. Whenever an amount has to be
+ * rounded to whole cents (converting a double amount given to Account,
+ * dividing a salary into pay periods or taking a percentage of sales) the
+ * rounding is done with an explicit java.math.RoundingMode. Double amounts
+ * are rounded as the decimal numbers they are written as (1.005 is rounded
+ * as 1.005, not as the binary value just below it). None of the methods
+ * create objects, except toCents() for the rare amount with more decimals
+ * than cents that lies within a rounding error of a cent or half a cent, so
+ * they can be used on the hot paths of the system. The class cannot be
+ * instantiated.
+ */
+public final class Money {
+	// Rounding used when none is specified: banker's rounding, which does not
+	// push totals up or down on average.
+	public static final RoundingMode DEFAULT_ROUNDING = RoundingMode.HALF_EVEN;
+
+	// Number of cents in one unit of currency.
+	public static final long CENTS_PER_UNIT = 100;
+
+	// Largest number of cents below which a double amount is precise to
+	// well under half a cent.
+	private static final double EXACT_CENTS = 1e15;
+
+	// Largest amount (either way) Account takes: its cents are precise as a
+	// double, and thousands of them still add up within a long.
+	public static final double MAX_AMOUNT = EXACT_CENTS / CENTS_PER_UNIT;
+
+	private Money() {
+	}
+
+	/*
+	 * Returns true if an amount of money given as a double is a number no
+	 * larger than MAX_AMOUNT either way, as the amounts given to Account
+	 * must be.
+	 */
+	public static boolean isValidAmount(double amount) {
+		return Math.abs(amount) <= MAX_AMOUNT;
+	}
+
+	/*
+	 * Converts an amount of money given as a double (e.g. 12.34) into cents,
+	 * rounding with the default rounding mode.
+	 */
+	public static long toCents(double amount) {
+		return toCents(amount, DEFAULT_ROUNDING);
+	}
+
+	/*
+	 * Converts an amount of money given as a double into cents, rounding with
+	 * the given rounding mode. amount * 100 is not exact in binary (1.005
+	 * gives 100.49999999999999), so amounts that are a whole number of cents
+	 * or of half cents as decimals are recognised as such, by checking that
+	 * the amount is the double closest to that number of cents divided by
+	 * 100, and rounded exactly. Any other amount close enough to a cent or
+	 * a half cent for the error to matter is rounded with BigDecimal. Throws
+	 * an ArithmeticException for NaN, an infinite amount or an amount whose
+	 * cents do not fit in a long.
+	 */
+	public static long toCents(double amount, RoundingMode mode) {
+		double value = amount * CENTS_PER_UNIT;
+		long retVal;
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new ArithmeticException("invalid amount " + amount);
+		} else if (Math.abs(value) >= EXACT_CENTS) {
+			retVal = BigDecimal.valueOf(amount).setScale(2, mode)
+					.unscaledValue().longValueExact();
+		} else {
+			long whole = (long) Math.rint(value);
+			long below = (long) Math.floor(value);
+			double halves = value * 2;
+			if ((double) whole / CENTS_PER_UNIT == amount) {
+				retVal = whole;
+			} else if ((double) (below * 2 + 1) / (CENTS_PER_UNIT * 2)
+					== amount) {
+				retVal = roundHalf(below, mode);
+			} else if (Math.abs(halves - Math.rint(halves))
+					< 8 * Math.ulp(value)) {
+				retVal = BigDecimal.valueOf(amount).setScale(2, mode)
+						.unscaledValue().longValue();
+			} else {
+				retVal = round(value, mode);
+			}
+		}
+		return retVal;
+	}
+
+	/*
+	 * Converts an amount in cents back to a double amount of money, used when
+	 * returning amounts from the public double based methods of Account.
+	 */
+	public static double toDouble(long cents) {
+		return (double) cents / CENTS_PER_UNIT;
+	}
+
+	/*
+	 * Divides an amount in cents by divisor (e.g. a yearly salary by the
+	 * number of pay periods), rounding the result to whole cents with the
+	 * given rounding mode. The division is done on longs so it is exact up to
+	 * the rounding of the last cent.
+	 */
+	public static long divide(long cents, long divisor, RoundingMode mode) {
+		long quotient = cents / divisor;
+		long remainder = cents % divisor;
+
+		if (remainder != 0) {
+			// signum is the sign of the exact result, used to decide which
+			// way rounding away from or towards zero goes.
+			int signum = ((cents ^ divisor) >> 63) == 0 ? 1 : -1;
+			long twiceRem = Math.abs(remainder) * 2;
+			long absDivisor = Math.abs(divisor);
+			boolean roundAway;
+			switch (mode) {
+			case UP:
+				roundAway = true;
+				break;
+			case DOWN:
+				roundAway = false;
+				break;
+			case CEILING:
+				roundAway = signum > 0;
+				break;
+			case FLOOR:
+				roundAway = signum < 0;
+				break;
+			case HALF_UP:
+				roundAway = twiceRem >= absDivisor;
+				break;
+			case HALF_DOWN:
+				roundAway = twiceRem > absDivisor;
+				break;
+			case HALF_EVEN:
+				roundAway = twiceRem > absDivisor
+						|| (twiceRem == absDivisor && (quotient & 1) != 0);
+				break;
+			default:
+				throw new ArithmeticException("Rounding necessary");
+			}
+			if (roundAway) {
+				quotient += signum;
+			}
+		}
+		return quotient;
+	}
+
+	/*
+	 * Returns ratePercent percent of an amount in cents (e.g. a commission
+	 * rate of 12.5 applied to the sales of an employee), rounded to whole
+	 * cents with the given rounding mode.
+	 */
+	public static long percentOf(long cents, double ratePercent,
+			RoundingMode mode) {
+		return round(ratePercent / 100 * cents, mode);
+	}
+
+	/*
+	 * Private helper rounding exactly below + 0.5 cents to a long with the
+	 * given rounding mode.
+	 */
+	private static long roundHalf(long below, RoundingMode mode) {
+		boolean positive = below >= 0;
+		long retVal;
+		switch (mode) {
+		case UP:
+		case HALF_UP:
+			retVal = positive ? below + 1 : below;
+			break;
+		case DOWN:
+		case HALF_DOWN:
+			retVal = positive ? below : below + 1;
+			break;
+		case CEILING:
+			retVal = below + 1;
+			break;
+		case FLOOR:
+			retVal = below;
+			break;
+		case HALF_EVEN:
+			retVal = (below & 1) == 0 ? below : below + 1;
+			break;
+		default:
+			throw new ArithmeticException("Rounding necessary");
+		}
+		return retVal;
+	}
+
+	/*
+	 * Private helper rounding a double number of cents to a long with the
+	 * given rounding mode.
+	 */
+	private static long round(double value, RoundingMode mode) {
+		double rounded;
+		switch (mode) {
+		case UP:
+			rounded = value < 0 ? Math.floor(value) : Math.ceil(value);
+			break;
+		case DOWN:
+			rounded = value < 0 ? Math.ceil(value) : Math.floor(value);
+			break;
+		case CEILING:
+			rounded = Math.ceil(value);
+			break;
+		case FLOOR:
+			rounded = Math.floor(value);
+			break;
+		case HALF_UP:
+			rounded = Math.signum(value) * Math.floor(Math.abs(value) + 0.5);
+			break;
+		case HALF_DOWN:
+			rounded = Math.signum(value) * Math.ceil(Math.abs(value) - 0.5);
+			break;
+		case HALF_EVEN:
+			rounded = Math.rint(value);
+			break;
+		default:
+			if (value != Math.rint(value)) {
+				throw new ArithmeticException("Rounding necessary");
+			}
+			rounded = value;
+		}
+		return (long) rounded;
+	}
+}
@@ -0,0 +1,746 @@
+package businessOffice;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+ * The OffHeapEmployeeStore class is a version of EmployeeStore for very large
+ * accounts that keeps the data of its employees outside the Java heap. Every
+ * column of EmployeeStore (types, hours, sales, salaries, rates and the pay
+ * periods the hours and sales belong to), the rows
+ * of each type and the index from name to row are kept in direct ByteBuffers,
+ * and the names themselves are copied into an arena: one direct buffer
+ * holding the characters of every name one after the other, each row keeping
+ * where its name starts and how long it is. The heap then only holds a few
+ * objects per store however many employees it has, so a store of millions of
+ * employees neither grows the heap nor gives the garbage collector anything
+ * to go through during a pay period or a payroll run. Accounts with such a
+ * store are created with BusinessOffice.createOffHeapAccount() and
+ * createConcurrentOffHeapAccount().
+ *
+ * The index is an open addressing hash table of ints (the row plus 1, 0 being
+ * an empty slot and -1 the slot of a terminated employee) that is kept at
+ * most half full and doubled when needed. A
+ * name is looked up by the hash of the String, which is kept for every row,
+ * and compared character by character with the arena, so looking an employee
+ * up creates no objects. Names are kept as UTF-16 characters, two bytes each,
+ * so they can be compared with the String as they are. getName() does create
+ * a new String from the arena every time it is called. A tombstone has a
+ * name length of -1; the characters of its name stay in the arena, which
+ * never shrinks.
+ *
+ * Columns grow like those of EmployeeStore, by copying into a larger buffer,
+ * and the old buffers are freed when the garbage collector finds them
+ * unreachable. Every buffer is limited to 2GB, which allows about 268 million
+ * employees. As in EmployeeStore a store does no locking of its own. Slots of
+ * the index are written with release and read with acquire ordering, and the
+ * buffers find() reads are volatile fields, so names can be looked up while a
+ * ConcurrentAccount hires employees; everything else is guarded by the locks
+ * of ConcurrentAccount. The pay plans and running payroll totals are those
+ * of EmployeeStore.
+ */
+public class OffHeapEmployeeStore extends EmployeeStore {
+	// Reads and writes the int slots of the index with acquire and release
+	// ordering.
+	private static final VarHandle SLOT = MethodHandles
+			.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+	// Columns: a byte, an int or a long/double per row.
+	private ByteBuffer types;
+	private ByteBuffer hours;
+	private ByteBuffer sales;
+	private ByteBuffer salaries;
+	private ByteBuffer rates;
+	private ByteBuffer periods;
+	private ByteBuffer ids;
+
+	// Where the name of each row starts in the arena and its length (in
+	// characters), its hash, the arena itself and the index.
+	private volatile ByteBuffer nameStarts;
+	private volatile ByteBuffer nameLengths;
+	private volatile ByteBuffer nameHashes;
+	private volatile ByteBuffer arena;
+	private volatile ByteBuffer table;
+
+	// Value of the slot of a terminated employee in the index.
+	private static final int DELETED = -1;
+
+	private int capacity;
+	private int size = 0;
+	private int arenaUsed = 0;
+
+	// Slots of the index in use (deleted ones included), tombstones among
+	// the rows, the lowest row that may be one, and the next employee
+	// number, as in EmployeeStore.
+	private int tableUsed = 0;
+	private int dead = 0;
+	private int firstHole = Integer.MAX_VALUE;
+	private int nextId = 0;
+
+	// Rows of each type (an int each), indexed by type tag, and where each
+	// row is in the list of its type.
+	private final ByteBuffer[] typeRows = new ByteBuffer[TYPE_SLOTS];
+	private final int[] typeCounts = new int[TYPE_SLOTS];
+	private ByteBuffer typePos;
+
+	/*
+	 * If the store is constructed without any argument, the columns are
+	 * created with room for 16 employees.
+	 */
+	public OffHeapEmployeeStore() {
+		this(16);
+	}
+
+	/*
+	 * This constructor creates the columns with room for the given number of
+	 * employees (at least 1).
+	 */
+	public OffHeapEmployeeStore(int capacity) {
+		super(1);
+		if (capacity < 1) {
+			capacity = 1;
+		}
+		this.capacity = capacity;
+		types = allocate(capacity);
+		hours = allocate(4L * capacity);
+		sales = allocate(8L * capacity);
+		salaries = allocate(8L * capacity);
+		rates = allocate(8L * capacity);
+		periods = allocate(4L * capacity);
+		ids = allocate(4L * capacity);
+		typePos = allocate(4L * capacity);
+		nameStarts = allocate(4L * capacity);
+		nameLengths = allocate(4L * capacity);
+		nameHashes = allocate(4L * capacity);
+		arena = allocate(32L * capacity);
+		table = allocate(4L * tableSlots(capacity));
+		for (byte type = SALARIED; type < TYPE_SLOTS; type++) {
+			typeRows[type] = allocate(4 * 16);
+		}
+	}
+
+	/*
+	 * Constructor used by AccountSnapshot to create a store from columns read
+	 * from a snapshot, holding size rows. The rows are copied into the
+	 * buffers of the store.
+	 */
+	OffHeapEmployeeStore(String[] names, byte[] types, int[] hours,
+			long[] sales, long[] salaries, double[] rates, int size) {
+		this(size);
+		for (int i = 0; i < size; i++) {
+			add(names[i], types[i], salaries[i], rates[i]);
+			this.hours.putInt(i << 2, hours[i]);
+			this.sales.putLong(i << 3, sales[i]);
+		}
+		recomputeTotals();
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int numEmployees() {
+		return size - dead;
+	}
+
+	@Override
+	public int numTerminated() {
+		return dead;
+	}
+
+	@Override
+	public int capacity() {
+		return capacity;
+	}
+
+	@Override
+	public int find(String name) {
+		int retVal = -1;
+		if (name != null) {
+			int hash = name.hashCode();
+			ByteBuffer slots = table;
+			int mask = (slots.capacity() >> 2) - 1;
+			int i = spread(hash) & mask;
+			int slot = (int) SLOT.getAcquire(slots, i << 2);
+			while (slot != 0 && retVal < 0) {
+				if (slot != DELETED
+						&& nameHashes.getInt((slot - 1) << 2) == hash
+						&& nameEquals(slot - 1, name)) {
+					retVal = slot - 1;
+				} else {
+					i = (i + 1) & mask;
+					slot = (int) SLOT.getAcquire(slots, i << 2);
+				}
+			}
+		}
+		return retVal;
+	}
+
+	/*
+	 * Adds a new row as EmployeeStore.add() does, copying the name into the
+	 * arena.
+	 */
+	@Override
+	public int add(String name, byte type, long salaryCents, double rate) {
+		if (!isType(type)) {
+			throw new IllegalArgumentException("unknown employee type "
+					+ type);
+		}
+		if (size == capacity) {
+			ensureCapacity(size + 1);
+		}
+		int row = size;
+		int length = name.length();
+		if (2L * (arenaUsed + length) > arena.capacity()) {
+			growArena(arenaUsed + length);
+		}
+		ByteBuffer chars = arena;
+		for (int k = 0; k < length; k++) {
+			chars.putChar((arenaUsed + k) << 1, name.charAt(k));
+		}
+		nameStarts.putInt(row << 2, arenaUsed);
+		nameLengths.putInt(row << 2, length);
+		nameHashes.putInt(row << 2, name.hashCode());
+		arenaUsed += length;
+
+		types.put(row, type);
+		hours.putInt(row << 2, 0);
+		sales.putLong(row << 3, 0);
+		salaries.putLong(row << 3, salaryCents);
+		rates.putDouble(row << 3, rate);
+		periods.putInt(row << 2, period);
+		ids.putInt(row << 2, nextId++);
+		addRowOfType(type, row);
+		size++;
+
+		if (2L * (tableUsed + 1) > table.capacity() >> 2) {
+			rehash(tableSlots(size - dead));
+		}
+		insert(table, row, name.hashCode());
+		tableUsed++;
+
+		long pay = formulaOf(type).payCents(salaryCents, rate, 0, 0);
+		payTotal.addAndGet(pay);
+		baseTotal += pay;
+		return row;
+	}
+
+	@Override
+	public String getName(int row) {
+		String retVal = null;
+		int length = nameLengths.getInt(row << 2);
+		if (length >= 0) {
+			int start = nameStarts.getInt(row << 2);
+			char[] name = new char[length];
+			ByteBuffer chars = arena;
+			for (int k = 0; k < length; k++) {
+				name[k] = chars.getChar((start + k) << 1);
+			}
+			retVal = new String(name);
+		}
+		return retVal;
+	}
+
+	@Override
+	public boolean isLive(int row) {
+		return nameLengths.getInt(row << 2) >= 0;
+	}
+
+	@Override
+	boolean isRowOf(int row, String name) {
+		return row < size && nameHashes.getInt(row << 2) == name.hashCode()
+				&& nameEquals(row, name);
+	}
+
+	@Override
+	public int getId(int row) {
+		return ids.getInt(row << 2);
+	}
+
+	@Override
+	public byte getType(int row) {
+		return types.get(row);
+	}
+
+	@Override
+	public int getHours(int row) {
+		return periods.getInt(row << 2) == period ? hours.getInt(row << 2)
+				: 0;
+	}
+
+	@Override
+	public long getSaleCents(int row) {
+		return periods.getInt(row << 2) == period ? sales.getLong(row << 3)
+				: 0;
+	}
+
+	@Override
+	public long getSalaryCents(int row) {
+		return salaries.getLong(row << 3);
+	}
+
+	@Override
+	public double getRate(int row) {
+		return rates.getDouble(row << 3);
+	}
+
+	@Override
+	int periodOf(int row) {
+		return periods.getInt(row << 2);
+	}
+
+	@Override
+	int hoursIn(int row, int period) {
+		return periods.getInt(row << 2) == period ? hours.getInt(row << 2)
+				: 0;
+	}
+
+	@Override
+	long saleCentsIn(int row, int period) {
+		return periods.getInt(row << 2) == period ? sales.getLong(row << 3)
+				: 0;
+	}
+
+	@Override
+	void setHours(int row, int value) {
+		beforeWrite(row);
+		catchUp(row);
+		if (types.get(row) == HOURLY) {
+			long before = totalPayCents(row);
+			hours.putInt(row << 2, value);
+			payTotal.addAndGet(totalPayCents(row) - before);
+		} else {
+			hours.putInt(row << 2, value);
+		}
+	}
+
+	@Override
+	void setSaleCents(int row, long value) {
+		beforeWrite(row);
+		catchUp(row);
+		long before = totalPayCents(row);
+		sales.putLong(row << 3, value);
+		payTotal.addAndGet(totalPayCents(row) - before);
+	}
+
+	@Override
+	public boolean canAddHours(int row, int currentHours) {
+		boolean flag = true;
+		if (types.get(row) == SALARIED) {
+			flag = SalariedEmployee.hoursAccepted(currentHours);
+		}
+		return flag;
+	}
+
+	@Override
+	public boolean addHours(int row, int numHours) {
+		boolean flag = false;
+		int current = getHours(row);
+		if (canAddHours(row, current)) {
+			setHours(row, current + numHours);
+			flag = true;
+		}
+		return flag;
+	}
+
+	@Override
+	public void addSaleCents(int row, long saleCents) {
+		if (types.get(row) == COMMISSIONED) {
+			setSaleCents(row, getSaleCents(row) + saleCents);
+		}
+	}
+
+	@Override
+	public long totalPayCents(int row) {
+		return formulaOf(types.get(row)).payCents(getSalaryCents(row),
+				getRate(row), getHours(row), getSaleCents(row));
+	}
+
+	@Override
+	public long payrollCents(int from, int to) {
+		long totalAmt = 0;
+		for (int i = from; i < to; i++) {
+			totalAmt += totalPayCents(i);
+		}
+		return totalAmt;
+	}
+
+	@Override
+	public int numOfType(byte type) {
+		return isType(type) ? typeCounts[type] : 0;
+	}
+
+	/*
+	 * The per type payroll loops of EmployeeStore, reading the buffers.
+	 */
+	@Override
+	public long salariedPayrollCents(int from, int to) {
+		ByteBuffer rows = typeRows[SALARIED];
+		ByteBuffer salary = salaries;
+		PayPlan.Formula formula = formulaOf(SALARIED);
+		long totalAmt = 0;
+		for (int i = from; i < to; i++) {
+			int row = rows.getInt(i << 2);
+			totalAmt += formula.payCents(salary.getLong(row << 3), 0.0, 0, 0);
+		}
+		return totalAmt;
+	}
+
+	@Override
+	public long hourlyPayrollCents(int from, int to) {
+		ByteBuffer rows = typeRows[HOURLY];
+		ByteBuffer wage = salaries;
+		ByteBuffer hour = hours;
+		ByteBuffer rowPeriods = periods;
+		PayPlan.Formula formula = formulaOf(HOURLY);
+		int current = period;
+		long totalAmt = 0;
+		for (int i = from; i < to; i++) {
+			int row = rows.getInt(i << 2);
+			int worked = rowPeriods.getInt(row << 2) == current
+					? hour.getInt(row << 2) : 0;
+			totalAmt += formula.payCents(wage.getLong(row << 3), 0.0, worked,
+					0);
+		}
+		return totalAmt;
+	}
+
+	@Override
+	public long commissionedPayrollCents(int from, int to) {
+		ByteBuffer rows = typeRows[COMMISSIONED];
+		ByteBuffer base = salaries;
+		ByteBuffer rate = rates;
+		ByteBuffer sale = sales;
+		ByteBuffer rowPeriods = periods;
+		PayPlan.Formula formula = formulaOf(COMMISSIONED);
+		int current = period;
+		long totalAmt = 0;
+		for (int i = from; i < to; i++) {
+			int row = rows.getInt(i << 2);
+			long sold = rowPeriods.getInt(row << 2) == current
+					? sale.getLong(row << 3) : 0;
+			totalAmt += formula.payCents(base.getLong(row << 3),
+					rate.getDouble(row << 3), 0, sold);
+		}
+		return totalAmt;
+	}
+
+	@Override
+	public Employee view(int row) {
+		Employee emp;
+		byte type = types.get(row);
+		if (type == SALARIED) {
+			emp = new SalariedEmployee(this, row);
+		} else if (type == HOURLY) {
+			emp = new HourlyEmployee(this, row);
+		} else {
+			emp = new CommissionEmployee(this, row);
+		}
+		return emp;
+	}
+
+	@Override
+	public void ensureCapacity(int minCapacity) {
+		if (minCapacity > capacity) {
+			resize(DatarrayList.newCapacity(capacity, minCapacity));
+		}
+	}
+
+	@Override
+	public void trimToSize() {
+		int newCapacity = Math.max(size, 1);
+		if (newCapacity < capacity) {
+			resize(newCapacity);
+		}
+	}
+
+	/*
+	 * Terminates the employee in a row as EmployeeStore.remove() does,
+	 * marking its slot in the index as deleted.
+	 */
+	@Override
+	void remove(int row) {
+		beforeRemove(row);
+		byte type = types.get(row);
+		payTotal.addAndGet(-totalPayCents(row));
+		baseTotal -= formulaOf(type).payCents(getSalaryCents(row),
+				getRate(row), 0, 0);
+		SLOT.setRelease(table, slotOf(row) << 2, DELETED);
+		removeRowOfType(type, row);
+		nameLengths.putInt(row << 2, -1);
+		hours.putInt(row << 2, 0);
+		sales.putLong(row << 3, 0);
+		salaries.putLong(row << 3, 0);
+		rates.putDouble(row << 3, 0.0);
+		dead++;
+		firstHole = Math.min(firstHole, row);
+	}
+
+	/*
+	 * Compacts the store as EmployeeStore.compact() does. The slot of a
+	 * moved employee is pointed at its new row once the row is written.
+	 */
+	@Override
+	boolean compact(int maxRows, RowMoves moves) {
+		for (int work = 0; dead > 0 && work < maxRows; work++) {
+			if (!isLive(size - 1)) {
+				size--;
+				dead--;
+			} else {
+				while (isLive(firstHole)) {
+					firstHole++;
+				}
+				int from = size - 1;
+				moveRow(from, firstHole);
+				if (moves != null) {
+					moves.rowMoved(from, firstHole);
+				}
+				size--;
+				dead--;
+			}
+		}
+		if (dead == 0) {
+			firstHole = Integer.MAX_VALUE;
+		}
+		return dead == 0;
+	}
+
+	/*
+	 * Returns the number of bytes the buffers of the store take up outside
+	 * the heap.
+	 */
+	public long offHeapBytes() {
+		long bytes = types.capacity() + hours.capacity() + sales.capacity()
+				+ salaries.capacity() + rates.capacity() + periods.capacity()
+				+ ids.capacity() + typePos.capacity() + nameStarts.capacity()
+				+ nameLengths.capacity()
+				+ nameHashes.capacity() + arena.capacity()
+				+ table.capacity();
+		for (byte type = SALARIED; type < TYPE_SLOTS; type++) {
+			bytes += typeRows[type].capacity();
+		}
+		return bytes;
+	}
+
+	/*
+	 * The columns as arrays of size() rows, copied onto the heap, for
+	 * AccountSnapshot. The hours and sales are copied by EmployeeStore
+	 * through the getters.
+	 */
+	@Override
+	String[] namesColumn() {
+		String[] column = new String[size];
+		for (int row = 0; row < size; row++) {
+			column[row] = getName(row);
+		}
+		return column;
+	}
+
+	@Override
+	byte[] typesColumn() {
+		byte[] column = new byte[size];
+		types.get(0, column);
+		return column;
+	}
+
+	@Override
+	long[] salariesColumn() {
+		long[] column = new long[size];
+		salaries.asLongBuffer().get(0, column);
+		return column;
+	}
+
+	@Override
+	double[] ratesColumn() {
+		double[] column = new double[size];
+		rates.asDoubleBuffer().get(0, column);
+		return column;
+	}
+
+	@Override
+	void recomputeTotals() {
+		long base = 0;
+		long total = 0;
+		for (int row = 0; row < size; row++) {
+			PayPlan.Formula formula = formulaOf(types.get(row));
+			long salary = getSalaryCents(row);
+			double rate = getRate(row);
+			base += formula.payCents(salary, rate, 0, 0);
+			total += formula.payCents(salary, rate, getHours(row),
+					getSaleCents(row));
+		}
+		baseTotal = base;
+		payTotal.set(total);
+	}
+
+	/*
+	 * Private helper comparing the name of a row with a String, character by
+	 * character.
+	 */
+	private boolean nameEquals(int row, String name) {
+		boolean flag = nameLengths.getInt(row << 2) == name.length();
+		int start = nameStarts.getInt(row << 2);
+		ByteBuffer chars = arena;
+		for (int k = 0; flag && k < name.length(); k++) {
+			flag = chars.getChar((start + k) << 1) == name.charAt(k);
+		}
+		return flag;
+	}
+
+	/*
+	 * Private helpers for the index: the number of slots for a number of
+	 * rows (a power of 2 at least twice as large), spreading the bits of a
+	 * hash, putting a row into the first free slot for its hash (with
+	 * release ordering, after everything else about the row is written),
+	 * finding the slot of a row, and building a new index of the live rows
+	 * other than the last one, which is only seen by find() once complete.
+	 */
+	private static int tableSlots(int rows) {
+		if (rows > (1 << 29)) {
+			throw new IllegalStateException("too many employees");
+		}
+		return Math.max(Integer.highestOneBit(rows) << 2, 16);
+	}
+
+	private static int spread(int hash) {
+		return (hash ^ (hash >>> 16)) * 0x9E3779B9;
+	}
+
+	private static void insert(ByteBuffer slots, int row, int hash) {
+		int mask = (slots.capacity() >> 2) - 1;
+		int i = spread(hash) & mask;
+		while (slots.getInt(i << 2) != 0) {
+			i = (i + 1) & mask;
+		}
+		SLOT.setRelease(slots, i << 2, row + 1);
+	}
+
+	private int slotOf(int row) {
+		ByteBuffer slots = table;
+		int mask = (slots.capacity() >> 2) - 1;
+		int i = spread(nameHashes.getInt(row << 2)) & mask;
+		while (slots.getInt(i << 2) != row + 1) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void rehash(int slots) {
+		ByteBuffer larger = allocate(4L * slots);
+		int used = 0;
+		for (int row = 0; row < size - 1; row++) {
+			if (isLive(row)) {
+				insert(larger, row, nameHashes.getInt(row << 2));
+				used++;
+			}
+		}
+		tableUsed = used;
+		table = larger;
+	}
+
+	/*
+	 * Private helper clearing the hours and sales of a row written in an
+	 * earlier pay period, as EmployeeStore does.
+	 */
+	private void catchUp(int row) {
+		if (periods.getInt(row << 2) != period) {
+			hours.putInt(row << 2, 0);
+			sales.putLong(row << 3, 0);
+			periods.putInt(row << 2, period);
+		}
+	}
+
+	/*
+	 * Private helpers giving every column the given number of rows (copying
+	 * the rows over), growing the arena to hold at least the given number of
+	 * characters, adding a row to the list of rows of its type or taking it
+	 * out, and moving a row into a tombstone. The row moved from is left as
+	 * it is, as find() may still be reading its name.
+	 */
+	private void resize(int newCapacity) {
+		types = copyOf(types, newCapacity, size);
+		hours = copyOf(hours, 4L * newCapacity, 4 * size);
+		sales = copyOf(sales, 8L * newCapacity, 8 * size);
+		salaries = copyOf(salaries, 8L * newCapacity, 8 * size);
+		rates = copyOf(rates, 8L * newCapacity, 8 * size);
+		periods = copyOf(periods, 4L * newCapacity, 4 * size);
+		ids = copyOf(ids, 4L * newCapacity, 4 * size);
+		typePos = copyOf(typePos, 4L * newCapacity, 4 * size);
+		nameStarts = copyOf(nameStarts, 4L * newCapacity, 4 * size);
+		nameLengths = copyOf(nameLengths, 4L * newCapacity, 4 * size);
+		nameHashes = copyOf(nameHashes, 4L * newCapacity, 4 * size);
+		capacity = newCapacity;
+	}
+
+	private void growArena(int minChars) {
+		// doubles the arena, but not past 2GB unless that is too small
+		long bytes = Math.max(2L * arena.capacity(), 2L * minChars);
+		bytes = Math.max(Math.min(bytes, Integer.MAX_VALUE - 1),
+				2L * minChars);
+		arena = copyOf(arena, bytes, 2 * arenaUsed);
+	}
+
+	private void addRowOfType(byte type, int row) {
+		int count = typeCounts[type];
+		if (4 * count == typeRows[type].capacity()) {
+			typeRows[type] = copyOf(typeRows[type],
+					4L * DatarrayList.newCapacity(count, count + 1), 4 * count);
+		}
+		typeRows[type].putInt(count << 2, row);
+		typePos.putInt(row << 2, count);
+		typeCounts[type] = count + 1;
+	}
+
+	private void removeRowOfType(byte type, int row) {
+		int count = --typeCounts[type];
+		int last = typeRows[type].getInt(count << 2);
+		int pos = typePos.getInt(row << 2);
+		typeRows[type].putInt(pos << 2, last);
+		typePos.putInt(last << 2, pos);
+	}
+
+	private void moveRow(int from, int to) {
+		byte type = types.get(from);
+		types.put(to, type);
+		hours.putInt(to << 2, hours.getInt(from << 2));
+		sales.putLong(to << 3, sales.getLong(from << 3));
+		salaries.putLong(to << 3, salaries.getLong(from << 3));
+		rates.putDouble(to << 3, rates.getDouble(from << 3));
+		periods.putInt(to << 2, periods.getInt(from << 2));
+		ids.putInt(to << 2, ids.getInt(from << 2));
+		int pos = typePos.getInt(from << 2);
+		typePos.putInt(to << 2, pos);
+		typeRows[type].putInt(pos << 2, to);
+		nameStarts.putInt(to << 2, nameStarts.getInt(from << 2));
+		nameHashes.putInt(to << 2, nameHashes.getInt(from << 2));
+		nameLengths.putInt(to << 2, nameLengths.getInt(from << 2));
+		SLOT.setRelease(table, slotOf(from) << 2, to + 1);
+	}
+
+	/*
+	 * Private helpers allocating a direct buffer in the native byte order
+	 * (which is zeroed), and copying the first used bytes of a buffer into a
+	 * new one of the given size.
+	 */
+	private static ByteBuffer allocate(long bytes) {
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IllegalStateException("too many employees");
+		}
+		return ByteBuffer.allocateDirect((int) bytes)
+				.order(ByteOrder.nativeOrder());
+	}
+
+	private static ByteBuffer copyOf(ByteBuffer buffer, long bytes,
+			int used) {
+		ByteBuffer copy = allocate(bytes);
+		ByteBuffer from = buffer.duplicate();
+		from.position(0).limit(used);
+		copy.put(from);
+		copy.clear();
+		return copy;
+	}
+}
@@ -0,0 +1,342 @@
+package businessOffice;
+
+import java.util.Arrays;
+
+/*
+ * The PayPlan class declares how one type of employee of an account is paid:
+ * salaried employees by a yearly salary split over a number of pay periods,
+ * hourly employees by an hourly wage with overtime, and commissioned employees
+ * by a percentage of their sales (flat or in tiers), optionally on top of a
+ * yearly base salary. A plan is only data; it is given to an account with
+ * Account.setPayPlan(), which replaces the plan of the plan's employee type.
+ * Every account starts with the default plans, which are the pay rules the
+ * system has always used: salaries split over 26 periods, commission at the
+ * employee's own rate, and overtime at 1.5 times the wage after 80 hours.
+ *
+ * The figures a plan applies to come from the columns of each employee row:
+ * the salary column holds the yearly salary (salaried), the hourly wage
+ * (hourly) or the yearly base salary (commissioned) in cents, and the rate
+ * column holds the commission rate of a commissioned employee.
+ *
+ * When a plan is set, the store compiles it once into a Formula: a small
+ * object whose payCents() has the figures of the plan (number of periods,
+ * overtime threshold, tiers) in final fields and does nothing but the
+ * arithmetic of that one kind of plan. Working out the pay of a row is then a
+ * single call with no plan being looked at or interpreted. Each kind of plan
+ * compiles to its own class, so the payroll loop of a type (see EmployeeStore)
+ * only ever calls a method the JIT can inline; the default salaried plan has
+ * a class of its own dividing by a constant, so accounts on the default plans
+ * are summed as fast as with hard-coded rules. All amounts are rounded to
+ * whole cents with Money.DEFAULT_ROUNDING; a tiered commission is rounded
+ * tier by tier.
+ *
+ * Plans are immutable and the factory methods throw an
+ * IllegalArgumentException for figures that make no sense (e.g. no pay
+ * periods or tiers out of order).
+ */
+public final class PayPlan {
+	// Common numbers of pay periods in a year.
+	public static final int WEEKLY = 52;
+	public static final int BIWEEKLY = 26;
+	public static final int SEMI_MONTHLY = 24;
+	public static final int MONTHLY = 12;
+
+	// The plans every account starts with.
+	public static final PayPlan DEFAULT_SALARIED = salaried(BIWEEKLY);
+	public static final PayPlan DEFAULT_HOURLY = hourly(80, 1.5);
+	public static final PayPlan DEFAULT_COMMISSIONED = commission();
+
+	// Highest commission rate paid: rates are at least 0 and below 100.
+	static final double MAX_RATE = Math.nextDown(100.0);
+
+	// EmployeeStore type tag of the employees the plan pays.
+	private final byte type;
+	// Pay periods the yearly salary or base is split over (0: no base).
+	private final int periodsPerYear;
+	// Hours after which overtime is paid, and the multiple of the wage.
+	private final int overtimeAfter;
+	private final double overtimeMultiplier;
+	// Sales in cents from which each tier starts, and the rate of each tier,
+	// or null for a flat commission at the employee's rate.
+	private final long[] tierFrom;
+	private final double[] tierRates;
+
+	private PayPlan(byte type, int periodsPerYear, int overtimeAfter,
+			double overtimeMultiplier, long[] tierFrom, double[] tierRates) {
+		this.type = type;
+		this.periodsPerYear = periodsPerYear;
+		this.overtimeAfter = overtimeAfter;
+		this.overtimeMultiplier = overtimeMultiplier;
+		this.tierFrom = tierFrom;
+		this.tierRates = tierRates;
+	}
+
+	/*
+	 * Salaried employees are paid their yearly salary divided by the given
+	 * number of pay periods (e.g. WEEKLY or SEMI_MONTHLY).
+	 */
+	public static PayPlan salaried(int periodsPerYear) {
+		checkPeriods(periodsPerYear);
+		return new PayPlan(EmployeeStore.SALARIED, periodsPerYear, 0, 0.0,
+				null, null);
+	}
+
+	/*
+	 * Hourly employees are paid their wage for each hour of the period, and
+	 * overtimeMultiplier times their wage for each hour over overtimeAfter.
+	 */
+	public static PayPlan hourly(int overtimeAfter,
+			double overtimeMultiplier) {
+		if (overtimeAfter < 0 || !(overtimeMultiplier >= 1.0)) {
+			throw new IllegalArgumentException("invalid overtime");
+		}
+		return new PayPlan(EmployeeStore.HOURLY, 0, overtimeAfter,
+				overtimeMultiplier, null, null);
+	}
+
+	/*
+	 * Commissioned employees are paid their commission rate of their sales.
+	 */
+	public static PayPlan commission() {
+		return new PayPlan(EmployeeStore.COMMISSIONED, 0, 0, 0.0, null, null);
+	}
+
+	/*
+	 * Commissioned employees are paid their yearly base salary divided by the
+	 * given number of pay periods plus their commission rate of their sales.
+	 */
+	public static PayPlan basePlusCommission(int periodsPerYear) {
+		checkPeriods(periodsPerYear);
+		return new PayPlan(EmployeeStore.COMMISSIONED, periodsPerYear, 0, 0.0,
+				null, null);
+	}
+
+	/*
+	 * Commissioned employees are paid tierRates[i] percent of the part of
+	 * their sales from tierFrom[i] up to tierFrom[i + 1] (the last tier has
+	 * no upper end). tierFrom must start at 0 and go up. The rates of the
+	 * tiers are used instead of the employees' own rates.
+	 */
+	public static PayPlan tieredCommission(double[] tierFrom,
+			double[] tierRates) {
+		return tiered(0, tierFrom, tierRates);
+	}
+
+	/*
+	 * A yearly base salary divided by the given number of pay periods plus a
+	 * tiered commission as above.
+	 */
+	public static PayPlan basePlusTieredCommission(int periodsPerYear,
+			double[] tierFrom, double[] tierRates) {
+		checkPeriods(periodsPerYear);
+		return tiered(periodsPerYear, tierFrom, tierRates);
+	}
+
+	/*
+	 * Returns the default plan of the given employee type, or null if the
+	 * type is not an EmployeeStore type tag.
+	 */
+	public static PayPlan defaultPlan(byte type) {
+		PayPlan plan = null;
+		if (type == EmployeeStore.SALARIED) {
+			plan = DEFAULT_SALARIED;
+		} else if (type == EmployeeStore.HOURLY) {
+			plan = DEFAULT_HOURLY;
+		} else if (type == EmployeeStore.COMMISSIONED) {
+			plan = DEFAULT_COMMISSIONED;
+		}
+		return plan;
+	}
+
+	// Returns the EmployeeStore type tag of the employees the plan pays.
+	public byte getType() {
+		return type;
+	}
+
+	// Returns the number of pay periods a yearly salary or base salary is
+	// split over, or 0 if the plan has neither.
+	public int getPeriodsPerYear() {
+		return periodsPerYear;
+	}
+
+	// Returns the number of hours after which overtime is paid.
+	public int getOvertimeAfter() {
+		return overtimeAfter;
+	}
+
+	// Returns the multiple of the wage paid for overtime.
+	public double getOvertimeMultiplier() {
+		return overtimeMultiplier;
+	}
+
+	// Returns true if the commission is paid in tiers.
+	public boolean isTiered() {
+		return tierFrom != null;
+	}
+
+	/*
+	 * Returns the plan with its yearly salary or base salary split over the
+	 * given number of pay periods instead, or the plan itself if it has no
+	 * such salary (or already uses that number). Used by PayrollSimulation
+	 * for scenarios with another number of pay periods.
+	 */
+	PayPlan withPeriodsPerYear(int periods) {
+		PayPlan plan = this;
+		if (periodsPerYear != 0 && periods != periodsPerYear) {
+			checkPeriods(periods);
+			plan = new PayPlan(type, periods, overtimeAfter,
+					overtimeMultiplier, tierFrom, tierRates);
+		}
+		return plan;
+	}
+
+	/*
+	 * Returns the tiered plan with the given number of percentage points
+	 * added to the rate of every tier, each kept from 0 to MAX_RATE, or the
+	 * plan itself if it is not tiered (its employees are paid their own
+	 * rates) or the change is 0. Used by PayrollSimulation for scenarios
+	 * changing commission rates.
+	 */
+	PayPlan withRateChange(double points) {
+		PayPlan plan = this;
+		if (tierRates != null && points != 0.0) {
+			double[] rates = new double[tierRates.length];
+			for (int i = 0; i < rates.length; i++) {
+				rates[i] = Math.min(Math.max(0.0, tierRates[i] + points),
+						MAX_RATE);
+			}
+			plan = new PayPlan(type, periodsPerYear, overtimeAfter,
+					overtimeMultiplier, tierFrom, rates);
+		}
+		return plan;
+	}
+
+	/*
+	 * The compiled form of a plan. payCents() returns the pay in cents of an
+	 * employee for the period from the salary and rate columns of its row and
+	 * its hours and sales (in cents) so far.
+	 */
+	interface Formula {
+		long payCents(long salaryCents, double rate, int hours,
+				long saleCents);
+	}
+
+	/*
+	 * Compiles the plan into a Formula. Called by EmployeeStore whenever a
+	 * plan is set.
+	 */
+	Formula compile() {
+		final int periods = periodsPerYear;
+		Formula formula;
+		if (type == EmployeeStore.SALARIED && periods == BIWEEKLY) {
+			// the default plan divides by a constant, which the JIT turns
+			// into a multiplication
+			formula = new Formula() {
+				public long payCents(long salaryCents, double rate,
+						int hours, long saleCents) {
+					return Money.divide(salaryCents, BIWEEKLY,
+							Money.DEFAULT_ROUNDING);
+				}
+			};
+		} else if (type == EmployeeStore.SALARIED) {
+			formula = new Formula() {
+				public long payCents(long salaryCents, double rate,
+						int hours, long saleCents) {
+					return Money.divide(salaryCents, periods,
+							Money.DEFAULT_ROUNDING);
+				}
+			};
+		} else if (type == EmployeeStore.HOURLY) {
+			final int after = overtimeAfter;
+			final double overtimePercent = overtimeMultiplier * 100;
+			formula = new Formula() {
+				public long payCents(long salaryCents, double rate,
+						int hours, long saleCents) {
+					long pay = salaryCents * hours;
+					if (hours > after) {
+						pay = salaryCents * after + Money.percentOf(
+								salaryCents * (hours - after),
+								overtimePercent, Money.DEFAULT_ROUNDING);
+					}
+					return pay;
+				}
+			};
+		} else if (tierFrom == null && periods == 0) {
+			formula = new Formula() {
+				public long payCents(long salaryCents, double rate,
+						int hours, long saleCents) {
+					return Money.percentOf(saleCents, rate,
+							Money.DEFAULT_ROUNDING);
+				}
+			};
+		} else if (tierFrom == null) {
+			formula = new Formula() {
+				public long payCents(long salaryCents, double rate,
+						int hours, long saleCents) {
+					return Money.divide(salaryCents, periods,
+							Money.DEFAULT_ROUNDING)
+							+ Money.percentOf(saleCents, rate,
+									Money.DEFAULT_ROUNDING);
+				}
+			};
+		} else {
+			final long[] from = tierFrom;
+			final double[] rates = tierRates;
+			formula = new Formula() {
+				public long payCents(long salaryCents, double rate,
+						int hours, long saleCents) {
+					long pay = 0;
+					if (periods != 0) {
+						pay = Money.divide(salaryCents, periods,
+								Money.DEFAULT_ROUNDING);
+					}
+					for (int t = 0; t < from.length && saleCents > from[t];
+							t++) {
+						long upTo = saleCents;
+						if (t + 1 < from.length && from[t + 1] < upTo) {
+							upTo = from[t + 1];
+						}
+						pay += Money.percentOf(upTo - from[t], rates[t],
+								Money.DEFAULT_ROUNDING);
+					}
+					return pay;
+				}
+			};
+		}
+		return formula;
+	}
+
+	/*
+	 * Private helpers checking the number of pay periods and the tiers of a
+	 * plan and creating a tiered plan.
+	 */
+	private static void checkPeriods(int periodsPerYear) {
+		if (periodsPerYear < 1) {
+			throw new IllegalArgumentException("invalid number of periods "
+					+ periodsPerYear);
+		}
+	}
+
+	private static PayPlan tiered(int periodsPerYear, double[] tierFrom,
+			double[] tierRates) {
+		if (tierFrom == null || tierRates == null || tierFrom.length == 0
+				|| tierFrom.length != tierRates.length) {
+			throw new IllegalArgumentException("invalid tiers");
+		}
+		long[] from = new long[tierFrom.length];
+		for (int i = 0; i < from.length; i++) {
+			if (!Money.isValidAmount(tierFrom[i])) {
+				throw new IllegalArgumentException("invalid tiers");
+			}
+			from[i] = Money.toCents(tierFrom[i]);
+			if (i == 0 ? from[i] != 0 : from[i] <= from[i - 1]) {
+				throw new IllegalArgumentException("tiers out of order");
+			}
+			if (!(tierRates[i] >= 0.0 && tierRates[i] < 100.0)) {
+				throw new IllegalArgumentException("invalid tier rate");
+			}
+		}
+		return new PayPlan(EmployeeStore.COMMISSIONED, periodsPerYear, 0, 0.0,
+				from, Arrays.copyOf(tierRates, tierRates.length));
+	}
+}
@@ -0,0 +1,576 @@
+package businessOffice;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/*
+ * The PayrollBenchmark class is a small benchmark harness for the hot paths of
+ * the system: hiring, makeSale and workHours on hot (a few employees used over
+ * and over) and cold (employees picked at random) names, getPayroll,
+ * newPayPeriod, the full payroll scan behind verifyPayroll and growing a
+ * DatarrayList. makeSale.journaled is makeSale.hot with a PayrollJournal
+ * attached (including writing every record to disk at the end of the
+ * iteration), so the two show the cost of journaling per event, and
+ * makeSale.metrics is makeSale.hot recording to a RecordingMetrics.
+ * makeSale.indexed is makeSale.cold keeping an EmployeeIndex up to date, and
+ * topEarners.100 asks that index for the 100 best paid employees. The
+ * payroll benchmarks sum the pay of every employee three ways: through the
+ * virtual totalPay() call of Employee objects (virtual), with a type tag test
+ * per row (tagged) and one type at a time as PayrollEngine does (batched);
+ * payroll.plans is the PayrollEngine sum with semi-monthly salaries and a
+ * base plus tiered commission plan instead of the default pay plans.
+ * makeSale.offheap and payroll.offheap are makeSale.cold and the
+ * PayrollEngine sum on an account keeping its employees in an
+ * OffHeapEmployeeStore.
+ * Every benchmark is run at 1k, 100k and 1M employees.
+ *
+ * Each benchmark has an untimed setup, WARMUP_ITERATIONS iterations whose
+ * results are thrown away so the JIT can compile the code, and then
+ * MEASURE_ITERATIONS timed iterations. For every iteration the average time
+ * per operation and the bytes allocated per operation by the benchmark thread
+ * are recorded (the same number the gc profiler of JMH reports as
+ * gc.alloc.rate.norm). The results are written as JSON in the layout JMH uses
+ * (benchmark, params, primaryMetric, secondaryMetrics), so the files can be
+ * compared from run to run with the same tools.
+ *
+ * Usage: java businessOffice.PayrollBenchmark [output.json] [sizes...]
+ * Without an output file the JSON is printed. Sizes default to 1000, 100000
+ * and 1000000 employees.
+ */
+public final class PayrollBenchmark {
+	private static final int WARMUP_ITERATIONS = 3;
+	private static final int MEASURE_ITERATIONS = 5;
+
+	// Number of operations per iteration for the per-employee benchmarks.
+	private static final int OPS_PER_ITERATION = 1000000;
+
+	// Number of distinct names used by the hot name benchmarks.
+	private static final int HOT_NAMES = 16;
+
+	// Results of the benchmarks are added here so the JIT cannot remove the
+	// work as dead code.
+	private static volatile long sink;
+
+	private PayrollBenchmark() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		int[] sizes = { 1000, 100000, 1000000 };
+		if (args.length > 1) {
+			sizes = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++) {
+				sizes[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+
+		ArrayList<String> results = new ArrayList<String>();
+		for (int size : sizes) {
+			// each benchmark is dropped once it has run so only one filled
+			// account is kept in memory at a time
+			ArrayList<Benchmark> list = benchmarks(size);
+			for (int i = 0; i < list.size(); i++) {
+				results.add(run(list.get(i)));
+				list.set(i, null);
+			}
+		}
+
+		String json = "[\n" + String.join(",\n", results) + "\n]\n";
+		if (args.length > 0) {
+			Files.write(Paths.get(args[0]),
+					json.getBytes(StandardCharsets.UTF_8));
+		} else {
+			System.out.print(json);
+		}
+	}
+
+	/*
+	 * A single benchmark: setup() prepares the state for one iteration
+	 * without being timed (creating large state on its first call) and run()
+	 * does the timed work, returning how many operations it performed.
+	 * teardown() is called once after the last iteration.
+	 */
+	abstract static class Benchmark {
+		final String name;
+		final int employees;
+
+		Benchmark(String name, int employees) {
+			this.name = name;
+			this.employees = employees;
+		}
+
+		abstract void setup();
+
+		abstract long run();
+
+		void teardown() {
+		}
+
+		/*
+		 * Creates the account the event and scan benchmarks fill, an
+		 * account with its employees on the heap unless overridden.
+		 */
+		Account newAccount() {
+			return new Account("bench");
+		}
+	}
+
+	/*
+	 * Returns every benchmark for an account of the given number of
+	 * employees.
+	 */
+	static ArrayList<Benchmark> benchmarks(final int size) {
+		ArrayList<Benchmark> list = new ArrayList<Benchmark>();
+		final String[] names = names(size);
+
+		list.add(new Benchmark("hireSalariedWorker", size) {
+			Account account;
+
+			void setup() {
+				account = new Account("bench");
+			}
+
+			long run() {
+				for (int i = 0; i < size; i++) {
+					account.hireSalariedWorker(names[i], 52000.0);
+				}
+				return size;
+			}
+		});
+		list.add(new Benchmark("hireCommissionedWorker", size) {
+			Account account;
+
+			void setup() {
+				account = new Account("bench");
+			}
+
+			long run() {
+				for (int i = 0; i < size; i++) {
+					account.hireCommissionedWorker(names[i], 12.5);
+				}
+				return size;
+			}
+		});
+		list.add(new EventBenchmark("makeSale.hot", size, names, true) {
+			long event(Account account, String name) {
+				return account.makeSale(name, 19.99) ? 1 : 0;
+			}
+		});
+		list.add(new EventBenchmark("makeSale.cold", size, names, false) {
+			long event(Account account, String name) {
+				return account.makeSale(name, 19.99) ? 1 : 0;
+			}
+		});
+		list.add(new EventBenchmark("workHours.hot", size, names, true) {
+			long event(Account account, String name) {
+				return account.workHours(name, 1) ? 1 : 0;
+			}
+		});
+		list.add(new EventBenchmark("workHours.cold", size, names, false) {
+			long event(Account account, String name) {
+				return account.workHours(name, 1) ? 1 : 0;
+			}
+		});
+		list.add(new EventBenchmark("getPayroll", size, names, true) {
+			long event(Account account, String name) {
+				return account.getPayrollCents();
+			}
+		});
+		list.add(new EventBenchmark("makeSale.metrics", size, names, true) {
+			@Override
+			void prepare(Account account) {
+				account.setMetrics(new RecordingMetrics());
+			}
+
+			long event(Account account, String name) {
+				return account.makeSale(name, 19.99) ? 1 : 0;
+			}
+		});
+		list.add(new EventBenchmark("makeSale.indexed", size, names, false) {
+			@Override
+			void prepare(Account account) {
+				account.enableIndex();
+			}
+
+			long event(Account account, String name) {
+				return account.makeSale(name, 19.99) ? 1 : 0;
+			}
+		});
+		list.add(new EventBenchmark("topEarners.100", size, names, true) {
+			@Override
+			void prepare(Account account) {
+				account.enableIndex();
+			}
+
+			long event(Account account, String name) {
+				return account.getIndex().topEarners(100).length;
+			}
+		});
+		list.add(new EventBenchmark("makeSale.journaled", size, names, true) {
+			PayrollJournal journal;
+			Path dir;
+
+			@Override
+			void prepare(Account account) {
+				try {
+					teardown();
+					dir = Files.createTempDirectory("journal");
+					journal = new PayrollJournal(dir);
+					account.setJournal(journal);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			@Override
+			long run() {
+				long ops = super.run();
+				try {
+					journal.sync();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return ops;
+			}
+
+			@Override
+			void teardown() {
+				try {
+					if (journal != null) {
+						journal.close();
+						deleteDirectory(dir);
+						journal = null;
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			long event(Account account, String name) {
+				return account.makeSale(name, 19.99) ? 1 : 0;
+			}
+		});
+		list.add(new Benchmark("newPayPeriod", size) {
+			Account account;
+
+			void setup() {
+				if (account == null) {
+					account = filledAccount(names, size);
+				}
+			}
+
+			long run() {
+				for (int i = 0; i < 100; i++) {
+					account.newPayPeriod();
+				}
+				return 100;
+			}
+		});
+		list.add(new Benchmark("verifyPayroll", size) {
+			Account account;
+
+			void setup() {
+				if (account == null) {
+					account = filledAccount(names, size);
+				}
+			}
+
+			long run() {
+				for (int i = 0; i < 10; i++) {
+					sink += (long) account.verifyPayroll();
+				}
+				return 10;
+			}
+		});
+		list.add(new ScanBenchmark("payroll.virtual", size, names) {
+			Employee[] employees;
+
+			long scan(EmployeeStore store) {
+				if (employees == null) {
+					employees = new Employee[size];
+					for (int i = 0; i < size; i++) {
+						employees[i] = store.view(i);
+					}
+				}
+				double totalAmt = 0.0;
+				for (Employee emp : employees) {
+					totalAmt += emp.totalPay();
+				}
+				return (long) totalAmt;
+			}
+		});
+		list.add(new ScanBenchmark("payroll.tagged", size, names) {
+			long scan(EmployeeStore store) {
+				return store.payrollCents(0, store.size());
+			}
+		});
+		list.add(new ScanBenchmark("payroll.batched", size, names) {
+			long scan(EmployeeStore store) {
+				return store.salariedPayrollCents(0,
+						store.numOfType(EmployeeStore.SALARIED))
+						+ store.commissionedPayrollCents(0,
+								store.numOfType(EmployeeStore.COMMISSIONED));
+			}
+		});
+		list.add(new ScanBenchmark("payroll.plans", size, names) {
+			@Override
+			void prepare(Account account) {
+				account.setPayPlan(PayPlan.salaried(PayPlan.SEMI_MONTHLY));
+				account.setPayPlan(PayPlan.basePlusTieredCommission(
+						PayPlan.SEMI_MONTHLY, new double[] { 0, 5000, 20000 },
+						new double[] { 5, 8, 12 }));
+			}
+
+			long scan(EmployeeStore store) {
+				return PayrollEngine.payrollCents(store);
+			}
+		});
+		list.add(new EventBenchmark("makeSale.offheap", size, names, false) {
+			@Override
+			Account newAccount() {
+				return BusinessOffice.createOffHeapAccount("bench");
+			}
+
+			long event(Account account, String name) {
+				return account.makeSale(name, 19.99) ? 1 : 0;
+			}
+		});
+		list.add(new ScanBenchmark("payroll.offheap", size, names) {
+			@Override
+			Account newAccount() {
+				return BusinessOffice.createOffHeapAccount("bench");
+			}
+
+			long scan(EmployeeStore store) {
+				return PayrollEngine.payrollCents(store);
+			}
+		});
+		list.add(new Benchmark("DatarrayList.add", size) {
+			Object element = new Object();
+
+			void setup() {
+			}
+
+			long run() {
+				DatarrayList list = new DatarrayList();
+				for (int i = 0; i < size; i++) {
+					list.add(element);
+				}
+				return size;
+			}
+		});
+		return list;
+	}
+
+	/*
+	 * Benchmark calling event() OPS_PER_ITERATION times on a filled account,
+	 * either cycling over HOT_NAMES names or going through every employee in
+	 * a random order.
+	 */
+	abstract static class EventBenchmark extends Benchmark {
+		private final String[] names;
+		private final boolean hot;
+		private Account account;
+		private String[] order;
+
+		EventBenchmark(String name, int size, String[] names, boolean hot) {
+			super(name, size);
+			this.names = names;
+			this.hot = hot;
+		}
+
+		void setup() {
+			if (account == null) {
+				account = filledAccount(newAccount(), names, employees);
+				order = new String[OPS_PER_ITERATION];
+				Random random = new Random(42);
+				for (int i = 0; i < order.length; i++) {
+					if (hot) {
+						order[i] = names[i % Math.min(HOT_NAMES, employees)];
+					} else {
+						order[i] = names[random.nextInt(employees)];
+					}
+				}
+			}
+			account.setListener(null);
+			account.newPayPeriod();
+			prepare(account);
+		}
+
+		/*
+		 * Called by setup() before every iteration, e.g. to attach a
+		 * listener to the account.
+		 */
+		void prepare(Account account) {
+		}
+
+		long run() {
+			long total = 0;
+			for (int i = 0; i < order.length; i++) {
+				total += event(account, order[i]);
+			}
+			sink += total;
+			return order.length;
+		}
+
+		abstract long event(Account account, String name);
+	}
+
+	/*
+	 * Benchmark summing the pay of every employee of a filled account (with
+	 * a sale made by every commissioned employee) on the calling thread, 10
+	 * times per iteration. One operation is the pay of one employee.
+	 */
+	abstract static class ScanBenchmark extends Benchmark {
+		private final String[] names;
+		private Account account;
+
+		ScanBenchmark(String name, int size, String[] names) {
+			super(name, size);
+			this.names = names;
+		}
+
+		void setup() {
+			if (account == null) {
+				account = filledAccount(newAccount(), names, employees);
+				for (int i = 1; i < employees; i += 2) {
+					account.makeSale(names[i], 19.99 * i);
+				}
+				prepare(account);
+			}
+		}
+
+		/*
+		 * Called once by setup() after the account is filled, e.g. to set
+		 * its pay plans.
+		 */
+		void prepare(Account account) {
+		}
+
+		long run() {
+			for (int i = 0; i < 10; i++) {
+				sink += scan(account.empStore);
+			}
+			return 10L * employees;
+		}
+
+		abstract long scan(EmployeeStore store);
+	}
+
+	/*
+	 * Runs a benchmark and returns its result as a JSON object.
+	 */
+	static String run(Benchmark bench) {
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory
+						.getThreadMXBean();
+		double[] nsPerOp = new double[MEASURE_ITERATIONS];
+		double[] bytesPerOp = new double[MEASURE_ITERATIONS];
+
+		for (int i = 0; i < WARMUP_ITERATIONS + MEASURE_ITERATIONS; i++) {
+			bench.setup();
+			long bytesBefore = threads.getCurrentThreadAllocatedBytes();
+			long start = System.nanoTime();
+			long ops = bench.run();
+			long elapsed = System.nanoTime() - start;
+			long bytes = threads.getCurrentThreadAllocatedBytes()
+					- bytesBefore;
+			if (i >= WARMUP_ITERATIONS) {
+				nsPerOp[i - WARMUP_ITERATIONS] = (double) elapsed / ops;
+				bytesPerOp[i - WARMUP_ITERATIONS] = (double) bytes / ops;
+			}
+		}
+		bench.teardown();
+
+		return "  {\n"
+				+ "    \"benchmark\" : \"businessOffice.PayrollBenchmark."
+				+ bench.name + "\",\n"
+				+ "    \"mode\" : \"avgt\",\n"
+				+ "    \"warmupIterations\" : " + WARMUP_ITERATIONS + ",\n"
+				+ "    \"measurementIterations\" : " + MEASURE_ITERATIONS
+				+ ",\n"
+				+ "    \"params\" : { \"employees\" : \"" + bench.employees
+				+ "\" },\n"
+				+ "    \"primaryMetric\" : " + metric(nsPerOp, "ns/op")
+				+ ",\n"
+				+ "    \"secondaryMetrics\" : { \"gc.alloc.rate.norm\" : "
+				+ metric(bytesPerOp, "B/op") + " }\n"
+				+ "  }";
+	}
+
+	/*
+	 * Formats the measured values of one metric as a JSON object with the
+	 * mean as the score and the standard deviation as the error.
+	 */
+	private static String metric(double[] values, String unit) {
+		double mean = 0.0;
+		for (double value : values) {
+			mean += value;
+		}
+		mean /= values.length;
+		double variance = 0.0;
+		for (double value : values) {
+			variance += (value - mean) * (value - mean);
+		}
+		double error = Math.sqrt(variance / Math.max(values.length - 1, 1));
+
+		StringBuilder raw = new StringBuilder();
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				raw.append(", ");
+			}
+			raw.append(values[i]);
+		}
+		return "{ \"score\" : " + mean + ", \"scoreError\" : " + error
+				+ ", \"scoreUnit\" : \"" + unit + "\", \"rawData\" : [ [ "
+				+ raw + " ] ] }";
+	}
+
+	/*
+	 * Private helpers creating the employee names, deleting a directory with
+	 * everything in it and creating an account where every second employee is
+	 * salaried and the others commissioned.
+	 */
+	private static String[] names(int size) {
+		String[] names = new String[size];
+		for (int i = 0; i < size; i++) {
+			names[i] = "employee" + i;
+		}
+		return names;
+	}
+
+	private static void deleteDirectory(Path dir) throws IOException {
+		ArrayList<Path> paths = new ArrayList<Path>();
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.forEach(paths::add);
+		}
+		paths.sort(Comparator.reverseOrder());
+		for (Path path : paths) {
+			Files.delete(path);
+		}
+	}
+
+	private static Account filledAccount(String[] names, int size) {
+		return filledAccount(new Account("bench"), names, size);
+	}
+
+	private static Account filledAccount(Account account, String[] names,
+			int size) {
+		for (int i = 0; i < size; i++) {
+			if (i % 2 == 0) {
+				account.hireSalariedWorker(names[i], 52000.0);
+			} else {
+				account.hireCommissionedWorker(names[i], 12.5);
+			}
+		}
+		return account;
+	}
+}
@@ -0,0 +1,648 @@
+package businessOffice;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * The PayrollCsv class reads rosters, timesheets and sales from delimited text
+ * files (comma or tab separated, UTF-8) into an Account and writes the payroll
+ * of an Account out the same way. Files are streamed through a fixed size
+ * buffer over a channel, so memory use does not depend on the size of the
+ * file. Lines are split by scanning the bytes of the buffer for the delimiter
+ * and the end of the line; numbers are parsed straight from those bytes and
+ * only employee names become Strings. Fields may be quoted with double quotes
+ * ("" inside quotes being a quote), blank lines are skipped, and a first line
+ * whose number field is not a number is taken to be a header and skipped.
+ *
+ * The file formats are (one record per line):
+ *
+ *   roster     name, type (salaried, hourly or commissioned), yearly
+ *              salary, hourly wage or commission rate
+ *   hours      name, hours
+ *   sales      name, sale amount
+ *   payroll    name, type, hours, sales, pay (written with a header line)
+ *
+ * Hours and sales are passed to the batch workHours and makeSale methods of
+ * the account BATCH_SIZE records at a time. As the channels are read and
+ * written as the account takes in or hands out records, a slow source or
+ * destination simply slows the import or export down (a blocking channel
+ * waits) instead of records piling up in memory. Each import returns how many
+ * records the account accepted; a line that cannot be read throws an
+ * IOException naming the line, after the records before it were applied. An
+ * exception thrown by the account ends the import at once, and the records
+ * of the batch it was thrown on are not passed to the account again. The
+ * class cannot be instantiated.
+ */
+public final class PayrollCsv {
+	public static final char CSV = ',';
+	public static final char TSV = '\t';
+
+	// Number of hours or sales records passed to the account in one batch.
+	public static final int BATCH_SIZE = 4096;
+
+	// Size of the read and write buffers; no line may be longer than this.
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	// Room left in the write buffer for the fields of a payroll line other
+	// than the name.
+	private static final int ROW_BYTES = 80;
+
+	// Powers of 10 up to 10^18, all exact doubles.
+	private static final double[] POWERS_OF_TEN = new double[19];
+	static {
+		POWERS_OF_TEN[0] = 1.0;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = 10.0 * POWERS_OF_TEN[i - 1];
+		}
+	}
+
+	private PayrollCsv() {
+	}
+
+	/*
+	 * Hires every employee of a roster file into the account and returns how
+	 * many were hired.
+	 */
+	public static int importRoster(Account account, Path file, char delimiter)
+			throws IOException {
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			return importRoster(account, in, delimiter);
+		}
+	}
+
+	public static int importRoster(Account account, ReadableByteChannel in,
+			char delimiter) throws IOException {
+		FieldReader reader = new FieldReader(in, delimiter);
+		int count = 0;
+		while (reader.next()) {
+			reader.requireFields(3);
+			double amount;
+			if (reader.isNumber(2)) {
+				amount = reader.decimal(2);
+			} else if (reader.isHeader()) {
+				continue;
+			} else {
+				throw reader.error("not a number");
+			}
+			boolean flag;
+			if (reader.fieldEquals(1, "salaried")) {
+				flag = account.hireSalariedWorker(reader.string(0), amount);
+			} else if (reader.fieldEquals(1, "hourly")) {
+				flag = account.hireHourlyWorker(reader.string(0), amount);
+			} else if (reader.fieldEquals(1, "commissioned")) {
+				flag = account.hireCommissionedWorker(reader.string(0), amount);
+			} else {
+				throw reader.error("unknown employee type");
+			}
+			if (flag) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * Adds the hours of every record of an hours file to the account and
+	 * returns how many records were accepted.
+	 */
+	public static int importHours(Account account, Path file, char delimiter)
+			throws IOException {
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			return importHours(account, in, delimiter);
+		}
+	}
+
+	public static int importHours(Account account, ReadableByteChannel in,
+			char delimiter) throws IOException {
+		FieldReader reader = new FieldReader(in, delimiter);
+		String[] names = new String[BATCH_SIZE];
+		int[] hours = new int[BATCH_SIZE];
+		int size = 0;
+		int count = 0;
+		IOException error = null;
+		try {
+			while (reader.next()) {
+				reader.requireFields(2);
+				if (reader.isNumber(1)) {
+					names[size] = reader.string(0);
+					hours[size++] = reader.integer(1);
+				} else if (!reader.isHeader()) {
+					throw reader.error("not a number");
+				}
+				if (size == BATCH_SIZE) {
+					// cleared first: a batch the account throws on is not
+					// sent again
+					size = 0;
+					count += accepted(account.workHours(names, hours));
+				}
+			}
+		} catch (IOException e) {
+			error = e;
+		}
+		// the records read before a line that cannot be read are still
+		// applied, and the IOException is thrown after them
+		if (size > 0) {
+			try {
+				count += accepted(account.workHours(Arrays.copyOf(names, size),
+						Arrays.copyOf(hours, size)));
+			} catch (RuntimeException e) {
+				if (error == null) {
+					throw e;
+				}
+				error.addSuppressed(e);
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+		return count;
+	}
+
+	/*
+	 * Adds the sales of every record of a sales file to the account and
+	 * returns how many records were accepted.
+	 */
+	public static int importSales(Account account, Path file, char delimiter)
+			throws IOException {
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			return importSales(account, in, delimiter);
+		}
+	}
+
+	public static int importSales(Account account, ReadableByteChannel in,
+			char delimiter) throws IOException {
+		FieldReader reader = new FieldReader(in, delimiter);
+		String[] names = new String[BATCH_SIZE];
+		double[] amounts = new double[BATCH_SIZE];
+		int size = 0;
+		int count = 0;
+		IOException error = null;
+		try {
+			while (reader.next()) {
+				reader.requireFields(2);
+				if (reader.isNumber(1)) {
+					names[size] = reader.string(0);
+					amounts[size++] = reader.decimal(1);
+				} else if (!reader.isHeader()) {
+					throw reader.error("not a number");
+				}
+				if (size == BATCH_SIZE) {
+					// cleared first: a batch the account throws on is not
+					// sent again
+					size = 0;
+					count += accepted(account.makeSale(names, amounts));
+				}
+			}
+		} catch (IOException e) {
+			error = e;
+		}
+		// the records read before a line that cannot be read are still
+		// applied, and the IOException is thrown after them
+		if (size > 0) {
+			try {
+				count += accepted(account.makeSale(Arrays.copyOf(names, size),
+						Arrays.copyOf(amounts, size)));
+			} catch (RuntimeException e) {
+				if (error == null) {
+					throw e;
+				}
+				error.addSuppressed(e);
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+		return count;
+	}
+
+	/*
+	 * Writes the name, type, hours, sales and pay of every employee of the
+	 * account to the file (replacing it) in a single pass over the employees,
+	 * and returns the number of employees written.
+	 */
+	public static int exportPayroll(Account account, Path file, char delimiter)
+			throws IOException {
+		try (FileChannel out = FileChannel.open(file,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			return exportPayroll(account, out, delimiter);
+		}
+	}
+
+	public static int exportPayroll(Account account, WritableByteChannel out,
+			char delimiter) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+		byte sep = (byte) delimiter;
+		putAscii(buf, "name");
+		buf.put(sep);
+		putAscii(buf, "type");
+		buf.put(sep);
+		putAscii(buf, "hours");
+		buf.put(sep);
+		putAscii(buf, "sales");
+		buf.put(sep);
+		putAscii(buf, "pay");
+		buf.put((byte) '\n');
+
+		EmployeeStore store = account.empStore;
+		int size = store.size();
+		int exported = 0;
+		for (int row = 0; row < size; row++) {
+			// tombstones, and employees terminated meanwhile, are skipped
+			String empName = store.getName(row);
+			long hours = -1;
+			long saleCents = 0;
+			long payCents = 0;
+			if (empName != null) {
+				hours = account.hoursAt(empName, row);
+				saleCents = account.saleCentsAt(empName, row);
+				payCents = account.payCentsAt(empName, row);
+			}
+			if (hours < 0 || saleCents < 0 || payCents < 0) {
+				continue;
+			}
+			exported++;
+			byte[] name = quote(empName, delimiter);
+			if (buf.remaining() < name.length + ROW_BYTES) {
+				flush(buf, out);
+			}
+			if (buf.remaining() < name.length + ROW_BYTES) {
+				// a name too long for the buffer is written on its own
+				write(ByteBuffer.wrap(name), out);
+			} else {
+				buf.put(name);
+			}
+			buf.put(sep);
+			byte type = store.getType(row);
+			if (type == EmployeeStore.SALARIED) {
+				putAscii(buf, "salaried");
+			} else if (type == EmployeeStore.HOURLY) {
+				putAscii(buf, "hourly");
+			} else {
+				putAscii(buf, "commissioned");
+			}
+			buf.put(sep);
+			putLong(buf, hours);
+			buf.put(sep);
+			putCents(buf, saleCents);
+			buf.put(sep);
+			putCents(buf, payCents);
+			buf.put((byte) '\n');
+		}
+		flush(buf, out);
+		return exported;
+	}
+
+	/*
+	 * Private helper counting the true entries of the results of a batch.
+	 */
+	private static int accepted(boolean[] results) {
+		int count = 0;
+		for (boolean result : results) {
+			if (result) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * Private helpers for writing: writing out the bytes of a buffer (all of
+	 * them, or the ones put into it so far clearing it afterwards), putting
+	 * ASCII text, a whole number or an amount in cents (as units with two
+	 * decimals) into the buffer, and encoding a name, quoted if it contains
+	 * the delimiter, a quote or a line break.
+	 */
+	private static void write(ByteBuffer buf, WritableByteChannel out)
+			throws IOException {
+		while (buf.hasRemaining()) {
+			out.write(buf);
+		}
+	}
+
+	private static void flush(ByteBuffer buf, WritableByteChannel out)
+			throws IOException {
+		buf.flip();
+		write(buf, out);
+		buf.clear();
+	}
+
+	private static void putAscii(ByteBuffer buf, String text) {
+		for (int i = 0; i < text.length(); i++) {
+			buf.put((byte) text.charAt(i));
+		}
+	}
+
+	private static void putLong(ByteBuffer buf, long value) {
+		if (value < 0) {
+			buf.put((byte) '-');
+		} else {
+			value = -value;
+		}
+		// digits are taken from the negative value so Long.MIN_VALUE works
+		int start = buf.position();
+		do {
+			buf.put((byte) ('0' - (value % 10)));
+			value /= 10;
+		} while (value != 0);
+		for (int i = start, j = buf.position() - 1; i < j; i++, j--) {
+			byte digit = buf.get(i);
+			buf.put(i, buf.get(j));
+			buf.put(j, digit);
+		}
+	}
+
+	private static void putCents(ByteBuffer buf, long cents) {
+		if (cents < 0) {
+			buf.put((byte) '-');
+		}
+		long units = Math.abs(cents / Money.CENTS_PER_UNIT);
+		int rest = (int) Math.abs(cents % Money.CENTS_PER_UNIT);
+		putLong(buf, units);
+		buf.put((byte) '.');
+		buf.put((byte) ('0' + rest / 10));
+		buf.put((byte) ('0' + rest % 10));
+	}
+
+	private static byte[] quote(String name, char delimiter) {
+		if (name.indexOf(delimiter) >= 0 || name.indexOf('"') >= 0
+				|| name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0) {
+			name = '"' + name.replace("\"", "\"\"") + '"';
+		}
+		return name.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Reads the lines of a channel one at a time and splits them into fields,
+	 * keeping only the start and end of each field within the buffer.
+	 */
+	private static final class FieldReader {
+		private final ReadableByteChannel in;
+		private final byte delimiter;
+		private final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+		private final byte[] bytes = buf.array();
+		private boolean eof = false;
+		private int lineNumber = 0;
+
+		// Bounds of the fields of the current line, and whether each was
+		// quoted (the bounds are then inside the quotes).
+		private int[] starts = new int[8];
+		private int[] ends = new int[8];
+		private boolean[] quoted = new boolean[8];
+		private int numFields;
+
+		FieldReader(ReadableByteChannel in, char delimiter) {
+			this.in = in;
+			this.delimiter = (byte) delimiter;
+			buf.flip();
+		}
+
+		/*
+		 * Moves to the next line that is not blank. Returns false at the end
+		 * of the input.
+		 */
+		boolean next() throws IOException {
+			while (true) {
+				int end = lineEnd();
+				while (end < 0 && !eof) {
+					fill();
+					end = lineEnd();
+				}
+				if (end < 0) {
+					if (!buf.hasRemaining()) {
+						return false;
+					}
+					// the last line has no line break
+					end = buf.limit();
+				}
+				lineNumber++;
+				int start = buf.position();
+				buf.position(Math.min(end + 1, buf.limit()));
+				int stop = end;
+				if (stop > start && bytes[stop - 1] == '\r') {
+					stop--;
+				}
+				if (stop > start) {
+					split(start, stop);
+					return true;
+				}
+			}
+		}
+
+		/*
+		 * Returns the position of the line break ending the current line, or
+		 * -1 if it is not in the buffer yet. Line breaks inside a quoted field
+		 * do not end the line; a quote only starts a quoted field at the start
+		 * of a field, and inside one a doubled quote is a quote.
+		 */
+		private int lineEnd() {
+			boolean inQuotes = false;
+			boolean fieldStart = true;
+			boolean closed = false;
+			for (int i = buf.position(); i < buf.limit(); i++) {
+				byte b = bytes[i];
+				if (b == '"' && (inQuotes || fieldStart || closed)) {
+					inQuotes = !inQuotes;
+					closed = !inQuotes;
+				} else if (b == '\n' && !inQuotes) {
+					return i;
+				} else {
+					closed = false;
+				}
+				fieldStart = !inQuotes && b == delimiter;
+			}
+			return -1;
+		}
+
+		/*
+		 * Moves the unread bytes to the front of the buffer and reads more.
+		 */
+		private void fill() throws IOException {
+			buf.compact();
+			if (!buf.hasRemaining()) {
+				throw new IOException("line " + (lineNumber + 1)
+						+ ": longer than " + BUFFER_SIZE + " bytes");
+			}
+			int read = in.read(buf);
+			if (read < 0) {
+				eof = true;
+			}
+			buf.flip();
+		}
+
+		private void split(int start, int stop) throws IOException {
+			numFields = 0;
+			int i = start;
+			while (true) {
+				if (numFields == starts.length) {
+					starts = Arrays.copyOf(starts, 2 * numFields);
+					ends = Arrays.copyOf(ends, 2 * numFields);
+					quoted = Arrays.copyOf(quoted, 2 * numFields);
+				}
+				int end;
+				if (i < stop && bytes[i] == '"') {
+					// the field ends at a quote not followed by another one
+					int close = i + 1;
+					while (close < stop && (bytes[close] != '"'
+							|| (close + 1 < stop && bytes[close + 1] == '"'))) {
+						close += bytes[close] == '"' ? 2 : 1;
+					}
+					if (close >= stop) {
+						throw error("unclosed quote");
+					}
+					starts[numFields] = i + 1;
+					ends[numFields] = close;
+					quoted[numFields] = true;
+					end = close + 1;
+					if (end < stop && bytes[end] != delimiter) {
+						throw error("text after closing quote");
+					}
+				} else {
+					end = i;
+					while (end < stop && bytes[end] != delimiter) {
+						end++;
+					}
+					starts[numFields] = i;
+					ends[numFields] = end;
+					quoted[numFields] = false;
+				}
+				numFields++;
+				if (end >= stop) {
+					break;
+				}
+				i = end + 1;
+			}
+		}
+
+		void requireFields(int count) throws IOException {
+			if (numFields < count) {
+				throw error("expected " + count + " fields");
+			}
+		}
+
+		// Returns true if the current line is the first one (a header).
+		boolean isHeader() {
+			return lineNumber == 1;
+		}
+
+		IOException error(String message) {
+			return new IOException("line " + lineNumber + ": " + message);
+		}
+
+		/*
+		 * Returns the text of a field, with the quotes doubled inside a
+		 * quoted field turned back into single quotes.
+		 */
+		String string(int field) {
+			String text = new String(bytes, starts[field],
+					ends[field] - starts[field], StandardCharsets.UTF_8);
+			if (quoted[field]) {
+				text = text.replace("\"\"", "\"");
+			}
+			return text;
+		}
+
+		/*
+		 * Returns true if the field is the given lower case ASCII word,
+		 * ignoring case and surrounding spaces.
+		 */
+		boolean fieldEquals(int field, String word) {
+			int from = skipSpaces(starts[field], ends[field]);
+			int to = trimSpaces(from, ends[field]);
+			boolean flag = to - from == word.length();
+			for (int i = 0; flag && i < word.length(); i++) {
+				flag = (bytes[from + i] | 0x20) == word.charAt(i);
+			}
+			return flag;
+		}
+
+		/*
+		 * Returns true if the field is a decimal number: an optional sign,
+		 * digits and an optional fraction, with optional surrounding spaces.
+		 */
+		boolean isNumber(int field) {
+			int i = skipSpaces(starts[field], ends[field]);
+			int to = trimSpaces(i, ends[field]);
+			if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+				i++;
+			}
+			int digits = 0;
+			boolean point = false;
+			for (; i < to; i++) {
+				if (bytes[i] >= '0' && bytes[i] <= '9') {
+					digits++;
+				} else if (bytes[i] == '.' && !point) {
+					point = true;
+				} else {
+					return false;
+				}
+			}
+			return digits > 0 && digits <= 18;
+		}
+
+		/*
+		 * Returns the value of a field checked with isNumber() as an int.
+		 */
+		int integer(int field) throws IOException {
+			double value = decimal(field);
+			if (value != Math.rint(value)
+					|| Math.abs(value) > Integer.MAX_VALUE) {
+				throw error("not a whole number");
+			}
+			return (int) value;
+		}
+
+		/*
+		 * Returns the value of a field checked with isNumber() as a double.
+		 * The digits are collected into a long and divided by the power of 10
+		 * of the fraction, which gives the same double as
+		 * Double.parseDouble() for numbers of up to 15 digits.
+		 */
+		double decimal(int field) {
+			int i = skipSpaces(starts[field], ends[field]);
+			int to = trimSpaces(i, ends[field]);
+			boolean negative = bytes[i] == '-';
+			if (bytes[i] == '-' || bytes[i] == '+') {
+				i++;
+			}
+			long digits = 0;
+			int scale = -1;
+			for (; i < to; i++) {
+				if (bytes[i] == '.') {
+					scale = 0;
+				} else {
+					digits = 10 * digits + (bytes[i] - '0');
+					if (scale >= 0) {
+						scale++;
+					}
+				}
+			}
+			double value = digits;
+			if (scale > 0) {
+				value /= POWERS_OF_TEN[scale];
+			}
+			return negative ? -value : value;
+		}
+
+		private int skipSpaces(int from, int to) {
+			while (from < to && bytes[from] == ' ') {
+				from++;
+			}
+			return from;
+		}
+
+		private int trimSpaces(int from, int to) {
+			while (to > from && bytes[to - 1] == ' ') {
+				to--;
+			}
+			return to;
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package businessOffice;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * The PayrollEngine class computes the payroll of an EmployeeStore by going
+ * through every row, splitting the work over the threads of a ForkJoinPool
+ * for large stores. The rows are summed one type at a time, so each loop
+ * applies the compiled pay plan of a single type with no type test (see
+ * EmployeeStore.payrollCentsOfType). For each type the rows are split in
+ * halves until a range has at most CHUNK_SIZE rows, each range is summed and
+ * the partial sums are added back together. As every pay amount is a
+ * whole number of cents the sums are exact, so the result is the same however
+ * the rows were split and however many threads took part. Stores with fewer
+ * than PARALLEL_THRESHOLD rows are summed on the calling thread, where
+ * starting tasks would cost more than it saves. The class cannot be
+ * instantiated.
+ */
+public final class PayrollEngine {
+	// Stores with fewer rows than this are summed sequentially.
+	public static final int PARALLEL_THRESHOLD = 1 << 16;
+
+	// Largest range of rows summed by a single task.
+	static final int CHUNK_SIZE = 1 << 13;
+
+	// Every type of row, in the order they are summed.
+	private static final byte[] TYPES = { EmployeeStore.SALARIED,
+			EmployeeStore.HOURLY, EmployeeStore.COMMISSIONED };
+
+	private PayrollEngine() {
+	}
+
+	/*
+	 * Returns the payroll in cents of every row of the store, using the common
+	 * ForkJoinPool for large stores.
+	 */
+	public static long payrollCents(EmployeeStore store) {
+		return payrollCents(store, ForkJoinPool.commonPool());
+	}
+
+	/*
+	 * Returns the payroll in cents of every row of the store, using the given
+	 * pool for large stores.
+	 */
+	public static long payrollCents(EmployeeStore store, ForkJoinPool pool) {
+		long totalAmt = 0;
+		boolean parallel = store.size() >= PARALLEL_THRESHOLD;
+		for (byte type : TYPES) {
+			int count = store.numOfType(type);
+			if (parallel) {
+				totalAmt += pool.invoke(new PayrollTask(store, type, 0, count));
+			} else {
+				totalAmt += store.payrollCentsOfType(type, 0, count);
+			}
+		}
+		return totalAmt;
+	}
+
+	/*
+	 * Task summing the pay of the rows of one type from (inclusive) to to
+	 * (exclusive), counted among the rows of that type, split in two halves
+	 * that run in parallel while the range is larger than CHUNK_SIZE.
+	 */
+	private static class PayrollTask extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+
+		private final EmployeeStore store;
+		private final byte type;
+		private final int from;
+		private final int to;
+
+		PayrollTask(EmployeeStore store, byte type, int from, int to) {
+			this.store = store;
+			this.type = type;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Long compute() {
+			long totalAmt;
+			if (to - from <= CHUNK_SIZE) {
+				totalAmt = store.payrollCentsOfType(type, from, to);
+			} else {
+				int mid = (from + to) >>> 1;
+				PayrollTask left = new PayrollTask(store, type, from, mid);
+				left.fork();
+				totalAmt = new PayrollTask(store, type, mid, to).compute();
+				totalAmt += left.join();
+			}
+			return totalAmt;
+		}
+	}
+}
@@ -0,0 +1,366 @@
+package businessOffice;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*
+ * The PayrollHistory class keeps the pay periods an Account has closed. It is
+ * turned on with Account.enableHistory(), after which every newPayPeriod()
+ * first archives the hours, sales and pay of every employee for the period
+ * being closed, and only then resets them. Closed periods are numbered from 1
+ * in the order they were closed.
+ *
+ * Each closed period is stored as four compact columns (employee number,
+ * hours, sales and pay, one entry per employee) in its own direct (off-heap)
+ * ByteBuffer that is never changed afterwards. Employees are kept by their
+ * employee number (see EmployeeStore.getId()) rather than their row, as rows
+ * change when terminated employees are compacted away. Every entry is stored
+ * as the difference from the entry before it, zigzag encoded so small
+ * negative differences stay small, and written as a variable length integer
+ * of 7 bits per byte. Employees hired one after the other with the same
+ * salary and no hours or sales therefore take 4 bytes a period. Reading one
+ * employee of one period decodes the numbers until its own and then the
+ * column up to the same entry. Terminated employees are not archived.
+ *
+ * Next to the archive, running totals are kept on the heap as periods are
+ * closed: the year-to-date hours, sales and pay of every employee, the
+ * year-to-date payroll of the account and the payroll of every period added
+ * up from the first one, indexed by employee number. Year-to-date questions
+ * and the payroll of a range of
+ * periods are therefore answered without decoding any period. newYear() makes
+ * the year-to-date totals start again from the next closed period.
+ *
+ * The methods are synchronized, and periods are archived while the account
+ * holds its locks (see ConcurrentAccount), so queries may run while other
+ * threads use the account. The history is kept in memory only and is not
+ * part of an AccountSnapshot.
+ */
+public class PayrollHistory {
+	private final Account account;
+
+	// Archive of every closed period; periods[i] is period i + 1.
+	private Period[] periods = new Period[16];
+	private int numPeriods = 0;
+
+	// cumulative[i] is the payroll of periods 1 to i (cumulative[0] is 0).
+	private long[] cumulative = new long[17];
+
+	// Year-to-date totals of every employee number, and of the account.
+	private int[] ytdHours = new int[16];
+	private long[] ytdSales = new long[16];
+	private long[] ytdPay = new long[16];
+	private long ytdPayroll = 0;
+	private int yearStart = 1;
+
+	// Scratch buffer the columns of a period are encoded into.
+	private ByteBuffer scratch = ByteBuffer.allocate(1 << 12);
+
+	/*
+	 * A single closed period: the number of employees it holds, its columns
+	 * (employee numbers, then hours from hoursStart, sales from salesStart
+	 * and pay from payStart) and its payroll.
+	 */
+	private static final class Period {
+		final int rows;
+		final ByteBuffer data;
+		final int hoursStart;
+		final int salesStart;
+		final int payStart;
+		final long payroll;
+
+		Period(int rows, ByteBuffer data, int hoursStart, int salesStart,
+				int payStart, long payroll) {
+			this.rows = rows;
+			this.data = data;
+			this.hoursStart = hoursStart;
+			this.salesStart = salesStart;
+			this.payStart = payStart;
+			this.payroll = payroll;
+		}
+	}
+
+	// Created by Account.enableHistory().
+	PayrollHistory(Account account) {
+		this.account = account;
+	}
+
+	/*
+	 * Archives the current period of the store as the next closed period and
+	 * adds it to the running totals. Called by Account.newPayPeriod() before
+	 * the store is reset.
+	 */
+	synchronized void closePeriod(EmployeeStore store) {
+		int size = store.size();
+		int rows = store.numEmployees();
+		int lastId = -1;
+		for (int row = 0; row < size; row++) {
+			if (store.isLive(row)) {
+				lastId = Math.max(lastId, store.getId(row));
+			}
+		}
+		if (lastId >= ytdPay.length) {
+			int capacity = DatarrayList.newCapacity(ytdPay.length,
+					lastId + 1);
+			ytdHours = Arrays.copyOf(ytdHours, capacity);
+			ytdSales = Arrays.copyOf(ytdSales, capacity);
+			ytdPay = Arrays.copyOf(ytdPay, capacity);
+		}
+
+		// every entry takes at most 10 bytes
+		long needed = 40L * rows;
+		if (needed > Integer.MAX_VALUE) {
+			throw new IllegalStateException("too many employees to archive");
+		}
+		if (scratch.capacity() < needed) {
+			scratch = ByteBuffer.allocate((int) needed);
+		}
+		scratch.clear();
+
+		long payroll = 0;
+		long previous = 0;
+		for (int row = 0; row < size; row++) {
+			if (store.isLive(row)) {
+				int id = store.getId(row);
+				putDelta(scratch, id, previous);
+				previous = id;
+			}
+		}
+		int hoursStart = scratch.position();
+		previous = 0;
+		for (int row = 0; row < size; row++) {
+			if (store.isLive(row)) {
+				int hours = store.getHours(row);
+				putDelta(scratch, hours, previous);
+				previous = hours;
+				ytdHours[store.getId(row)] += hours;
+			}
+		}
+		int salesStart = scratch.position();
+		previous = 0;
+		for (int row = 0; row < size; row++) {
+			if (store.isLive(row)) {
+				long sales = store.getSaleCents(row);
+				putDelta(scratch, sales, previous);
+				previous = sales;
+				ytdSales[store.getId(row)] += sales;
+			}
+		}
+		int payStart = scratch.position();
+		previous = 0;
+		for (int row = 0; row < size; row++) {
+			if (store.isLive(row)) {
+				long pay = store.totalPayCents(row);
+				putDelta(scratch, pay, previous);
+				previous = pay;
+				ytdPay[store.getId(row)] += pay;
+				payroll += pay;
+			}
+		}
+
+		scratch.flip();
+		ByteBuffer data = ByteBuffer.allocateDirect(scratch.remaining());
+		data.put(scratch);
+		data.flip();
+
+		if (numPeriods == periods.length) {
+			int capacity = DatarrayList.newCapacity(periods.length,
+					numPeriods + 1);
+			periods = Arrays.copyOf(periods, capacity);
+			cumulative = Arrays.copyOf(cumulative, capacity + 1);
+		}
+		periods[numPeriods] = new Period(rows, data.asReadOnlyBuffer(),
+				hoursStart, salesStart, payStart, payroll);
+		cumulative[numPeriods + 1] = cumulative[numPeriods] + payroll;
+		numPeriods++;
+		ytdPayroll += payroll;
+	}
+
+	/*
+	 * Returns the number of closed periods. They are numbered 1 to
+	 * numPeriods().
+	 */
+	public synchronized int numPeriods() {
+		return numPeriods;
+	}
+
+	/*
+	 * Returns the total payroll in cents of the closed periods from to to
+	 * (both included), or -1 if the range is not within 1 to numPeriods().
+	 */
+	public synchronized long payrollCents(int from, int to) {
+		long retVal = -1;
+		if (from >= 1 && from <= to && to <= numPeriods) {
+			retVal = cumulative[to] - cumulative[from - 1];
+		}
+		return retVal;
+	}
+
+	/*
+	 * Returns the pay in cents of an employee in a closed period, 0 if the
+	 * employee was hired after the period, or -1 if there is no such
+	 * employee or period.
+	 */
+	public synchronized long periodPayCents(int period, String name) {
+		return entry(period, name, 2);
+	}
+
+	/*
+	 * Returns the hours of an employee in a closed period, 0 if the employee
+	 * was hired after the period, or -1 if there is no such employee or
+	 * period.
+	 */
+	public synchronized int periodHours(int period, String name) {
+		return (int) entry(period, name, 0);
+	}
+
+	/*
+	 * Returns the sales in cents of an employee in a closed period, 0 if the
+	 * employee was hired after the period, or -1 if there is no such
+	 * employee or period.
+	 */
+	public synchronized long periodSaleCents(int period, String name) {
+		return entry(period, name, 1);
+	}
+
+	/*
+	 * These return the pay in cents, hours and sales in cents of an employee
+	 * over the periods closed since the start of the year, or -1 if there is
+	 * no such employee.
+	 */
+	public synchronized long ytdPayCents(String name) {
+		int id = idOf(name);
+		return id < 0 ? -1 : ytdValue(ytdPay, id);
+	}
+
+	public synchronized int ytdHours(String name) {
+		int id = idOf(name);
+		int retVal = -1;
+		if (id >= 0) {
+			retVal = id < ytdHours.length ? ytdHours[id] : 0;
+		}
+		return retVal;
+	}
+
+	public synchronized long ytdSaleCents(String name) {
+		int id = idOf(name);
+		return id < 0 ? -1 : ytdValue(ytdSales, id);
+	}
+
+	/*
+	 * Returns the payroll in cents of the account over the periods closed
+	 * since the start of the year.
+	 */
+	public synchronized long ytdPayrollCents() {
+		return ytdPayroll;
+	}
+
+	/*
+	 * Returns the number of the first period of the current year.
+	 */
+	public synchronized int yearStartPeriod() {
+		return yearStart;
+	}
+
+	/*
+	 * Starts a new year: the year-to-date totals go back to 0 and count the
+	 * periods closed from now on. The archived periods are kept.
+	 */
+	public synchronized void newYear() {
+		Arrays.fill(ytdHours, 0);
+		Arrays.fill(ytdSales, 0);
+		Arrays.fill(ytdPay, 0);
+		ytdPayroll = 0;
+		yearStart = numPeriods + 1;
+	}
+
+	/*
+	 * Returns the number of bytes the archived periods take up off the heap.
+	 */
+	public synchronized long archivedBytes() {
+		long bytes = 0;
+		for (int i = 0; i < numPeriods; i++) {
+			bytes += periods[i].data.capacity();
+		}
+		return bytes;
+	}
+
+	/*
+	 * Private helper decoding the entry of an employee in one column (0 for
+	 * hours, 1 for sales and 2 for pay) of a closed period.
+	 */
+	private long entry(int period, String name, int column) {
+		long retVal = -1;
+		int id = idOf(name);
+		if (id >= 0 && period >= 1 && period <= numPeriods) {
+			Period p = periods[period - 1];
+			ByteBuffer data = p.data.duplicate();
+			// finds the entry of the employee among the numbers
+			int entry = -1;
+			long value = 0;
+			for (int i = 0; i < p.rows && entry < 0; i++) {
+				value += getDelta(data);
+				if (value == id) {
+					entry = i;
+				}
+			}
+			retVal = 0;
+			if (entry >= 0) {
+				int start = p.hoursStart;
+				if (column == 1) {
+					start = p.salesStart;
+				} else if (column == 2) {
+					start = p.payStart;
+				}
+				data.position(start);
+				value = 0;
+				for (int i = 0; i <= entry; i++) {
+					value += getDelta(data);
+				}
+				retVal = value;
+			}
+		}
+		return retVal;
+	}
+
+	/*
+	 * Private helper returning the employee number of the employee with the
+	 * given name, or -1 if there is no such employee.
+	 */
+	private int idOf(String name) {
+		EmployeeStore store = account.empStore;
+		int row = store.find(name);
+		return row < 0 ? -1 : store.getId(row);
+	}
+
+	// Private helper reading a year-to-date column for an employee number,
+	// which may have been hired after the last closed period.
+	private static long ytdValue(long[] column, int id) {
+		return id < column.length ? column[id] : 0;
+	}
+
+	/*
+	 * Private helpers writing the difference between value and previous as a
+	 * zigzag encoded variable length integer, and reading it back.
+	 */
+	private static void putDelta(ByteBuffer buf, long value, long previous) {
+		long delta = value - previous;
+		long zigzag = (delta << 1) ^ (delta >> 63);
+		while ((zigzag & ~0x7FL) != 0) {
+			buf.put((byte) ((zigzag & 0x7F) | 0x80));
+			zigzag >>>= 7;
+		}
+		buf.put((byte) zigzag);
+	}
+
+	private static long getDelta(ByteBuffer buf) {
+		long zigzag = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buf.get();
+			zigzag |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+}
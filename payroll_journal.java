@@ -0,0 +1,592 @@
+package businessOffice;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/*
+ * The PayrollJournal class is a write-ahead log of every change made to an
+ * Account, kept in a directory next to the snapshots written by compact().
+ * It is attached to an account by recover(), next to its AccountListener
+ * (which is told first, so a change it rejects is not journaled), and every
+ * hire, termination, hours, sale and new pay period the account applies is
+ * appended as a small binary record: an int length, an int CRC32C checksum
+ * and the record itself (a kind byte followed by its fields, names in
+ * UTF-8, money in cents, all little-endian).
+ *
+ * Appending only copies the record into an in-memory buffer. A background
+ * thread writes the buffered records to the current segment file and forces
+ * them to disk every commitMillis milliseconds (group commit), so one fsync
+ * covers every change made in that time rather than one per sale; sync()
+ * does the same at once for a caller that needs its changes on disk before
+ * going on. A crash can therefore lose at most the changes of the last
+ * commitMillis milliseconds. If the buffer fills up faster than it is
+ * written, the appending thread writes it out itself before buffering more.
+ * Once a segment file reaches segmentBytes a new one is started.
+ *
+ * compact() writes a snapshot of the account (see AccountSnapshot) and
+ * starts a new segment at the exact point the snapshot shows, after which
+ * every older segment and snapshot is deleted. A snapshot named
+ * snapshot-N.snap holds everything in segments before segment-N.log, so
+ * recover() loads the newest snapshot and replays the segments from N on.
+ * A record cut short or failing its checksum at the end of the newest
+ * segment (a crash while writing) ends the replay, and recover() cuts it
+ * off the segment so that the journal opened next finds it whole; anywhere
+ * else it is an IOException.
+ *
+ * If writing to the journal fails, or once it is closed, every further
+ * change to the attached account throws an exception since it could no
+ * longer be made durable.
+ */
+public class PayrollJournal implements AccountListener, Closeable {
+	public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+	public static final long DEFAULT_COMMIT_MILLIS = 5;
+
+	// Kinds of record.
+	private static final byte HIRE = 1;
+	private static final byte HOURS = 2;
+	private static final byte SALE = 3;
+	private static final byte NEW_PERIOD = 4;
+	private static final byte TERMINATE = 5;
+
+	// Size of the length and checksum in front of every record.
+	private static final int RECORD_HEADER = 8;
+
+	// Most bytes buffered before an appending thread has to write them out.
+	private static final int MAX_PENDING = 1 << 22;
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_SUFFIX = ".snap";
+
+	private final Path dir;
+	private final long segmentBytes;
+	private final long commitMillis;
+
+	// appendLock guards pending (records not yet written) and crc, and
+	// writeLock guards the segment file. writeLock is always taken first.
+	private final ReentrantLock appendLock = new ReentrantLock();
+	private final Object writeLock = new Object();
+	private ByteBuffer pending = newBuffer(1 << 16);
+	private ByteBuffer spare = newBuffer(1 << 16);
+	private final CRC32C crc = new CRC32C();
+
+	private FileChannel segment;
+	private long segmentIndex;
+
+	// Segments before this one were already in the directory when the
+	// journal was opened and are the ones recover() replays.
+	private final long firstNewSegment;
+
+	private volatile IOException failure;
+	private volatile boolean closed;
+	private final Thread committer;
+
+	/*
+	 * Opens the journal in the given directory (created if needed) with the
+	 * default segment size and commit interval.
+	 */
+	public PayrollJournal(Path dir) throws IOException {
+		this(dir, DEFAULT_SEGMENT_BYTES, DEFAULT_COMMIT_MILLIS);
+	}
+
+	/*
+	 * Opens the journal in the given directory, starting a new segment once
+	 * one holds segmentBytes and writing buffered records to disk every
+	 * commitMillis milliseconds. Segments already in the directory are left
+	 * for recover() and new records go to a new segment after them.
+	 */
+	public PayrollJournal(Path dir, long segmentBytes, long commitMillis)
+			throws IOException {
+		if (segmentBytes < 1 || commitMillis < 1) {
+			throw new IllegalArgumentException(
+					"segmentBytes and commitMillis must be positive");
+		}
+		this.dir = dir;
+		this.segmentBytes = segmentBytes;
+		this.commitMillis = commitMillis;
+		Files.createDirectories(dir);
+
+		ArrayList<Long> segments = indexes(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+		ArrayList<Long> snapshots = indexes(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+		long next = 0;
+		if (!segments.isEmpty()) {
+			next = segments.get(segments.size() - 1) + 1;
+		}
+		if (!snapshots.isEmpty()) {
+			next = Math.max(next, snapshots.get(snapshots.size() - 1));
+		}
+		firstNewSegment = next;
+		openSegment(next);
+
+		committer = new Thread(new Runnable() {
+			public void run() {
+				commitLoop();
+			}
+		}, "payroll-journal-commit");
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	/*
+	 * Rebuilds the state journaled in the directory and attaches the journal
+	 * to the resulting account. If there is a snapshot, the newest one is
+	 * loaded and the given account is not used; otherwise the given (new)
+	 * account is the starting point. The segments written since the snapshot
+	 * are then replayed on top (with no listener set) and the account is
+	 * returned with this journal attached. The journal has a place of its
+	 * own in the account (see Account.setJournal()), so setting a listener
+	 * later does not detach it. Should be called once, right after the
+	 * journal is opened and before the account is shared between threads;
+	 * an IllegalStateException is thrown if the account already has
+	 * another journal.
+	 */
+	public Account recover(Account account) throws IOException {
+		if (account.getJournal() != null && account.getJournal() != this) {
+			throw new IllegalStateException("account already has a journal");
+		}
+		long start = 0;
+		ArrayList<Long> snapshots = indexes(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+		if (!snapshots.isEmpty()) {
+			start = snapshots.get(snapshots.size() - 1);
+			account = AccountSnapshot.read(
+					file(SNAPSHOT_PREFIX, start, SNAPSHOT_SUFFIX));
+		}
+
+		account.setListener(null);
+		account.setJournal(null);
+		// empty segments (e.g. of a journal opened but never recovered)
+		// hold nothing to replay and are left out
+		ArrayList<Long> replay = new ArrayList<Long>();
+		for (long index : indexes(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+			if (index >= start && index < firstNewSegment && Files.size(
+					file(SEGMENT_PREFIX, index, SEGMENT_SUFFIX)) > 0) {
+				replay.add(index);
+			}
+		}
+		for (int i = 0; i < replay.size(); i++) {
+			Path path = file(SEGMENT_PREFIX, replay.get(i), SEGMENT_SUFFIX);
+			long valid = replay(account, path, i == replay.size() - 1);
+			if (valid < Files.size(path)) {
+				// cuts the torn tail off, so that the segment is whole once
+				// later segments follow it
+				try (FileChannel channel = FileChannel.open(path,
+						StandardOpenOption.WRITE)) {
+					channel.truncate(valid);
+					channel.force(true);
+				}
+			}
+		}
+		account.setJournal(this);
+		return account;
+	}
+
+	/*
+	 * Writes a snapshot of the account (which should be the account this
+	 * journal is attached to) and deletes every segment and snapshot it
+	 * makes unnecessary, once the snapshot is in place on disk. Other
+	 * threads may keep changing a ConcurrentAccount meanwhile.
+	 */
+	public synchronized void compact(Account account) throws IOException {
+		Path temp = dir.resolve("compact" + SNAPSHOT_SUFFIX + ".tmp");
+		final long[] cut = new long[1];
+		try {
+			AccountSnapshot.write(account, temp, new Runnable() {
+				public void run() {
+					synchronized (writeLock) {
+						try {
+							writePending();
+							openSegment(segmentIndex + 1);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+						cut[0] = segmentIndex;
+					}
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		Files.move(temp, file(SNAPSHOT_PREFIX, cut[0], SNAPSHOT_SUFFIX),
+				StandardCopyOption.ATOMIC_MOVE);
+		// the rename must be on disk before anything it replaces is deleted
+		AccountSnapshot.forceDirectory(dir);
+
+		for (long index : indexes(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+			if (index < cut[0]) {
+				Files.deleteIfExists(file(SEGMENT_PREFIX, index,
+						SEGMENT_SUFFIX));
+			}
+		}
+		for (long index : indexes(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+			if (index < cut[0]) {
+				Files.deleteIfExists(file(SNAPSHOT_PREFIX, index,
+						SNAPSHOT_SUFFIX));
+			}
+		}
+	}
+
+	/*
+	 * Writes every record appended so far to disk before returning.
+	 */
+	public void sync() throws IOException {
+		synchronized (writeLock) {
+			writePending();
+		}
+	}
+
+	/*
+	 * Writes the remaining records to disk and closes the journal. Changes
+	 * made to the attached account afterwards throw an exception.
+	 */
+	public void close() throws IOException {
+		appendLock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		} finally {
+			appendLock.unlock();
+		}
+		LockSupport.unpark(committer);
+		boolean interrupted = false;
+		while (committer.isAlive()) {
+			try {
+				committer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (writeLock) {
+			try {
+				writePending();
+			} finally {
+				segment.close();
+			}
+		}
+	}
+
+	public void employeeHired(String name, byte type, long salaryCents,
+			double rate) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		int size = 1 + 4 + bytes.length + 1 + 8 + 8;
+		ByteBuffer buf = begin(size);
+		try {
+			buf.put(HIRE).putInt(bytes.length).put(bytes).put(type)
+					.putLong(salaryCents).putDouble(rate);
+		} finally {
+			end(size);
+		}
+	}
+
+	public void hoursWorked(String name, int hours) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		int size = 1 + 4 + bytes.length + 4;
+		ByteBuffer buf = begin(size);
+		try {
+			buf.put(HOURS).putInt(bytes.length).put(bytes).putInt(hours);
+		} finally {
+			end(size);
+		}
+	}
+
+	public void saleMade(String name, long saleCents) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		int size = 1 + 4 + bytes.length + 8;
+		ByteBuffer buf = begin(size);
+		try {
+			buf.put(SALE).putInt(bytes.length).put(bytes).putLong(saleCents);
+		} finally {
+			end(size);
+		}
+	}
+
+	public void employeeTerminated(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		int size = 1 + 4 + bytes.length;
+		ByteBuffer buf = begin(size);
+		try {
+			buf.put(TERMINATE).putInt(bytes.length).put(bytes);
+		} finally {
+			end(size);
+		}
+	}
+
+	public void payPeriodStarted() {
+		ByteBuffer buf = begin(1);
+		try {
+			buf.put(NEW_PERIOD);
+		} finally {
+			end(1);
+		}
+	}
+
+	/*
+	 * Private helper starting a record of the given size. Returns the
+	 * pending buffer positioned after the record header, with appendLock
+	 * held until end() is called. If the buffer is full it is written out
+	 * first.
+	 */
+	private ByteBuffer begin(int size) {
+		int needed = RECORD_HEADER + size;
+		while (true) {
+			appendLock.lock();
+			if (closed || failure != null) {
+				appendLock.unlock();
+				if (failure != null) {
+					throw new UncheckedIOException("journal write failed",
+							failure);
+				}
+				throw new IllegalStateException("journal is closed");
+			}
+			if (pending.remaining() < needed
+					&& (pending.capacity() < MAX_PENDING
+							|| pending.position() == 0)) {
+				int capacity = Math.max(2 * pending.capacity(),
+						pending.position() + needed);
+				ByteBuffer grown = newBuffer(capacity);
+				pending.flip();
+				grown.put(pending);
+				pending = grown;
+			}
+			if (pending.remaining() >= needed) {
+				pending.putInt(size).putInt(0);
+				return pending;
+			}
+			appendLock.unlock();
+			try {
+				sync();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/*
+	 * Private helper finishing the record started by begin(): fills in its
+	 * checksum and releases appendLock.
+	 */
+	private void end(int size) {
+		try {
+			int start = pending.position() - size;
+			crc.reset();
+			crc.update(pending.array(), pending.arrayOffset() + start, size);
+			pending.putInt(start - 4, (int) crc.getValue());
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	/*
+	 * Private helper writing the pending records to the current segment and
+	 * forcing them to disk, starting a new segment if the current one is
+	 * full. Must be called holding writeLock. Appending goes on into the
+	 * spare buffer while the pending one is being written.
+	 */
+	private void writePending() throws IOException {
+		if (failure != null) {
+			throw new IOException("journal write failed earlier", failure);
+		}
+		ByteBuffer batch;
+		appendLock.lock();
+		try {
+			batch = pending;
+			pending = spare;
+			spare = batch;
+		} finally {
+			appendLock.unlock();
+		}
+		if (batch.position() > 0) {
+			batch.flip();
+			try {
+				while (batch.hasRemaining()) {
+					segment.write(batch);
+				}
+				segment.force(false);
+			} catch (IOException e) {
+				failure = e;
+				throw e;
+			}
+			batch.clear();
+			if (segment.position() >= segmentBytes) {
+				openSegment(segmentIndex + 1);
+			}
+		}
+	}
+
+	/*
+	 * Private helper closing the current segment (if any) and creating the
+	 * segment with the given index. Must be called holding writeLock (or from
+	 * the constructor).
+	 */
+	private void openSegment(long index) throws IOException {
+		if (segment != null) {
+			segment.close();
+		}
+		segment = FileChannel.open(file(SEGMENT_PREFIX, index, SEGMENT_SUFFIX),
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		// so that the records forced to the new file are found after a crash
+		AccountSnapshot.forceDirectory(dir);
+		segmentIndex = index;
+	}
+
+	/*
+	 * Loop of the committer thread, writing the pending records every
+	 * commitMillis milliseconds until the journal is closed or a write
+	 * fails (the failure is then thrown by the next change).
+	 */
+	private void commitLoop() {
+		while (!closed) {
+			LockSupport.parkNanos(commitMillis * 1000000L);
+			try {
+				sync();
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	/*
+	 * Private helper applying every record of a segment to the account and
+	 * returning the number of bytes of whole records in it. A bad record
+	 * ends the replay if this is the last segment (a crash while writing)
+	 * and is an IOException otherwise.
+	 */
+	private static long replay(Account account, Path file, boolean last)
+			throws IOException {
+		long retVal;
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			if (fileSize > Integer.MAX_VALUE) {
+				throw new IOException("journal segment too large: " + file);
+			}
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, fileSize);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			CRC32C check = new CRC32C();
+			boolean torn = false;
+			while (!torn && buf.hasRemaining()) {
+				int recordStart = buf.position();
+				boolean valid = false;
+				int size = 0;
+				if (buf.remaining() >= RECORD_HEADER) {
+					size = buf.getInt();
+					int checksum = buf.getInt();
+					if (size > 0 && size <= buf.remaining()) {
+						ByteBuffer body = buf.slice();
+						body.limit(size);
+						check.reset();
+						check.update(body);
+						valid = (int) check.getValue() == checksum;
+					}
+				}
+				if (!valid && !last) {
+					throw new IOException("corrupt journal segment: " + file);
+				} else if (!valid) {
+					torn = true;
+					buf.position(recordStart);
+				} else {
+					int end = buf.position() + size;
+					apply(account, buf);
+					buf.position(end);
+				}
+			}
+			retVal = buf.position();
+		}
+		return retVal;
+	}
+
+	/*
+	 * Private helper applying a single record to the account. Hours and
+	 * sales are added to the store directly: they were accepted when first
+	 * made, so the rules of the account are not checked again.
+	 */
+	private static void apply(Account account, ByteBuffer buf)
+			throws IOException {
+		EmployeeStore store = account.empStore;
+		byte kind = buf.get();
+		if (kind == HIRE) {
+			String name = readName(buf);
+			byte type = buf.get();
+			long salaryCents = buf.getLong();
+			double rate = buf.getDouble();
+			account.hire(name, type, salaryCents, rate);
+		} else if (kind == HOURS) {
+			int row = store.find(readName(buf));
+			int hours = buf.getInt();
+			if (row >= 0) {
+				store.setHours(row, store.getHours(row) + hours);
+			}
+		} else if (kind == SALE) {
+			int row = store.find(readName(buf));
+			long saleCents = buf.getLong();
+			if (row >= 0) {
+				store.addSaleCents(row, saleCents);
+			}
+		} else if (kind == NEW_PERIOD) {
+			account.newPayPeriod();
+		} else if (kind == TERMINATE) {
+			account.remove(readName(buf));
+		} else {
+			throw new IOException("unknown journal record kind " + kind);
+		}
+	}
+
+	private static String readName(ByteBuffer buf) {
+		byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Private helpers naming the files of the journal and listing the indexes
+	 * of the files with the given prefix and suffix in ascending order.
+	 */
+	private Path file(String prefix, long index, String suffix) {
+		return dir.resolve(prefix + String.format("%016d", index) + suffix);
+	}
+
+	private ArrayList<Long> indexes(String prefix, String suffix)
+			throws IOException {
+		ArrayList<Long> list = new ArrayList<Long>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir,
+				prefix + "*" + suffix)) {
+			for (Path path : files) {
+				String name = path.getFileName().toString();
+				try {
+					list.add(Long.parseLong(name.substring(prefix.length(),
+							name.length() - suffix.length())));
+				} catch (NumberFormatException e) {
+					// not a file of the journal
+				}
+			}
+		}
+		Collections.sort(list);
+		return list;
+	}
+
+	private static ByteBuffer newBuffer(int capacity) {
+		return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
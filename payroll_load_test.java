@@ -0,0 +1,268 @@
+package businessOffice;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/*
+ * The PayrollLoadTest class measures the latency of a PayrollService under
+ * many clients at once, as thousands of point of sale terminals would load
+ * it. It registers a few ConcurrentAccounts of hourly and commissioned
+ * employees, starts a service for them on a free port and then runs the
+ * given number of clients against it for a while, at a given total rate.
+ * Every client has a fixed schedule: it is due to send a request every
+ * clients / rate seconds, starting at a random point of the first interval.
+ * The requests are 45% sales, 45% hours and 10% payroll reads, for random
+ * employees of random accounts. The clients use the asynchronous HttpClient
+ * of the JDK, so a handful of threads drive all of them, and one more
+ * thread waits for the requests that are due. They share the connections
+ * of the HttpClient, which opens as many as there are requests out at once
+ * (the HttpServer keeps no more than 200 idle connections open anyway, see
+ * sun.net.httpserver.maxIdleConnections).
+ *
+ * A client has one request out at a time. When its answer comes after the
+ * next request was due, that request is sent at once, but its latency is
+ * still counted from the time it was due, not from when it could be sent.
+ * A service that stalls is thus charged for all the requests its clients
+ * meant to send during the stall, instead of only for the few that were
+ * waiting (which would hide the stall from the percentiles). Latencies
+ * are recorded in a LatencyHistogram after WARMUP_SECONDS, and the report
+ * gives the throughput, the mean and the 50th, 90th, 99th, 99.9th and 99.99th
+ * percentile and maximum latency, the number of failed requests, and how
+ * many sales and hours the service applied per batch.
+ *
+ * Usage:
+ *   java businessOffice.PayrollLoadTest [clients] [seconds] [employees]
+ *       [rate] [port]
+ *   java businessOffice.PayrollLoadTest serve [employees] [port]
+ * Defaults are 10000 clients for 30 seconds, with 1000 employees in each of
+ * ACCOUNTS accounts, sending 5000 requests per second in all. Without a
+ * port, clients and service run in the same JVM, so every connection takes
+ * two file descriptors of the process. Otherwise the clients go to the
+ * service another JVM started with serve (with the same number of
+ * employees) on that port of this host, and the report leaves out the
+ * batches, which only that JVM knows of.
+ */
+public final class PayrollLoadTest {
+	private static final int ACCOUNTS = 4;
+	private static final int WARMUP_SECONDS = 5;
+
+	private PayrollLoadTest() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		// see PayrollService; read once, when the first HttpServer starts
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		if (args.length > 0 && args[0].equals("serve")) {
+			int employees = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+			int port = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+			PayrollService service = new PayrollService(registry(employees),
+					port);
+			service.start();
+			System.out.println("serving on port " + service.getPort());
+			// runs until the JVM is stopped
+			new CountDownLatch(1).await();
+		} else {
+			int clients = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+			int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+			int employees = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+			int rate = args.length > 3 ? Integer.parseInt(args[3]) : 5000;
+			int port = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+			System.out.print(run(clients, seconds, employees, rate, port));
+		}
+	}
+
+	/*
+	 * Returns a registry of ACCOUNTS ConcurrentAccounts with the given
+	 * number of employees each, half of them hourly, half commissioned.
+	 */
+	static AccountRegistry registry(int employees) {
+		AccountRegistry retVal = new AccountRegistry();
+		for (int a = 0; a < ACCOUNTS; a++) {
+			Account account = BusinessOffice.createConcurrentAccount("store"
+					+ a);
+			for (int i = 0; i < employees; i++) {
+				if (i % 2 == 0) {
+					account.hireHourlyWorker("employee" + i, 20.0);
+				} else {
+					account.hireCommissionedWorker("employee" + i, 12.5);
+				}
+			}
+			retVal.register(account);
+		}
+		return retVal;
+	}
+
+	/*
+	 * Runs the load test and returns its report. The warm-up comes on top of
+	 * the given number of seconds, and rate is the number of requests per
+	 * second all clients together are due to send. If port is 0 a service
+	 * is started for the test, otherwise the one on that port is used.
+	 */
+	static String run(int clients, int seconds, int employees, int rate,
+			int port) throws IOException, InterruptedException {
+		PayrollService service = null;
+		if (port == 0) {
+			service = new PayrollService(registry(employees), 0);
+			service.start();
+			port = service.getPort();
+		}
+		HttpClient http = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1).build();
+		LatencyHistogram histogram = new LatencyHistogram();
+		AtomicLong failures = new AtomicLong();
+		CountDownLatch done = new CountDownLatch(clients);
+		ScheduledExecutorService timer = Executors
+				.newSingleThreadScheduledExecutor();
+		String base = "http://localhost:" + port + "/accounts/";
+		long interval = Math.max(1000000000L * clients / Math.max(rate, 1), 1);
+		long now = System.nanoTime();
+		long measureFrom = now + WARMUP_SECONDS * 1000000000L;
+		long deadline = measureFrom + seconds * 1000000000L;
+
+		try {
+			for (int c = 0; c < clients; c++) {
+				new Client(http, timer, base, employees, interval,
+						now + ThreadLocalRandom.current().nextLong(interval),
+						measureFrom, deadline, histogram, failures, done)
+						.schedule(now);
+			}
+			done.await();
+		} finally {
+			timer.shutdownNow();
+			if (service != null) {
+				service.close();
+			}
+		}
+		long answered = histogram.count();
+		String retVal = "clients " + clients + ", " + seconds + " s, "
+				+ employees + " employees in each of " + ACCOUNTS
+				+ " accounts, due " + rate + "/s\n"
+				+ "requests " + answered + " ("
+				+ answered / Math.max(seconds, 1) + "/s), failed "
+				+ failures.get() + "\n"
+				+ "latency us: mean " + micros(histogram.mean())
+				+ ", p50 " + micros(histogram.percentile(50.0))
+				+ ", p90 " + micros(histogram.percentile(90.0))
+				+ ", p99 " + micros(histogram.percentile(99.0))
+				+ ", p99.9 " + micros(histogram.percentile(99.9))
+				+ ", p99.99 " + micros(histogram.percentile(99.99))
+				+ ", max " + micros(histogram.max()) + "\n";
+		if (service != null) {
+			long batches = Math.max(service.batches(), 1);
+			retVal += "batches " + service.batches() + ", "
+					+ (double) service.batchedRequests() / batches
+					+ " requests per batch\n";
+		}
+		return retVal;
+	}
+
+	/*
+	 * A client due to send a request every interval nanoseconds until the
+	 * deadline, recording the latency of those due from measureFrom on,
+	 * counted from the time they were due. run() sends the request that is
+	 * due, and accept() is called with its answer and sends or schedules
+	 * the next.
+	 */
+	private static final class Client
+			implements BiConsumer<HttpResponse<Void>, Throwable>, Runnable {
+		private final HttpClient http;
+		private final ScheduledExecutorService timer;
+		private final String base;
+		private final int employees;
+		private final long interval;
+		private final long measureFrom;
+		private final long deadline;
+		private final LatencyHistogram histogram;
+		private final AtomicLong failures;
+		private final CountDownLatch done;
+		private long due;
+
+		Client(HttpClient http, ScheduledExecutorService timer, String base,
+				int employees, long interval, long due, long measureFrom,
+				long deadline, LatencyHistogram histogram, AtomicLong failures,
+				CountDownLatch done) {
+			this.http = http;
+			this.timer = timer;
+			this.base = base;
+			this.employees = employees;
+			this.interval = interval;
+			this.due = due;
+			this.measureFrom = measureFrom;
+			this.deadline = deadline;
+			this.histogram = histogram;
+			this.failures = failures;
+			this.done = done;
+		}
+
+		/*
+		 * Sends the request that is due at once if it is late at time now,
+		 * or has the timer send it when it is due. A request due after the
+		 * deadline is not sent, and the client is done.
+		 */
+		void schedule(long now) {
+			if (due >= deadline) {
+				done.countDown();
+			} else if (due <= now) {
+				run();
+			} else {
+				timer.schedule(this, due - now, TimeUnit.NANOSECONDS);
+			}
+		}
+
+		// Sends a random request.
+		public void run() {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			String account = base + "store" + random.nextInt(ACCOUNTS);
+			String name = "employee" + random.nextInt(employees);
+			int kind = random.nextInt(20);
+			HttpRequest request;
+			if (kind < 9) {
+				request = post(account + "/sales?name=" + name + "&amount="
+						+ (1 + random.nextInt(10000)) / 100.0);
+			} else if (kind < 18) {
+				request = post(account + "/hours?name=" + name + "&hours="
+						+ (1 + random.nextInt(4)));
+			} else {
+				request = HttpRequest.newBuilder(URI.create(account
+						+ "/payroll")).build();
+			}
+			http.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+					.whenComplete(this);
+		}
+
+		public void accept(HttpResponse<Void> response, Throwable failure) {
+			long now = System.nanoTime();
+			if (due >= measureFrom) {
+				if (failure != null || response.statusCode() != 200) {
+					failures.incrementAndGet();
+				} else {
+					histogram.record(now - due);
+				}
+			}
+			due += interval;
+			schedule(now);
+		}
+
+		private static HttpRequest post(String uri) {
+			return HttpRequest.newBuilder(URI.create(uri))
+					.POST(HttpRequest.BodyPublishers.noBody()).build();
+		}
+	}
+
+	// Private helper turning nanoseconds into whole microseconds.
+	private static long micros(double nanos) {
+		return Math.round(nanos / 1000.0);
+	}
+}
@@ -0,0 +1,83 @@
+package businessOffice;
+
+/*
+ * The PayrollMetrics interface is where Account (and DatarrayList) report what
+ * they are doing: operations carried out, operations refused and why, the
+ * time taken by the payroll methods and the growth of their arrays. The
+ * metrics of an account are set with Account.setMetrics(); RecordingMetrics
+ * counts everything and makes it available over JMX.
+ *
+ * The default is NONE, whose methods do nothing. Timings are taken as
+ * start = startTimer() ... timed(timer, start), and NONE.startTimer() returns
+ * 0 without reading the clock, so once the JIT has inlined the empty methods
+ * nothing of the instrumentation is left in the hot paths. Implementations
+ * are called from every thread using an account and so must be thread safe,
+ * and should not allocate.
+ */
+public interface PayrollMetrics {
+	// Operations that are counted.
+	enum Operation {
+		LOOKUP, HIRE, HOURS, SALE, NEW_PAY_PERIOD, TERMINATE
+	}
+
+	// Reasons an operation is refused.
+	enum Rejection {
+		INVALID_NAME, INVALID_AMOUNT, DUPLICATE_NAME, EMPLOYEE_LIMIT,
+		UNKNOWN_EMPLOYEE, HOURS_CAP
+	}
+
+	// Methods whose time is measured.
+	enum Timer {
+		GET_PAYROLL, VERIFY_PAYROLL, NEW_PAY_PERIOD
+	}
+
+	// Arrays whose growth is reported.
+	enum Structure {
+		EMPLOYEE_STORE, DATARRAY_LIST
+	}
+
+	// Metrics that do nothing, used by default.
+	PayrollMetrics NONE = new None();
+
+	void operation(Operation operation);
+
+	void rejected(Rejection reason);
+
+	/*
+	 * Returns the time (from System.nanoTime()) a measurement starts at, or
+	 * any value if timings are not recorded.
+	 */
+	long startTimer();
+
+	/*
+	 * Records the time since start, as returned by startTimer().
+	 */
+	void timed(Timer timer, long start);
+
+	void resized(Structure structure, int oldCapacity, int newCapacity);
+
+	/*
+	 * The metrics used by default: every method does nothing.
+	 */
+	final class None implements PayrollMetrics {
+		private None() {
+		}
+
+		public void operation(Operation operation) {
+		}
+
+		public void rejected(Rejection reason) {
+		}
+
+		public long startTimer() {
+			return 0;
+		}
+
+		public void timed(Timer timer, long start) {
+		}
+
+		public void resized(Structure structure, int oldCapacity,
+				int newCapacity) {
+		}
+	}
+}
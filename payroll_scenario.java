@@ -0,0 +1,93 @@
+package businessOffice;
+
+/*
+ * The PayrollScenario class describes one "what if" for PayrollSimulation: a
+ * change to the pay of an account that is worked out without being made.
+ * A scenario may raise the yearly salary of every salaried employee by a
+ * percentage, raise the wage of every hourly employee by a percentage, change
+ * the commission rate of every commissioned employee (or every tier rate of
+ * a tiered commission plan, which pays no rates of the employees' own) by a
+ * number of percentage points, and split yearly salaries (and the base
+ * salaries of commissioned employees) over another number of pay periods
+ * than the pay plans of the account do. Everything else is as in the
+ * account: the hours and sales of the current pay period and the pay plans
+ * of each type.
+ *
+ * Raised salaries and wages are rounded to whole cents with
+ * Money.DEFAULT_ROUNDING before the plan is applied, and a commission rate
+ * does not go below 0 or reach 100 (see PayPlan). Scenarios are immutable,
+ * and the constructor throws an IllegalArgumentException for figures that
+ * make no sense.
+ */
+public final class PayrollScenario {
+	private final String name;
+	private final double salaryRaisePercent;
+	private final double wageRaisePercent;
+	private final double commissionRateChange;
+	private final int periodsPerYear;
+
+	/*
+	 * Creates a scenario with the given name (used in reports only), the
+	 * percentage salaries and wages are raised by (negative for a cut, no
+	 * less than -100), the percentage points added to commission rates, and
+	 * the number of pay periods in a year, or 0 to keep those of the pay
+	 * plans.
+	 */
+	public PayrollScenario(String name, double salaryRaisePercent,
+			double wageRaisePercent, double commissionRateChange,
+			int periodsPerYear) {
+		if (!(salaryRaisePercent >= -100.0) || !(wageRaisePercent >= -100.0)
+				|| Double.isInfinite(salaryRaisePercent)
+				|| Double.isInfinite(wageRaisePercent)) {
+			throw new IllegalArgumentException("invalid raise");
+		}
+		if (Double.isNaN(commissionRateChange)
+				|| Double.isInfinite(commissionRateChange)) {
+			throw new IllegalArgumentException("invalid commission change");
+		}
+		if (periodsPerYear < 0) {
+			throw new IllegalArgumentException("invalid number of periods "
+					+ periodsPerYear);
+		}
+		this.name = name;
+		this.salaryRaisePercent = salaryRaisePercent;
+		this.wageRaisePercent = wageRaisePercent;
+		this.commissionRateChange = commissionRateChange;
+		this.periodsPerYear = periodsPerYear;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public double getSalaryRaisePercent() {
+		return salaryRaisePercent;
+	}
+
+	public double getWageRaisePercent() {
+		return wageRaisePercent;
+	}
+
+	public double getCommissionRateChange() {
+		return commissionRateChange;
+	}
+
+	// Returns the number of pay periods in a year, or 0 if those of the pay
+	// plans are kept.
+	public int getPeriodsPerYear() {
+		return periodsPerYear;
+	}
+
+	/*
+	 * Returns the pay plan the scenario pays the employees of a plan's type
+	 * by: the plan itself, or the plan with other tier rates or another
+	 * number of pay periods.
+	 */
+	PayPlan planFor(PayPlan plan) {
+		PayPlan retVal = plan.withRateChange(commissionRateChange);
+		if (periodsPerYear != 0) {
+			retVal = retVal.withPeriodsPerYear(periodsPerYear);
+		}
+		return retVal;
+	}
+}
@@ -0,0 +1,495 @@
+package businessOffice;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * The PayrollService class serves the accounts of an AccountRegistry over
+ * HTTP, using the HttpServer of the JDK, so that point of sale terminals and
+ * time clocks can post their sales and hours straight to the payroll system.
+ * Requests are routed to an account by the name in their path:
+ *
+ *   POST /accounts/{account}/sales?name=N&amount=A   makeSale(N, A)
+ *   POST /accounts/{account}/hours?name=N&hours=H    workHours(N, H)
+ *   GET  /accounts/{account}/payroll                 getPayroll()
+ *   GET  /accounts/{account}/bill                    billAmount()
+ *   GET  /accounts/{account}/pay?name=N              getPayAmount(N)
+ *
+ * and answered with 200 and the result as plain text (true or false for the
+ * sales and hours), 404 for an account not in the registry or an unknown
+ * path, 405 for the wrong method and 400 for missing or malformed
+ * parameters. Sales and hours the account could not take (it threw, e.g.
+ * because its journal was closed) are answered with 503 and were not
+ * applied, so they may be sent again; those applied before it threw are
+ * answered with 200 as usual.
+ *
+ * Sales and hours are not applied by the thread handling the request. Each
+ * account served has a queue of the sales and hours posted to it, and the
+ * handler only adds the request to the queue and returns. The first request
+ * finding the account idle schedules a batch, which takes everything queued
+ * (up to MAX_BATCH requests), applies it with one call of the batch versions
+ * of makeSale and workHours, and answers every request with its own result.
+ * Requests that come in while a batch is being applied wait for the next
+ * one, so batches grow with the load (thousands of terminals posting to the
+ * same account cost one lookup and one lock per employee per batch) without
+ * a timer adding latency when the load is light. A single batch of an
+ * account runs at a time, so its sales and hours are applied in the order
+ * they were queued.
+ *
+ * The payroll and bill of an account are read from a cache kept for
+ * cacheMillis milliseconds, so they may leave out the changes of that long;
+ * the pay of single employees is read from the account.
+ *
+ * Handlers and batches run on the Executor passed to the constructor. The
+ * JDK this is built with has no virtual threads, so by default a fixed pool
+ * of one daemon thread per processor is used: since no handler waits for a
+ * batch or blocks on an account, a few threads serve any number of
+ * connections. On a JDK with virtual threads,
+ * Executors.newVirtualThreadPerTaskExecutor() can be passed instead.
+ * Reads run alongside the batches, so accounts served should be
+ * ConcurrentAccount objects (see BusinessOffice.createConcurrentAccount).
+ *
+ * Answers are small and the HttpServer writes their headers and body
+ * separately, so without TCP_NODELAY each body waits for the delayed ACK of
+ * the client (about 40 ms). The HttpServer of the JDK only turns it on when
+ * the JVM is started with -Dsun.net.httpserver.nodelay=true, which applies
+ * to every HttpServer in the process and so is left to the deployment (as
+ * PayrollLoadTest does).
+ */
+public final class PayrollService implements AutoCloseable {
+	public static final long DEFAULT_CACHE_MILLIS = 50;
+
+	// Most requests applied in one batch.
+	public static final int MAX_BATCH = 4096;
+
+	// Connections the server lets wait to be accepted.
+	private static final int BACKLOG = 1 << 14;
+
+	private static final String PREFIX = "/accounts/";
+
+	private final AccountRegistry registry;
+	private final HttpServer server;
+	private final Executor executor;
+	// The executor if it was created here (and is shut down by close()).
+	private final ExecutorService ownExecutor;
+	private final long cacheNanos;
+
+	// Route of every account served so far, by account name.
+	private final ConcurrentHashMap<String, Route> routes =
+			new ConcurrentHashMap<String, Route>();
+
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder batchedRequests = new LongAdder();
+
+	/*
+	 * Creates a service for the accounts of the registry listening on the
+	 * given port of the loopback address (0 for any free port), with the
+	 * default executor and cache time. start() starts it.
+	 */
+	public PayrollService(AccountRegistry registry, int port)
+			throws IOException {
+		this(registry, new InetSocketAddress(InetAddress.getLoopbackAddress(),
+				port), null, DEFAULT_CACHE_MILLIS);
+	}
+
+	/*
+	 * Creates a service for the accounts of the registry listening on the
+	 * given address, running its handlers and batches on the executor (or
+	 * on a pool of its own if it is null), and keeping payrolls and bills
+	 * for cacheMillis milliseconds (0 to read them every time).
+	 */
+	public PayrollService(AccountRegistry registry, InetSocketAddress address,
+			Executor executor, long cacheMillis) throws IOException {
+		if (registry == null || address == null) {
+			throw new IllegalArgumentException("no registry or address");
+		}
+		if (cacheMillis < 0) {
+			throw new IllegalArgumentException("invalid cache time "
+					+ cacheMillis);
+		}
+		this.registry = registry;
+		this.cacheNanos = cacheMillis * 1000000L;
+		if (executor == null) {
+			ownExecutor = Executors.newFixedThreadPool(
+					Runtime.getRuntime().availableProcessors(),
+					new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						public Thread newThread(Runnable task) {
+							Thread thread = new Thread(task, "payroll-service-"
+									+ count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			this.executor = ownExecutor;
+		} else {
+			ownExecutor = null;
+			this.executor = executor;
+		}
+		server = HttpServer.create(address, BACKLOG);
+		server.setExecutor(this.executor);
+		server.createContext(PREFIX, new HttpHandler() {
+			public void handle(HttpExchange exchange) {
+				dispatch(exchange);
+			}
+		});
+	}
+
+	// Starts answering requests.
+	public void start() {
+		server.start();
+	}
+
+	// Returns the port the service listens on.
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	// Returns the number of batches of sales and hours applied so far.
+	public long batches() {
+		return batches.sum();
+	}
+
+	// Returns the number of sales and hours requests applied in them.
+	public long batchedRequests() {
+		return batchedRequests.sum();
+	}
+
+	/*
+	 * Stops the service, closing its connections at once, and shuts down
+	 * the executor if it was created by the service. Sales and hours
+	 * already queued may be left unanswered.
+	 */
+	public void close() {
+		server.stop(0);
+		if (ownExecutor != null) {
+			ownExecutor.shutdown();
+		}
+	}
+
+	/*
+	 * Private helper handling a request: finds the route of the account in
+	 * its path and either queues it (sales and hours) or answers it.
+	 */
+	private void dispatch(HttpExchange exchange) {
+		String path = exchange.getRequestURI().getPath();
+		String query = exchange.getRequestURI().getRawQuery();
+		boolean post = "POST".equals(exchange.getRequestMethod());
+		boolean get = "GET".equals(exchange.getRequestMethod());
+		int slash = path.lastIndexOf('/');
+		Route route = null;
+		String op = "";
+		if (slash > PREFIX.length() && slash == path.indexOf('/',
+				PREFIX.length())) {
+			route = routeOf(path.substring(PREFIX.length(), slash));
+			op = path.substring(slash + 1);
+		}
+		boolean sale = op.equals("sales");
+		String name = null;
+		String figure = null;
+		boolean malformed = false;
+		try {
+			name = param(query, "name");
+			figure = param(query, sale ? "amount" : "hours");
+		} catch (IllegalArgumentException e) {
+			// bad percent-encoding, e.g. name=%zz
+			malformed = true;
+		}
+
+		if (route == null) {
+			respond(exchange, 404, "no such account");
+		} else if (malformed) {
+			respond(exchange, 400, "invalid parameters");
+		} else if (op.equals("sales") || op.equals("hours")) {
+			double value = number(figure);
+			if (!post) {
+				respond(exchange, 405, "use POST");
+			} else if (name == null || Double.isNaN(value)
+					|| (!sale && value != (int) value)) {
+				respond(exchange, 400, "invalid parameters");
+			} else {
+				route.submit(new Pending(exchange, name, sale, value,
+						(int) value));
+			}
+		} else if (op.equals("payroll") || op.equals("bill")
+				|| op.equals("pay")) {
+			if (!get) {
+				respond(exchange, 405, "use GET");
+			} else if (op.equals("pay") && name == null) {
+				respond(exchange, 400, "invalid parameters");
+			} else {
+				double value;
+				if (op.equals("payroll")) {
+					value = route.cached().payroll;
+				} else if (op.equals("bill")) {
+					value = route.cached().bill;
+				} else {
+					value = route.account.getPayAmount(name);
+				}
+				respond(exchange, 200, Double.toString(value));
+			}
+		} else {
+			respond(exchange, 404, "no such operation");
+		}
+	}
+
+	/*
+	 * Private helper returning the route of the registered account with the
+	 * given name, or null if there is none. A route is replaced if the name
+	 * now belongs to another account.
+	 */
+	private Route routeOf(String accountName) {
+		Route retVal = null;
+		final Account account = registry.find(accountName);
+		if (account == null) {
+			routes.remove(accountName);
+		} else {
+			retVal = routes.get(accountName);
+			if (retVal == null || retVal.account != account) {
+				retVal = routes.compute(accountName,
+						new BiFunction<String, Route, Route>() {
+							public Route apply(String key, Route old) {
+								return old != null && old.account == account
+										? old : new Route(account);
+							}
+						});
+			}
+		}
+		return retVal;
+	}
+
+	/*
+	 * An account served, with its queue of sales and hours and its cached
+	 * payroll and bill. run() applies one batch and schedules the next if
+	 * more requests have come in meanwhile.
+	 */
+	private final class Route implements Runnable {
+		final Account account;
+		final ConcurrentLinkedQueue<Pending> queue =
+				new ConcurrentLinkedQueue<Pending>();
+		// Whether a batch is scheduled or running.
+		final AtomicBoolean scheduled = new AtomicBoolean();
+		volatile Totals totals;
+
+		Route(Account account) {
+			this.account = account;
+		}
+
+		// Queues a request and schedules a batch unless one is on its way.
+		void submit(Pending pending) {
+			queue.add(pending);
+			schedule();
+		}
+
+		void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				executor.execute(this);
+			}
+		}
+
+		// Returns the payroll and bill, read again once they are too old.
+		Totals cached() {
+			Totals retVal = totals;
+			long now = System.nanoTime();
+			if (retVal == null || now - retVal.readAt >= cacheNanos) {
+				retVal = new Totals(account.getPayroll(),
+						account.billAmount(), now);
+				totals = retVal;
+			}
+			return retVal;
+		}
+
+		public void run() {
+			try {
+				applyBatch();
+			} finally {
+				scheduled.set(false);
+				if (!queue.isEmpty()) {
+					schedule();
+				}
+			}
+		}
+
+		/*
+		 * Takes what is queued, applies the sales and the hours with one
+		 * call each and answers every request with its own outcome.
+		 */
+		private void applyBatch() {
+			ArrayList<Pending> batch = new ArrayList<Pending>();
+			int numSales = 0;
+			Pending pending;
+			while (batch.size() < MAX_BATCH
+					&& (pending = queue.poll()) != null) {
+				batch.add(pending);
+				if (pending.sale) {
+					numSales++;
+				}
+			}
+			String[] saleNames = new String[numSales];
+			double[] amounts = new double[numSales];
+			String[] hourNames = new String[batch.size() - numSales];
+			int[] hours = new int[hourNames.length];
+			int s = 0;
+			int h = 0;
+			for (Pending p : batch) {
+				if (p.sale) {
+					saleNames[s] = p.name;
+					amounts[s++] = p.amount;
+				} else {
+					hourNames[h] = p.name;
+					hours[h++] = p.hours;
+				}
+			}
+
+			// the account may throw part way through either call (e.g. once
+			// its journal is closed); the results still show what was
+			// applied, and the rest is answered as not applied
+			boolean[] saleResults = new boolean[numSales];
+			boolean[] hourResults = new boolean[hourNames.length];
+			boolean salesFailed = false;
+			boolean hoursFailed = false;
+			try {
+				account.makeSale(saleNames, amounts, saleResults);
+			} catch (RuntimeException e) {
+				salesFailed = true;
+			}
+			try {
+				account.workHours(hourNames, hours, hourResults);
+			} catch (RuntimeException e) {
+				hoursFailed = true;
+			}
+			batches.increment();
+			batchedRequests.add(batch.size());
+
+			s = 0;
+			h = 0;
+			for (Pending p : batch) {
+				boolean result = p.sale ? saleResults[s++] : hourResults[h++];
+				if (!result && (p.sale ? salesFailed : hoursFailed)) {
+					respond(p.exchange, 503, "not applied");
+				} else {
+					respond(p.exchange, 200, Boolean.toString(result));
+				}
+			}
+		}
+	}
+
+	/*
+	 * A sale or hours request waiting for its batch.
+	 */
+	private static final class Pending {
+		final HttpExchange exchange;
+		final String name;
+		final boolean sale;
+		final double amount;
+		final int hours;
+
+		Pending(HttpExchange exchange, String name, boolean sale,
+				double amount, int hours) {
+			this.exchange = exchange;
+			this.name = name;
+			this.sale = sale;
+			this.amount = amount;
+			this.hours = hours;
+		}
+	}
+
+	/*
+	 * The payroll and bill of an account as read at readAt (System.nanoTime).
+	 */
+	private static final class Totals {
+		final double payroll;
+		final double bill;
+		final long readAt;
+
+		Totals(double payroll, double bill, long readAt) {
+			this.payroll = payroll;
+			this.bill = bill;
+			this.readAt = readAt;
+		}
+	}
+
+	/*
+	 * Private helper answering a request with the given status and text. A
+	 * client that has gone away is ignored.
+	 */
+	private static void respond(HttpExchange exchange, int status,
+			String text) {
+		byte[] body = (text + "\n").getBytes(StandardCharsets.UTF_8);
+		try {
+			exchange.getResponseHeaders().set("Content-Type",
+					"text/plain; charset=utf-8");
+			exchange.sendResponseHeaders(status, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		} catch (IOException e) {
+			exchange.close();
+		}
+	}
+
+	/*
+	 * Private helper returning the decoded value of a parameter of a raw
+	 * query string, or null if it is not there. Throws an
+	 * IllegalArgumentException if the value is not properly percent-encoded.
+	 */
+	private static String param(String query, String key) {
+		String retVal = null;
+		if (query != null) {
+			int start = 0;
+			while (retVal == null && start <= query.length()) {
+				int end = query.indexOf('&', start);
+				if (end < 0) {
+					end = query.length();
+				}
+				int eq = query.indexOf('=', start);
+				if (eq > start && eq < end && query.regionMatches(start, key,
+						0, key.length()) && eq - start == key.length()) {
+					retVal = URLDecoder.decode(query.substring(eq + 1, end),
+							StandardCharsets.UTF_8);
+				}
+				start = end + 1;
+			}
+		}
+		return retVal;
+	}
+
+	/*
+	 * Private helper parsing a number, returning NaN if it is null or not a
+	 * finite number.
+	 */
+	private static double number(String text) {
+		double retVal = Double.NaN;
+		if (text != null) {
+			try {
+				retVal = Double.parseDouble(text);
+			} catch (NumberFormatException e) {
+				retVal = Double.NaN;
+			}
+			if (Double.isInfinite(retVal)) {
+				retVal = Double.NaN;
+			}
+		}
+		return retVal;
+	}
+}
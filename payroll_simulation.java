@@ -0,0 +1,471 @@
+package businessOffice;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * The PayrollSimulation class works out the payroll of an account under many
+ * PayrollScenarios at once, without copying or changing the account. The
+ * employees are read through an AccountView, so the account can go on taking
+ * hires, hours and sales meanwhile and every scenario sees the same
+ * employees.
+ *
+ * All scenarios are worked out in a single pass over the employees: the rows
+ * are read a chunk of AccountView.CHUNK_ROWS at a time into small arrays, and
+ * every scenario is then applied to the chunk while it is still in the CPU
+ * cache, so going through the scenarios costs arithmetic only and the
+ * employee data is read from memory once however many scenarios there are.
+ * The rows of a chunk are grouped by employee type first, as
+ * EmployeeStore.payrollCentsOfType does, so the loop over a chunk for one
+ * scenario and type reads primitive arrays straight through with a single
+ * compiled pay formula (see PayPlan), which the JIT can inline. When the
+ * incubator Vector API is there (the tree compiled and run with
+ * --add-modules jdk.incubator.vector) the salaried and flat commission
+ * loops are those of PayrollVectors, many employees at a time; otherwise,
+ * and for hourly and tiered commission pay, the loops are scalar. Both give
+ * the same cents. As in PayrollEngine, large accounts are split
+ * into ranges of chunks summed by the threads of a ForkJoinPool and every
+ * sum is a whole number of cents, so the results are exact and the same
+ * however the work was split.
+ *
+ * For each scenario a Result holds the payroll (in total and by employee
+ * type), how far it is from the payroll of the account, and how the pay of
+ * single employees is spread: the lowest, highest and mean pay, its standard
+ * deviation, and how many employees would be paid more or less than now.
+ * The class cannot be instantiated.
+ */
+public final class PayrollSimulation {
+	// Views with fewer rows than this are simulated sequentially.
+	public static final int PARALLEL_THRESHOLD =
+			PayrollEngine.PARALLEL_THRESHOLD;
+
+	// Whether the loops of PayrollVectors can be used.
+	static final boolean VECTORS = ModuleLayer.boot()
+			.findModule("jdk.incubator.vector").isPresent();
+
+	// Largest range of chunks simulated by a single task.
+	static final int TASK_CHUNKS = PayrollEngine.CHUNK_SIZE
+			>> AccountView.CHUNK_SHIFT;
+
+	private PayrollSimulation() {
+	}
+
+	/*
+	 * Simulates the scenarios over a view of the account opened for the
+	 * purpose and closed again, using the common ForkJoinPool for large
+	 * accounts. Returns one Result per scenario, in the same order.
+	 */
+	public static Result[] simulate(Account account,
+			PayrollScenario[] scenarios) {
+		return simulate(account, scenarios, ForkJoinPool.commonPool());
+	}
+
+	public static Result[] simulate(Account account,
+			PayrollScenario[] scenarios, ForkJoinPool pool) {
+		AccountView view = account.openView();
+		try {
+			return simulate(view, scenarios, pool);
+		} finally {
+			view.close();
+		}
+	}
+
+	/*
+	 * Simulates the scenarios over the employees of an open view, using the
+	 * given pool for large views.
+	 */
+	public static Result[] simulate(AccountView view,
+			PayrollScenario[] scenarios, ForkJoinPool pool) {
+		return simulate(view, scenarios, pool, VECTORS);
+	}
+
+	/*
+	 * Simulates the scenarios as above, with the loops of PayrollVectors or
+	 * the scalar loops only; vectors must be false without the module.
+	 */
+	static Result[] simulate(AccountView view, PayrollScenario[] scenarios,
+			ForkJoinPool pool, boolean vectors) {
+		Model model = new Model(view, scenarios, vectors);
+		int chunks = view.numChunks();
+		Sums sums;
+		if (view.size() >= PARALLEL_THRESHOLD) {
+			sums = pool.invoke(new SimulationTask(model, 0, chunks));
+		} else {
+			sums = model.sum(0, chunks);
+		}
+
+		Result[] results = new Result[scenarios.length];
+		for (int s = 0; s < scenarios.length; s++) {
+			results[s] = new Result(scenarios[s], sums, s);
+		}
+		return results;
+	}
+
+	/*
+	 * What a scenario comes to.
+	 */
+	public static final class Result {
+		private final PayrollScenario scenario;
+		private final int numEmployees;
+		private final long payrollCents;
+		private final long changeCents;
+		private final long[] typeCents;
+		private final long minPayCents;
+		private final long maxPayCents;
+		private final double squares;
+		private final int numPaidMore;
+		private final int numPaidLess;
+
+		private Result(PayrollScenario scenario, Sums sums, int s) {
+			this.scenario = scenario;
+			numEmployees = sums.count;
+			payrollCents = sums.totals[s];
+			changeCents = payrollCents - sums.baseTotal;
+			typeCents = Arrays.copyOfRange(sums.typeTotals,
+					s * EmployeeStore.TYPE_SLOTS,
+					(s + 1) * EmployeeStore.TYPE_SLOTS);
+			minPayCents = sums.count == 0 ? 0 : sums.min[s];
+			maxPayCents = sums.count == 0 ? 0 : sums.max[s];
+			squares = sums.squares[s];
+			numPaidMore = sums.more[s];
+			numPaidLess = sums.less[s];
+		}
+
+		public PayrollScenario getScenario() {
+			return scenario;
+		}
+
+		public int numEmployees() {
+			return numEmployees;
+		}
+
+		public double getPayroll() {
+			return Money.toDouble(payrollCents);
+		}
+
+		public long getPayrollCents() {
+			return payrollCents;
+		}
+
+		// Returns the payroll of the employees of one type, or 0 if the
+		// type is not an EmployeeStore type tag.
+		public long getPayrollCents(byte type) {
+			return EmployeeStore.isType(type) ? typeCents[type] : 0;
+		}
+
+		// Returns the payroll of the scenario minus that of the account.
+		public long getChangeCents() {
+			return changeCents;
+		}
+
+		public long getMinPayCents() {
+			return minPayCents;
+		}
+
+		public long getMaxPayCents() {
+			return maxPayCents;
+		}
+
+		public double getMeanPayCents() {
+			return numEmployees == 0 ? 0.0
+					: (double) payrollCents / numEmployees;
+		}
+
+		public double getStdDevPayCents() {
+			double retVal = 0.0;
+			if (numEmployees > 0) {
+				double mean = getMeanPayCents();
+				retVal = Math.sqrt(Math.max(0.0, squares / numEmployees
+						- mean * mean));
+			}
+			return retVal;
+		}
+
+		// Return the number of employees the scenario pays more, and less,
+		// than the account does.
+		public int numPaidMore() {
+			return numPaidMore;
+		}
+
+		public int numPaidLess() {
+			return numPaidLess;
+		}
+	}
+
+	/*
+	 * The figures of every scenario laid out for the loops below: the raises
+	 * and commission changes in arrays indexed by scenario, the compiled
+	 * formula of every scenario and type, and for the loops of
+	 * PayrollVectors the number of pay periods of the salaried plan and
+	 * whether the commission is flat (and over how many periods its base is
+	 * paid, 0 for none).
+	 */
+	private static final class Model {
+		final AccountView view;
+		final boolean vectors;
+		final int numScenarios;
+		final double[] salaryRaises;
+		final double[] wageRaises;
+		final double[] rateChanges;
+		final int[] salaryPeriods;
+		final boolean[] flatCommissions;
+		final int[] basePeriods;
+		final PayPlan.Formula[][] formulas;
+		final PayPlan.Formula[] current =
+				new PayPlan.Formula[EmployeeStore.TYPE_SLOTS];
+
+		Model(AccountView view, PayrollScenario[] scenarios, boolean vectors) {
+			this.view = view;
+			this.vectors = vectors;
+			numScenarios = scenarios.length;
+			salaryRaises = new double[numScenarios];
+			wageRaises = new double[numScenarios];
+			rateChanges = new double[numScenarios];
+			salaryPeriods = new int[numScenarios];
+			flatCommissions = new boolean[numScenarios];
+			basePeriods = new int[numScenarios];
+			formulas = new PayPlan.Formula[numScenarios][];
+			for (byte type = EmployeeStore.SALARIED;
+					type < EmployeeStore.TYPE_SLOTS; type++) {
+				current[type] = view.getPayPlan(type).compile();
+			}
+			for (int s = 0; s < numScenarios; s++) {
+				PayrollScenario scenario = scenarios[s];
+				salaryRaises[s] = scenario.getSalaryRaisePercent();
+				wageRaises[s] = scenario.getWageRaisePercent();
+				rateChanges[s] = scenario.getCommissionRateChange();
+				formulas[s] = new PayPlan.Formula[EmployeeStore.TYPE_SLOTS];
+				for (byte type = EmployeeStore.SALARIED;
+						type < EmployeeStore.TYPE_SLOTS; type++) {
+					PayPlan plan = scenario.planFor(view.getPayPlan(type));
+					formulas[s][type] = plan.compile();
+					if (type == EmployeeStore.SALARIED) {
+						salaryPeriods[s] = plan.getPeriodsPerYear();
+					} else if (type == EmployeeStore.COMMISSIONED) {
+						flatCommissions[s] = !plan.isTiered();
+						basePeriods[s] = plan.getPeriodsPerYear();
+					}
+				}
+			}
+		}
+
+		/*
+		 * Simulates every scenario over the chunks from (inclusive) to to
+		 * (exclusive) of the view, one chunk at a time. The employees of a
+		 * chunk are grouped by type, rows start[type] to start[type + 1] of
+		 * the arrays, so that every loop over them is for a single formula.
+		 */
+		Sums sum(int from, int to) {
+			Sums sums = new Sums(numScenarios);
+			byte[] types = new byte[AccountView.CHUNK_ROWS];
+			long[] readSalaries = new long[AccountView.CHUNK_ROWS];
+			double[] readRates = new double[AccountView.CHUNK_ROWS];
+			int[] readHours = new int[AccountView.CHUNK_ROWS];
+			long[] readSales = new long[AccountView.CHUNK_ROWS];
+			long[] salaries = new long[AccountView.CHUNK_ROWS];
+			double[] rates = new double[AccountView.CHUNK_ROWS];
+			int[] hours = new int[AccountView.CHUNK_ROWS];
+			long[] sales = new long[AccountView.CHUNK_ROWS];
+			long[] nowPaid = new long[AccountView.CHUNK_ROWS];
+			long[] pay = new long[AccountView.CHUNK_ROWS];
+			int[] start = new int[EmployeeStore.TYPE_SLOTS + 1];
+
+			for (int c = from; c < to; c++) {
+				int n = view.readChunk(c, types, readSalaries, readRates,
+						readHours, readSales);
+				// counts the rows of each type, then moves every row to the
+				// next place left for its type
+				Arrays.fill(start, 0);
+				for (int i = 0; i < n; i++) {
+					start[types[i] + 1]++;
+				}
+				for (int t = 1; t < start.length; t++) {
+					start[t] += start[t - 1];
+				}
+				for (int i = 0; i < n; i++) {
+					int j = start[types[i]]++;
+					salaries[j] = readSalaries[i];
+					rates[j] = readRates[i];
+					hours[j] = readHours[i];
+					sales[j] = readSales[i];
+				}
+				for (int t = start.length - 1; t > 0; t--) {
+					start[t] = start[t - 1];
+				}
+				start[0] = 0;
+
+				for (byte type = EmployeeStore.SALARIED;
+						type < EmployeeStore.TYPE_SLOTS; type++) {
+					PayPlan.Formula formula = current[type];
+					for (int i = start[type]; i < start[type + 1]; i++) {
+						nowPaid[i] = formula.payCents(salaries[i], rates[i],
+								hours[i], sales[i]);
+						sums.baseTotal += nowPaid[i];
+					}
+				}
+				sums.count += n;
+				for (int s = 0; s < numScenarios; s++) {
+					for (byte type = EmployeeStore.SALARIED;
+							type < EmployeeStore.TYPE_SLOTS; type++) {
+						if (start[type] < start[type + 1]) {
+							payScenario(s, type, start[type], start[type + 1],
+									salaries, rates, hours, sales, pay);
+							addPay(sums, s, type, start[type],
+									start[type + 1], pay, nowPaid);
+						}
+					}
+				}
+			}
+			return sums;
+		}
+
+		/*
+		 * Private helper storing in pay[from..to) what scenario s pays the
+		 * employees of the given type in those rows of the arrays.
+		 */
+		private void payScenario(int s, byte type, int from, int to,
+				long[] salaries, double[] rates, int[] hours, long[] sales,
+				long[] pay) {
+			PayPlan.Formula formula = formulas[s][type];
+			if (type == EmployeeStore.SALARIED && vectors) {
+				PayrollVectors.salariedPay(salaries, from, to,
+						salaryRaises[s], salaryPeriods[s], pay);
+			} else if (type == EmployeeStore.SALARIED) {
+				double raise = salaryRaises[s];
+				for (int i = from; i < to; i++) {
+					long salary = salaries[i] + Money.percentOf(salaries[i],
+							raise, Money.DEFAULT_ROUNDING);
+					pay[i] = formula.payCents(salary, 0.0, 0, 0);
+				}
+			} else if (type == EmployeeStore.HOURLY) {
+				double raise = wageRaises[s];
+				for (int i = from; i < to; i++) {
+					long wage = salaries[i] + Money.percentOf(salaries[i],
+							raise, Money.DEFAULT_ROUNDING);
+					pay[i] = formula.payCents(wage, 0.0, hours[i], 0);
+				}
+			} else if (flatCommissions[s] && vectors) {
+				PayrollVectors.commissionPay(salaries, rates, sales, from, to,
+						rateChanges[s], basePeriods[s], pay);
+			} else {
+				double change = rateChanges[s];
+				for (int i = from; i < to; i++) {
+					double rate = Math.min(Math.max(0.0, rates[i] + change),
+							PayPlan.MAX_RATE);
+					pay[i] = formula.payCents(salaries[i], rate, 0, sales[i]);
+				}
+			}
+		}
+
+		/*
+		 * Private helper adding the pay in pay[from..to) of employees of the
+		 * given type under scenario s to sums.
+		 */
+		private void addPay(Sums sums, int s, byte type, int from, int to,
+				long[] pay, long[] nowPaid) {
+			long total = 0;
+			long min = sums.min[s];
+			long max = sums.max[s];
+			double squares = 0.0;
+			int more = 0;
+			int less = 0;
+			for (int i = from; i < to; i++) {
+				total += pay[i];
+				min = Math.min(min, pay[i]);
+				max = Math.max(max, pay[i]);
+				squares += (double) pay[i] * pay[i];
+				if (pay[i] > nowPaid[i]) {
+					more++;
+				} else if (pay[i] < nowPaid[i]) {
+					less++;
+				}
+			}
+			sums.totals[s] += total;
+			sums.typeTotals[s * EmployeeStore.TYPE_SLOTS + type] += total;
+			sums.min[s] = min;
+			sums.max[s] = max;
+			sums.squares[s] += squares;
+			sums.more[s] += more;
+			sums.less[s] += less;
+		}
+	}
+
+	/*
+	 * The sums of every scenario over a range of chunks, indexed by scenario
+	 * (and by scenario * EmployeeStore.TYPE_SLOTS + type for typeTotals).
+	 */
+	private static final class Sums {
+		int count = 0;
+		long baseTotal = 0;
+		final long[] totals;
+		final long[] typeTotals;
+		final long[] min;
+		final long[] max;
+		final double[] squares;
+		final int[] more;
+		final int[] less;
+
+		Sums(int numScenarios) {
+			totals = new long[numScenarios];
+			typeTotals = new long[numScenarios * EmployeeStore.TYPE_SLOTS];
+			min = new long[numScenarios];
+			max = new long[numScenarios];
+			squares = new double[numScenarios];
+			more = new int[numScenarios];
+			less = new int[numScenarios];
+			Arrays.fill(min, Long.MAX_VALUE);
+			Arrays.fill(max, Long.MIN_VALUE);
+		}
+
+		// Adds the sums of another range of chunks to these.
+		void add(Sums other) {
+			count += other.count;
+			baseTotal += other.baseTotal;
+			for (int s = 0; s < totals.length; s++) {
+				totals[s] += other.totals[s];
+				min[s] = Math.min(min[s], other.min[s]);
+				max[s] = Math.max(max[s], other.max[s]);
+				squares[s] += other.squares[s];
+				more[s] += other.more[s];
+				less[s] += other.less[s];
+			}
+			for (int i = 0; i < typeTotals.length; i++) {
+				typeTotals[i] += other.typeTotals[i];
+			}
+		}
+	}
+
+	/*
+	 * Task simulating the chunks from (inclusive) to to (exclusive), split in
+	 * two halves that run in parallel while there are more than TASK_CHUNKS.
+	 */
+	private static class SimulationTask extends RecursiveTask<Sums> {
+		private static final long serialVersionUID = 1L;
+
+		private final Model model;
+		private final int from;
+		private final int to;
+
+		SimulationTask(Model model, int from, int to) {
+			this.model = model;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Sums compute() {
+			Sums sums;
+			if (to - from <= TASK_CHUNKS) {
+				sums = model.sum(from, to);
+			} else {
+				int mid = (from + to) >>> 1;
+				SimulationTask left = new SimulationTask(model, from, mid);
+				left.fork();
+				sums = new SimulationTask(model, mid, to).compute();
+				sums.add(left.join());
+			}
+			return sums;
+		}
+	}
+}
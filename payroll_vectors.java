@@ -0,0 +1,164 @@
+package businessOffice;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * The PayrollVectors class holds the loops of PayrollSimulation written with
+ * the incubator Vector API: they work out the pay of a run of salaried, or
+ * of flat commissioned, employees of a chunk as many lanes at a time as the
+ * CPU has room for (8 longs with AVX-512). The cents they give are exactly
+ * those of the PayPlan formulas with Money.DEFAULT_ROUNDING (HALF_EVEN):
+ *
+ *   percentOf rounds its double product to a whole number, ties to even,
+ *             which for a product below 2^52 is what adding 2^52 and taking
+ *             it away again does (a product that large is whole already);
+ *   divide    divides in double, corrects the quotient so that the
+ *             remainder worked out on longs is from 0 to the divisor, and
+ *             rounds half to even from the remainder, for salaries from 0
+ *             to 2^52 cents (a vector holding another goes through Money).
+ *
+ * The lanes after the last whole vector go through Money as well.
+ *
+ * The module is incubating, so this class is compiled and run with
+ * --add-modules jdk.incubator.vector. PayrollSimulation only calls it when
+ * the module is there (see PayrollSimulation.VECTORS) and otherwise uses its
+ * scalar loops, so without the module this class is never loaded. The class
+ * cannot be instantiated.
+ */
+final class PayrollVectors {
+	private static final VectorSpecies<Long> LONGS =
+			LongVector.SPECIES_PREFERRED;
+	// Same shape, so a conversion keeps every lane.
+	private static final VectorSpecies<Double> DOUBLES =
+			DoubleVector.SPECIES_PREFERRED;
+
+	// Doubles from 2^52 on are whole numbers.
+	private static final double WHOLE = 0x1p52;
+	private static final long LARGE_CENTS = 1L << 52;
+
+	private PayrollVectors() {
+	}
+
+	/*
+	 * Stores in pay[from..to) the pay of salaried employees with the given
+	 * salaries, raised by raisePercent and split over periods.
+	 */
+	static void salariedPay(long[] salaries, int from, int to,
+			double raisePercent, int periods, long[] pay) {
+		double factor = raisePercent / 100;
+		int i = from;
+		int bound = from + LONGS.loopBound(to - from);
+		for (; i < bound; i += LONGS.length()) {
+			LongVector salary = LongVector.fromArray(LONGS, salaries, i);
+			salary = salary.add(rint(DoubleVector.broadcast(DOUBLES, factor)
+					.mul(toDoubles(salary))));
+			if (salary.compare(VectorOperators.GE, LARGE_CENTS)
+					.or(salary.compare(VectorOperators.LT, 0)).anyTrue()) {
+				for (int j = i; j < i + LONGS.length(); j++) {
+					pay[j] = salariedPay(salaries[j], raisePercent, periods);
+				}
+			} else {
+				divide(salary, periods).intoArray(pay, i);
+			}
+		}
+		for (; i < to; i++) {
+			pay[i] = salariedPay(salaries[i], raisePercent, periods);
+		}
+	}
+
+	/*
+	 * Stores in pay[from..to) the pay of commissioned employees on a flat
+	 * commission with the given rates changed by rateChange (and kept from
+	 * 0 to PayPlan.MAX_RATE), sales and yearly base salaries split over
+	 * periods, or no base if periods is 0.
+	 */
+	static void commissionPay(long[] bases, double[] rates, long[] sales,
+			int from, int to, double rateChange, int periods, long[] pay) {
+		int i = from;
+		int bound = from + LONGS.loopBound(to - from);
+		for (; i < bound; i += LONGS.length()) {
+			DoubleVector rate = DoubleVector.fromArray(DOUBLES, rates, i)
+					.add(rateChange).max(0.0).min(PayPlan.MAX_RATE);
+			LongVector cents = rint(rate.div(100).mul(toDoubles(
+					LongVector.fromArray(LONGS, sales, i))));
+			if (periods != 0) {
+				LongVector base = LongVector.fromArray(LONGS, bases, i);
+				if (base.compare(VectorOperators.GE, LARGE_CENTS).anyTrue()) {
+					for (int j = i; j < i + LONGS.length(); j++) {
+						pay[j] = Money.divide(bases[j], periods,
+								Money.DEFAULT_ROUNDING);
+					}
+					cents = cents.add(LongVector.fromArray(LONGS, pay, i));
+				} else {
+					cents = cents.add(divide(base, periods));
+				}
+			}
+			cents.intoArray(pay, i);
+		}
+		for (; i < to; i++) {
+			double rate = Math.min(Math.max(0.0, rates[i] + rateChange),
+					PayPlan.MAX_RATE);
+			pay[i] = Money.percentOf(sales[i], rate, Money.DEFAULT_ROUNDING);
+			if (periods != 0) {
+				pay[i] += Money.divide(bases[i], periods,
+						Money.DEFAULT_ROUNDING);
+			}
+		}
+	}
+
+	/*
+	 * Private helper working out the pay of one salaried employee as the
+	 * scalar loop of PayrollSimulation does.
+	 */
+	private static long salariedPay(long salary, double raisePercent,
+			int periods) {
+		salary += Money.percentOf(salary, raisePercent,
+				Money.DEFAULT_ROUNDING);
+		return Money.divide(salary, periods, Money.DEFAULT_ROUNDING);
+	}
+
+	// Private helper converting every lane to a double.
+	private static DoubleVector toDoubles(LongVector values) {
+		return (DoubleVector) values.convert(VectorOperators.L2D, 0);
+	}
+
+	/*
+	 * Private helper rounding every lane to a whole number, ties to even, as
+	 * Math.rint does, and converting it to a long.
+	 */
+	private static LongVector rint(DoubleVector values) {
+		DoubleVector size = values.abs();
+		DoubleVector whole = size.add(WHOLE).sub(WHOLE)
+				.blend(size, size.compare(VectorOperators.GE, WHOLE));
+		whole = whole.blend(whole.neg(),
+				values.compare(VectorOperators.LT, 0.0));
+		return (LongVector) whole.convert(VectorOperators.D2L, 0);
+	}
+
+	/*
+	 * Private helper dividing every lane (from 0 to 2^52) by divisor,
+	 * rounding half to even as Money.divide does.
+	 */
+	private static LongVector divide(LongVector cents, long divisor) {
+		LongVector quotient = (LongVector) toDoubles(cents).div(divisor)
+				.convert(VectorOperators.D2L, 0);
+		LongVector remainder = cents.sub(quotient.mul(divisor));
+		// the double quotient is at most one off
+		VectorMask<Long> low = remainder.compare(VectorOperators.LT, 0);
+		quotient = quotient.sub(1, low);
+		remainder = remainder.add(divisor, low);
+		VectorMask<Long> high = remainder.compare(VectorOperators.GE,
+				divisor);
+		quotient = quotient.add(1, high);
+		remainder = remainder.sub(divisor, high);
+		LongVector twice = remainder.add(remainder);
+		VectorMask<Long> away = twice.compare(VectorOperators.GT, divisor)
+				.or(twice.compare(VectorOperators.EQ, divisor)
+						.and(quotient.and(1).compare(VectorOperators.NE, 0)));
+		return quotient.add(1, away);
+	}
+}
@@ -0,0 +1,230 @@
+package businessOffice;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * The RecordingMetrics class is the PayrollMetrics that records everything:
+ * a counter for every operation, for every reason an operation is refused
+ * and for the growth of every kind of array, and a LatencyHistogram for
+ * every timed method. Counters are LongAdders so threads updating them at the
+ * same time do not fight over one memory location. One RecordingMetrics may
+ * be shared by several accounts to see their totals.
+ *
+ * register() makes the metrics available over JMX as a standard MBean (see
+ * RecordingMetricsMBean) named businessOffice:type=PayrollMetrics,name=...
+ * in the platform MBean server, e.g. for jconsole.
+ */
+public class RecordingMetrics implements PayrollMetrics, RecordingMetricsMBean {
+	private final LongAdder[] operations = adders(Operation.values().length);
+	private final LongAdder[] rejections = adders(Rejection.values().length);
+	private final LongAdder[] resizes = adders(Structure.values().length);
+	private final LatencyHistogram[] timers =
+			new LatencyHistogram[Timer.values().length];
+
+	private ObjectName registeredName;
+
+	public RecordingMetrics() {
+		for (int i = 0; i < timers.length; i++) {
+			timers[i] = new LatencyHistogram();
+		}
+	}
+
+	public void operation(Operation operation) {
+		operations[operation.ordinal()].increment();
+	}
+
+	public void rejected(Rejection reason) {
+		rejections[reason.ordinal()].increment();
+	}
+
+	public long startTimer() {
+		return System.nanoTime();
+	}
+
+	public void timed(Timer timer, long start) {
+		timers[timer.ordinal()].record(System.nanoTime() - start);
+	}
+
+	public void resized(Structure structure, int oldCapacity,
+			int newCapacity) {
+		resizes[structure.ordinal()].increment();
+	}
+
+	/*
+	 * Returns the number of times an operation was carried out, was refused
+	 * for a reason, or an array of a kind grew.
+	 */
+	public long count(Operation operation) {
+		return operations[operation.ordinal()].sum();
+	}
+
+	public long count(Rejection reason) {
+		return rejections[reason.ordinal()].sum();
+	}
+
+	public long count(Structure structure) {
+		return resizes[structure.ordinal()].sum();
+	}
+
+	// Returns the histogram of the times of a timed method.
+	public LatencyHistogram histogram(Timer timer) {
+		return timers[timer.ordinal()];
+	}
+
+	/*
+	 * Registers the metrics with the platform MBean server under the given
+	 * name (e.g. the account name), replacing any MBean already registered
+	 * under it.
+	 */
+	public synchronized void register(String name) throws JMException {
+		unregister();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName(
+				"businessOffice:type=PayrollMetrics,name="
+						+ ObjectName.quote(name));
+		if (server.isRegistered(objectName)) {
+			server.unregisterMBean(objectName);
+		}
+		server.registerMBean(this, objectName);
+		registeredName = objectName;
+	}
+
+	// Removes the metrics from the platform MBean server, if registered.
+	public synchronized void unregister() throws JMException {
+		if (registeredName != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(registeredName)) {
+				server.unregisterMBean(registeredName);
+			}
+			registeredName = null;
+		}
+	}
+
+	// Sets every counter back to 0 and empties every histogram.
+	public void reset() {
+		for (LongAdder adder : operations) {
+			adder.reset();
+		}
+		for (LongAdder adder : rejections) {
+			adder.reset();
+		}
+		for (LongAdder adder : resizes) {
+			adder.reset();
+		}
+		for (LatencyHistogram timer : timers) {
+			timer.reset();
+		}
+	}
+
+	public long getLookups() {
+		return count(Operation.LOOKUP);
+	}
+
+	public long getHires() {
+		return count(Operation.HIRE);
+	}
+
+	public long getHoursLogged() {
+		return count(Operation.HOURS);
+	}
+
+	public long getSales() {
+		return count(Operation.SALE);
+	}
+
+	public long getNewPayPeriods() {
+		return count(Operation.NEW_PAY_PERIOD);
+	}
+
+	public long getTerminations() {
+		return count(Operation.TERMINATE);
+	}
+
+	public long getRejectedInvalidName() {
+		return count(Rejection.INVALID_NAME);
+	}
+
+	public long getRejectedInvalidAmount() {
+		return count(Rejection.INVALID_AMOUNT);
+	}
+
+	public long getRejectedDuplicateName() {
+		return count(Rejection.DUPLICATE_NAME);
+	}
+
+	public long getRejectedEmployeeLimit() {
+		return count(Rejection.EMPLOYEE_LIMIT);
+	}
+
+	public long getRejectedUnknownEmployee() {
+		return count(Rejection.UNKNOWN_EMPLOYEE);
+	}
+
+	public long getRejectedHoursCap() {
+		return count(Rejection.HOURS_CAP);
+	}
+
+	public long getEmployeeStoreResizes() {
+		return count(Structure.EMPLOYEE_STORE);
+	}
+
+	public long getDatarrayListResizes() {
+		return count(Structure.DATARRAY_LIST);
+	}
+
+	public long getGetPayrollCount() {
+		return histogram(Timer.GET_PAYROLL).count();
+	}
+
+	public long getGetPayrollP50Nanos() {
+		return histogram(Timer.GET_PAYROLL).percentile(50.0);
+	}
+
+	public long getGetPayrollP99Nanos() {
+		return histogram(Timer.GET_PAYROLL).percentile(99.0);
+	}
+
+	public long getGetPayrollMaxNanos() {
+		return histogram(Timer.GET_PAYROLL).max();
+	}
+
+	public long getVerifyPayrollCount() {
+		return histogram(Timer.VERIFY_PAYROLL).count();
+	}
+
+	public long getVerifyPayrollP50Nanos() {
+		return histogram(Timer.VERIFY_PAYROLL).percentile(50.0);
+	}
+
+	public long getVerifyPayrollP99Nanos() {
+		return histogram(Timer.VERIFY_PAYROLL).percentile(99.0);
+	}
+
+	public long getVerifyPayrollMaxNanos() {
+		return histogram(Timer.VERIFY_PAYROLL).max();
+	}
+
+	public long getNewPayPeriodP50Nanos() {
+		return histogram(Timer.NEW_PAY_PERIOD).percentile(50.0);
+	}
+
+	public long getNewPayPeriodP99Nanos() {
+		return histogram(Timer.NEW_PAY_PERIOD).percentile(99.0);
+	}
+
+	public long getNewPayPeriodMaxNanos() {
+		return histogram(Timer.NEW_PAY_PERIOD).max();
+	}
+
+	private static LongAdder[] adders(int count) {
+		LongAdder[] adders = new LongAdder[count];
+		for (int i = 0; i < count; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+}
@@ -0,0 +1,60 @@
+package businessOffice;
+
+/*
+ * The RecordingMetricsMBean interface lists the attributes RecordingMetrics
+ * shows over JMX (see RecordingMetrics.register()). Times are in
+ * nanoseconds.
+ */
+public interface RecordingMetricsMBean {
+	long getLookups();
+
+	long getHires();
+
+	long getHoursLogged();
+
+	long getSales();
+
+	long getNewPayPeriods();
+
+	long getTerminations();
+
+	long getRejectedInvalidName();
+
+	long getRejectedInvalidAmount();
+
+	long getRejectedDuplicateName();
+
+	long getRejectedEmployeeLimit();
+
+	long getRejectedUnknownEmployee();
+
+	long getRejectedHoursCap();
+
+	long getEmployeeStoreResizes();
+
+	long getDatarrayListResizes();
+
+	long getGetPayrollCount();
+
+	long getGetPayrollP50Nanos();
+
+	long getGetPayrollP99Nanos();
+
+	long getGetPayrollMaxNanos();
+
+	long getVerifyPayrollCount();
+
+	long getVerifyPayrollP50Nanos();
+
+	long getVerifyPayrollP99Nanos();
+
+	long getVerifyPayrollMaxNanos();
+
+	long getNewPayPeriodP50Nanos();
+
+	long getNewPayPeriodP99Nanos();
+
+	long getNewPayPeriodMaxNanos();
+
+	void reset();
+}
@@ -3,20 +3,28 @@ package businessOffice;
 /*
  * The SalariedEmployee class is used to create objects of the Employee class
  * which are SPECIFICALLY salaried i.e. paid a yearly salary to work at their
- * company. Apart from the fields extended to it by the Employee class such as
- * empName and empSaleAmt, it has its own field, namely a double representing
- * the employee's yearly salary (empYearlySalary). This class also includes 
- * three methods that it uses to override the parent class's methods of the
- * same name.
+ * company. Like every Employee it is a view over a row of an EmployeeStore,
+ * where the employee's yearly salary is kept in cents in the salary column.
+ * This class also includes three methods that it uses to override the parent
+ * class's methods of the same name, and a static method holding the salaried
+ * hour rule so that EmployeeStore can apply it to a row without creating an
+ * object. How the salary is paid out is decided by the salaried PayPlan of
+ * the store.
  */
-public class SalariedEmployee extends Employee {
-	private double empYearlySalary;
+public final class SalariedEmployee extends Employee {
+	// The most hours a salaried employee can log in a pay period before any
+	// more hours are refused.
+	public static final int MAX_HOURS = 80;
 
 	// This constructor overrides the default constructor from the Employee
 	// class it extends, using the parameters employee name and yearlySalary.
 	public SalariedEmployee(String name, double yearlySalary) {
-		super(name);
-		empYearlySalary = yearlySalary;
+		super(name, EmployeeStore.SALARIED, Money.toCents(yearlySalary), 0.0);
+	}
+
+	// Constructor used by EmployeeStore.view() for an existing row.
+	SalariedEmployee(EmployeeStore store, int row) {
+		super(store, row);
 	}
 
 	/*
@@ -30,13 +38,23 @@ public class SalariedEmployee extends Employee {
 	@Override
 	public boolean addHours(int hours) {
 		boolean flag = false;
-		if (empHours < 80) {
+		if (hoursAccepted(getHours())) {
 			flag = true;
 			super.addHours(hours);
 		}
 		return flag;
 	}
 
+	/*
+	 * This method checks whether a SalariedEmployee who has already worked
+	 * currentHours in this pay period may log more hours. Hours are only
+	 * accepted while the employee is under 80 hours, so as to avoid paying
+	 * overtime.
+	 */
+	static boolean hoursAccepted(int currentHours) {
+		return currentHours < MAX_HOURS;
+	}
+
 	/*
 	 * This method adds sales to the total number of sales a SalariedEmployee
 	 * has, overriding the method of the same name in the Employee class however
@@ -53,10 +71,11 @@ public class SalariedEmployee extends Employee {
 	 * This method calculates the total pay of a SalariedEmployee has,
 	 * overriding the method of the same name in the Employee class however it
 	 * is specific to the Salaried class as it divides the yearly pay the
-	 * salaried employee has by the 26 pay periods in the year.
+	 * salaried employee has by the pay periods in the year (26 unless the
+	 * salaried PayPlan of the store says otherwise).
 	 */
 	@Override
 	public double totalPay() {
-		return empYearlySalary / 26;
+		return Money.toDouble(store.totalPayCents(row));
 	}
 }